@@ -0,0 +1,37 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Widget;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+final class Boards {
+    static final int WIDGET_SIZE = 10;
+
+    private Boards() {
+    }
+
+    // side of a square board, widgets cover about 1/16 of its area
+    static int side(final int widgetCount) {
+        return (int) Math.ceil(Math.sqrt(widgetCount)) * WIDGET_SIZE * 4;
+    }
+
+    /**
+     * Returns widgets without ids with z-indexes 1..count placed randomly on the board, the placement is the same
+     * for every run.
+     */
+    static List<Widget> widgets(final int count) {
+        final SplittableRandom random = new SplittableRandom(42);
+        final int side = side(count);
+        final LocalDateTime lastModified = LocalDateTime.now();
+
+        final List<Widget> widgets = new ArrayList<>(count);
+        for (int zIndex = 1; zIndex <= count; zIndex++) {
+            widgets.add(new Widget(null, random.nextInt(side - WIDGET_SIZE), random.nextInt(side - WIDGET_SIZE),
+                    zIndex, WIDGET_SIZE, WIDGET_SIZE, lastModified));
+        }
+        return widgets;
+    }
+}
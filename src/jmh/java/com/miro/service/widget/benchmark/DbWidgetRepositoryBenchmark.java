@@ -0,0 +1,101 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.repository.impl.DbWidgetRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts per second of the database profile. jdbcBatchSize=0 turns JDBC batching off to compare against it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DbWidgetRepositoryBenchmark {
+    private static final int WIDGETS_PER_BATCH = 1000;
+
+    @Param({"0", "50"})
+    int jdbcBatchSize;
+
+    private ConfigurableApplicationContext context;
+    private DbWidgetRepository dbRepository;
+    private WidgetRepository repository;
+    private int topZIndex;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(JpaConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.jpa.properties.hibernate.jdbc.batch_size=" + jdbcBatchSize,
+                        "logging.level.root=WARN")
+                .run("--spring.profiles.active=database");
+        dbRepository = context.getBean(DbWidgetRepository.class);
+        repository = dbRepository;
+    }
+
+    @TearDown(Level.Iteration)
+    public void clear() {
+        dbRepository.deleteAllInBatch();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget save() {
+        return repository.save(newWidget());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDGETS_PER_BATCH)
+    public List<Widget> saveAll() {
+        final List<Widget> widgets = new ArrayList<>(WIDGETS_PER_BATCH);
+        for (int i = 0; i < WIDGETS_PER_BATCH; i++) {
+            widgets.add(newWidget());
+        }
+        return repository.saveAll(widgets);
+    }
+
+    // only JPA is started, the rest of the application (and test configurations on the classpath) is not scanned
+    @Configuration
+    @EnableAutoConfiguration
+    @EntityScan(basePackageClasses = Widget.class)
+    @EnableJpaRepositories(basePackageClasses = DbWidgetRepository.class)
+    static class JpaConfiguration {
+    }
+
+    // every widget is put on top, so z-indexes stay unique across iterations
+    private Widget newWidget() {
+        return new Widget(null, 0, 0, ++topZIndex, Boards.WIDGET_SIZE, Boards.WIDGET_SIZE, LocalDateTime.now());
+    }
+}
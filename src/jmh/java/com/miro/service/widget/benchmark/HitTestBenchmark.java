@@ -0,0 +1,67 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.impl.MemoryWidgetRepository;
+import com.miro.service.widget.service.WidgetService;
+import com.miro.service.widget.util.SpatialIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of finding the topmost widgets at a random point of the board, see p0.99 of the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HitTestBenchmark {
+    @Param({"RTREE", "INT_RTREE"})
+    SpatialIndex.Engine engine;
+
+    @Param({"100000", "1000000"})
+    int boardSize;
+
+    @Param({"1", "10"})
+    int limit;
+
+    private WidgetService widgetService;
+    private int boardSide;
+
+    @Setup
+    public void setUp() {
+        final MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        Boards.widgets(boardSize).forEach(repository::save);
+
+        widgetService = new WidgetService();
+        ReflectionTestUtils.setField(widgetService, "widgetRepository", repository);
+        ReflectionTestUtils.setField(widgetService, "eventPublisher", (ApplicationEventPublisher) event -> {
+        });
+        ReflectionTestUtils.setField(widgetService, "searchTree", engine.create());
+        widgetService.loadSearchTree();
+
+        boardSide = Boards.side(boardSize);
+    }
+
+    @Benchmark
+    public List<Widget> findAllAtPoint() {
+        return widgetService.findAllAtPoint(ThreadLocalRandom.current().nextInt(boardSide),
+                ThreadLocalRandom.current().nextInt(boardSide), limit);
+    }
+}
@@ -0,0 +1,78 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.impl.MemoryWidgetRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MemoryWidgetRepositoryBenchmark {
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"1000", "100000", "1000000"})
+    int boardSize;
+
+    private MemoryWidgetRepository repository;
+
+    @Setup
+    public void setUp() {
+        repository = new MemoryWidgetRepository();
+        Boards.widgets(boardSize).forEach(repository::save);
+    }
+
+    @Benchmark
+    public Optional<Widget> findById() {
+        return repository.findById(randomId());
+    }
+
+    @Benchmark
+    public Widget updateKeepingZIndex() {
+        final Widget widget = repository.findById(randomId()).orElseThrow();
+        widget.setX(widget.getX() + 1);
+        return repository.save(widget);
+    }
+
+    @Benchmark
+    public void createAndDeleteOnTop() {
+        final Widget widget = repository.save(new Widget(null, 0, 0, boardSize + 1,
+                Boards.WIDGET_SIZE, Boards.WIDGET_SIZE, LocalDateTime.now()));
+        repository.deleteById(widget.getId());
+    }
+
+    @Benchmark
+    public List<Widget> findAllMiddlePage() {
+        return repository.findAll(PageRequest.of(boardSize / 2 / PAGE_SIZE, PAGE_SIZE)).getContent();
+    }
+
+    @Benchmark
+    public Slice<Widget> findSliceAfterMiddleZIndex() {
+        return repository.findByZindexGreaterThanOrderByZindex(boardSize / 2, PageRequest.of(0, PAGE_SIZE));
+    }
+
+    private long randomId() {
+        // repository assigns ids 1..boardSize in the order widgets are saved
+        return ThreadLocalRandom.current().nextLong(1, boardSize + 1);
+    }
+}
@@ -0,0 +1,58 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.util.RTreeWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RTreeWrapperBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int boardSize;
+
+    // share of the board area covered by the searched area
+    @Param({"0.0001", "0.01", "0.1"})
+    double selectivity;
+
+    private final RTreeWrapper tree = new RTreeWrapper();
+    private int boardSide;
+    private int areaSide;
+
+    @Setup
+    public void setUp() {
+        final List<Widget> widgets = Boards.widgets(boardSize);
+        for (int i = 0; i < widgets.size(); i++) {
+            widgets.get(i).setId(i + 1L);
+        }
+        tree.rebuild(widgets);
+
+        boardSide = Boards.side(boardSize);
+        areaSide = (int) Math.max(1, boardSide * Math.sqrt(selectivity));
+    }
+
+    @Benchmark
+    public void search(final Blackhole blackhole) {
+        final int left = ThreadLocalRandom.current().nextInt(boardSide - areaSide + 1);
+        final int bottom = ThreadLocalRandom.current().nextInt(boardSide - areaSide + 1);
+        tree.searchWidgets(left, bottom, left + areaSide, bottom + areaSide, 0, Integer.MAX_VALUE, blackhole::consume);
+    }
+}
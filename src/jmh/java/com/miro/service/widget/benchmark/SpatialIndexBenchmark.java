@@ -0,0 +1,103 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.util.SpatialIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares spatial index engines. Update removes a widget and inserts it at another position,
+ * so the cost of deletion is the difference to insert. Heap retained by the index is printed once it is built.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SpatialIndexBenchmark {
+    // share of the board area covered by the searched area
+    private static final double SELECTIVITY = 0.001;
+
+    @Param({"RTREE", "INT_RTREE"})
+    SpatialIndex.Engine engine;
+
+    @Param({"1000", "100000", "1000000"})
+    int boardSize;
+
+    private List<Widget> widgets;
+    private SpatialIndex index;
+    private int boardSide;
+    private int areaSide;
+    private long nextId;
+
+    @Setup
+    public void setUp() {
+        widgets = Boards.widgets(boardSize);
+        for (int i = 0; i < widgets.size(); i++) {
+            widgets.get(i).setId(i + 1L);
+        }
+        boardSide = Boards.side(boardSize);
+        areaSide = (int) Math.max(1, boardSide * Math.sqrt(SELECTIVITY));
+
+        // widgets are referenced before and after, so only the index itself is measured
+        final long usedHeap = usedHeap();
+        index = engine.create();
+        index.rebuild(widgets);
+        // JMH has no result for it, so it is printed to the run log
+        System.out.printf("Heap retained by %s: %d bytes per widget%n", engine, (usedHeap() - usedHeap) / boardSize);
+    }
+
+    // widgets inserted during the iteration are dropped, so every iteration starts with the same board
+    @TearDown(Level.Iteration)
+    public void restoreBoard() {
+        index.rebuild(widgets);
+        nextId = boardSize;
+    }
+
+    @Benchmark
+    public void insert() {
+        index.add(randomWidget(++nextId));
+    }
+
+    @Benchmark
+    public void update() {
+        index.update(randomWidget(1 + ThreadLocalRandom.current().nextInt(boardSize)));
+    }
+
+    @Benchmark
+    public void search(final Blackhole blackhole) {
+        final int left = ThreadLocalRandom.current().nextInt(boardSide - areaSide + 1);
+        final int bottom = ThreadLocalRandom.current().nextInt(boardSide - areaSide + 1);
+        index.search(left, bottom, left + areaSide, bottom + areaSide, 0, Integer.MAX_VALUE, blackhole::consume);
+    }
+
+    private Widget randomWidget(final long id) {
+        return new Widget(id, ThreadLocalRandom.current().nextInt(boardSide - Boards.WIDGET_SIZE),
+                ThreadLocalRandom.current().nextInt(boardSide - Boards.WIDGET_SIZE), (int) id,
+                Boards.WIDGET_SIZE, Boards.WIDGET_SIZE, null);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
@@ -0,0 +1,88 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Area;
+import com.miro.service.widget.repository.impl.MemoryWidgetRepository;
+import com.miro.service.widget.service.WidgetService;
+import com.miro.service.widget.util.SpatialIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filtering the viewports of a dashboard one by one and at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ViewportsBenchmark {
+    // share of the board area covered by the main canvas
+    private static final double SELECTIVITY = 0.001;
+
+    @Param({"RTREE", "INT_RTREE"})
+    SpatialIndex.Engine engine;
+
+    @Param({"100000", "1000000"})
+    int boardSize;
+
+    private WidgetService widgetService;
+    private int boardSide;
+    private int areaSide;
+
+    @Setup
+    public void setUp() {
+        final MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        Boards.widgets(boardSize).forEach(repository::save);
+
+        widgetService = new WidgetService();
+        ReflectionTestUtils.setField(widgetService, "widgetRepository", repository);
+        ReflectionTestUtils.setField(widgetService, "eventPublisher", (ApplicationEventPublisher) event -> {
+        });
+        ReflectionTestUtils.setField(widgetService, "searchTree", engine.create());
+        widgetService.loadSearchTree();
+
+        boardSide = Boards.side(boardSize);
+        areaSide = (int) Math.max(2, boardSide * Math.sqrt(SELECTIVITY));
+    }
+
+    @Benchmark
+    public void findAllInArea(final Blackhole blackhole) {
+        for (Area area : randomViewports()) {
+            blackhole.consume(widgetService.findAllInArea(area.getLeft(), area.getBottom(), area.getRight(),
+                    area.getTop()));
+        }
+    }
+
+    @Benchmark
+    public List<List<Long>> forEachInAreas(final Blackhole blackhole) {
+        return widgetService.forEachInAreas(SpatialIndex.Mode.WITHIN, randomViewports(), blackhole::consume);
+    }
+
+    // the main canvas, two split views of it and a minimap around it of four times its area
+    private List<Area> randomViewports() {
+        final int left = areaSide / 2 + ThreadLocalRandom.current().nextInt(boardSide - 2 * areaSide + 1);
+        final int bottom = areaSide / 2 + ThreadLocalRandom.current().nextInt(boardSide - 2 * areaSide + 1);
+        final int middle = left + areaSide / 2;
+        return List.of(new Area(left, bottom, left + areaSide, bottom + areaSide),
+                new Area(left, bottom, middle, bottom + areaSide),
+                new Area(middle, bottom, left + areaSide, bottom + areaSide),
+                new Area(left - areaSide / 2, bottom - areaSide / 2, left + areaSide * 3 / 2, bottom + areaSide * 3 / 2));
+    }
+}
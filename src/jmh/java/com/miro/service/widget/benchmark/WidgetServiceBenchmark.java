@@ -0,0 +1,66 @@
+package com.miro.service.widget.benchmark;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.impl.MemoryWidgetRepository;
+import com.miro.service.widget.service.WidgetService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WidgetServiceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int boardSize;
+
+    // number of widgets shifted by every created widget
+    @Param({"1", "100", "10000"})
+    int stackDepth;
+
+    private WidgetService widgetService;
+    private int topZIndex;
+    private int shiftedWidgets;
+
+    @Setup
+    public void setUp() {
+        final MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        Boards.widgets(boardSize).forEach(repository::save);
+
+        widgetService = new WidgetService();
+        ReflectionTestUtils.setField(widgetService, "widgetRepository", repository);
+        ReflectionTestUtils.setField(widgetService, "eventPublisher", (ApplicationEventPublisher) event -> {
+        });
+        widgetService.loadSearchTree();
+
+        topZIndex = boardSize;
+        shiftedWidgets = Math.min(stackDepth, boardSize);
+    }
+
+    /**
+     * Creates a widget below the top shiftedWidgets widgets and deletes it to keep the board size.
+     * The freed position stays right below the shifted widgets, so every invocation shifts the same number of them.
+     */
+    @Benchmark
+    public void createWithZIndexCollision() {
+        final Widget widget = widgetService.create(new Widget(null, 0, 0, topZIndex - shiftedWidgets + 1,
+                Boards.WIDGET_SIZE, Boards.WIDGET_SIZE, null));
+        topZIndex++;
+        widgetService.delete(widget.getId());
+    }
+}
@@ -1,11 +1,18 @@
 package com.miro.service.widget.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.service.widget.dto.AreaDTO;
+import com.miro.service.widget.dto.AreaWidgetsDTO;
+import com.miro.service.widget.dto.BatchUpdateWidgetDTO;
 import com.miro.service.widget.dto.CreateWidgetDTO;
 import com.miro.service.widget.dto.UpdateWidgetDTO;
 import com.miro.service.widget.dto.WidgetDTO;
+import com.miro.service.widget.model.Area;
 import com.miro.service.widget.model.Paging;
 import com.miro.service.widget.model.Widget;
 import com.miro.service.widget.service.WidgetService;
+import com.miro.service.widget.util.SpatialIndex;
 import com.miro.service.widget.util.WidgetUtil;
 import io.swagger.annotations.Api;
 import io.swagger.v3.oas.annotations.Operation;
@@ -16,6 +23,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -25,45 +33,158 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Collectors;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
 @Api("widget")
+@Validated
 @RestController
 @RequestMapping(path = {"/api/v1/widgets"}, produces = APPLICATION_JSON_VALUE)
 public class WidgetController {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final int DEFAULT_Z_INDEX_PAGE_SIZE = 100;
+
     @Autowired
     private WidgetService widgetService;
 
-    @Operation(summary = "Returns a list of all widgets")
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Operation(summary = "Returns a list of all widgets",
+               description = "When afterZIndex (z-index of the last widget of the previous page) is set, "
+                       + "the page is found by it and page parameter is ignored.")
     @ApiResponse(responseCode = "200", description = "List of widgets returned",
                  content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDTO.class))})
     @GetMapping
     public List<WidgetDTO> all(
             @RequestParam(value = "page", required = false, defaultValue = "0") final int page,
-            @RequestParam(value = "size", required = false, defaultValue = "10") int size) {
-        final Paging paging = new Paging(page, size);
-        return widgetService.findAll(paging).stream()
+            @RequestParam(value = "size", required = false, defaultValue = "10") int size,
+            @RequestParam(value = "afterZIndex", required = false) final Integer afterZIndex) {
+        final List<Widget> widgets = afterZIndex != null
+                ? widgetService.findAllAfterZIndex(afterZIndex, size)
+                : widgetService.findAll(new Paging(page, size));
+        return widgets.stream()
                 .map(WidgetUtil::convert)
                 .collect(Collectors.toList());
     }
 
-    @Operation(summary = "Returns a list of all widgets within an area")
-    @ApiResponse(responseCode = "200", description = "List of widgets returned",
+    @Operation(summary = "Returns a list of all widgets within an area, the list is streamed as widgets are found",
+               description = "Widgets are returned in the order they are found unless ordering by z-index is requested "
+                       + "with orderByZIndex or afterZIndex. In that order afterZIndex is the z-index of the last "
+                       + "widget of the previous page, cursor can't be used and limit is " + DEFAULT_Z_INDEX_PAGE_SIZE
+                       + " by default and " + WidgetService.MAX_Z_INDEX_PAGE_SIZE + " at most. With mode=intersects widgets overlapping "
+                       + "the area are returned too, touching its border only is not enough. The cursor is a position "
+                       + "in the order widgets are found, which changes with writes, so pages read while the board "
+                       + "changes may skip or repeat widgets.")
+    @ApiResponse(responseCode = "200", description = "List of widgets returned, when limit is set and widgets are "
+            + "not ordered by z-index " + NEXT_CURSOR_HEADER + " header holds the cursor of the next page, "
+            + "it's missing on the last page",
                  content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDTO.class))})
     @GetMapping("/filter")
-    public List<WidgetDTO> filter(
+    public void filter(
             @RequestParam(value = "left") final int left,
             @RequestParam(value = "bottom") final int bottom,
             @RequestParam(value = "right") final int right,
-            @RequestParam(value = "top") int top) {
-        return widgetService.findAllInArea(left, bottom, right, top).stream()
-                .map(WidgetUtil::convert)
+            @RequestParam(value = "top") int top,
+            @RequestParam(value = "cursor", required = false, defaultValue = "0") @PositiveOrZero final int cursor,
+            @RequestParam(value = "limit", required = false) @Positive final Integer limit,
+            @RequestParam(value = "orderByZIndex", required = false, defaultValue = "false") final boolean orderByZIndex,
+            @RequestParam(value = "afterZIndex", required = false) final Integer afterZIndex,
+            @RequestParam(value = "mode", required = false, defaultValue = "within") final String mode,
+            final HttpServletResponse response) throws IOException {
+        final SpatialIndex.Mode areaMode = areaMode(mode);
+        final boolean zIndexOrder = orderByZIndex || afterZIndex != null;
+        if (zIndexOrder && cursor != 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "cursor can't be used with z-index order");
+        }
+
+        if (zIndexOrder && limit != null && limit > WidgetService.MAX_Z_INDEX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit can't exceed " + WidgetService.MAX_Z_INDEX_PAGE_SIZE + " with z-index order");
+        }
+
+        // widgets in z-index order are selected in memory before they are written, so the page is always bounded
+        final int maxWidgets = limit != null ? limit : zIndexOrder ? DEFAULT_Z_INDEX_PAGE_SIZE : Integer.MAX_VALUE;
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        if (limit != null && !zIndexOrder) {
+            // cursor is the number of widgets in the area already read; the header precedes the streamed widgets,
+            // so whether the next page is empty is looked up in the tree beforehand
+            final long nextCursor = (long) cursor + limit;
+            if (nextCursor <= Integer.MAX_VALUE
+                    && widgetService.existsInArea(areaMode, left, bottom, right, top, (int) nextCursor)) {
+                response.setHeader(NEXT_CURSOR_HEADER, String.valueOf(nextCursor));
+            }
+        }
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            if (zIndexOrder) {
+                widgetService.findAllInArea(areaMode, left, bottom, right, top, afterZIndex, maxWidgets)
+                        .forEach(widget -> writeWidget(generator, widget));
+            } else {
+                widgetService.forEachInArea(areaMode, left, bottom, right, top, cursor, maxWidgets,
+                        widget -> writeWidget(generator, widget));
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    @Operation(summary = "Returns widgets within several areas at once, widgets are streamed as they are read",
+               description = "At most " + SpatialIndex.MAX_AREAS + " areas are searched in a single traversal of "
+                       + "the tree. Every found widget is returned once in widgets, areas hold ids of widgets found in "
+                       + "every area in the order areas are given. With mode=intersects widgets overlapping the areas "
+                       + "are returned too.")
+    @ApiResponse(responseCode = "200", description = "Widgets found in the areas returned",
+                 content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = AreaWidgetsDTO.class))})
+    @PostMapping(path = "/filter/batch", consumes = APPLICATION_JSON_VALUE)
+    public void filterAll(
+            @RequestBody @Size(max = SpatialIndex.MAX_AREAS) final List<@NotNull @Valid AreaDTO> areaDTOs,
+            @RequestParam(value = "mode", required = false, defaultValue = "within") final String mode,
+            final HttpServletResponse response) throws IOException {
+        final SpatialIndex.Mode areaMode = areaMode(mode);
+        final List<Area> areas = areaDTOs.stream()
+                .map(areaDTO -> new Area(areaDTO.getLeft(), areaDTO.getBottom(), areaDTO.getRight(), areaDTO.getTop()))
                 .collect(Collectors.toList());
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("widgets");
+            // ids of areas are known once all widgets are read, so they follow the widgets
+            final List<List<Long>> areaIds = widgetService.forEachInAreas(areaMode, areas,
+                    widget -> writeWidget(generator, widget));
+            generator.writeEndArray();
+            generator.writeObjectField("areas", areaIds);
+            generator.writeEndObject();
+        }
+    }
+
+    @Operation(summary = "Returns widgets covering a point, the topmost first",
+               description = "A widget covers the points from its x, y up to (not including) its right and top edges. "
+                       + "At most limit widgets with the highest z-indexes are returned.")
+    @ApiResponse(responseCode = "200", description = "List of widgets returned",
+                 content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDTO.class))})
+    @GetMapping("/at")
+    public List<WidgetDTO> at(
+            @RequestParam(value = "x") @Max(Integer.MAX_VALUE - 1) final int x,
+            @RequestParam(value = "y") @Max(Integer.MAX_VALUE - 1) final int y,
+            @RequestParam(value = "limit", required = false, defaultValue = "1") @Positive final int limit) {
+        return convert(widgetService.findAllAtPoint(x, y, limit));
     }
 
     @Operation(summary = "Get a widget by its id")
@@ -105,4 +226,66 @@ public class WidgetController {
         widgetService.delete(id);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
+
+    @Operation(summary = "Create several widgets",
+               description = "Widgets are created as if they were created one by one in the given order")
+    @ApiResponse(responseCode = "201", description = "Widgets are created",
+                 content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDTO.class))})
+    @PostMapping(path = "/batch", consumes = APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<WidgetDTO>> createAll(
+            @RequestBody final List<@NotNull @Valid CreateWidgetDTO> widgetDTOs) {
+        final List<Widget> widgets = widgetDTOs.stream()
+                .map(widgetDTO -> new Widget(null, widgetDTO.getX(), widgetDTO.getY(), widgetDTO.getZIndex(),
+                        widgetDTO.getWidth(), widgetDTO.getHeight(), null))
+                .collect(Collectors.toList());
+        return new ResponseEntity<>(convert(widgetService.createAll(widgets)), HttpStatus.CREATED);
+    }
+
+    @Operation(summary = "Update several widgets",
+               description = "Widgets are updated as if they were updated one by one in the given order")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Widgets are updated",
+                         content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDTO.class))}),
+            @ApiResponse(responseCode = "404", description = "Some widget not found, nothing is updated", content = @Content)})
+    @PutMapping(path = "/batch", consumes = APPLICATION_JSON_VALUE)
+    public List<WidgetDTO> updateAll(@RequestBody final List<@NotNull @Valid BatchUpdateWidgetDTO> widgetDTOs) {
+        final List<Widget> widgets = widgetDTOs.stream()
+                .map(widgetDTO -> new Widget(widgetDTO.getId(), widgetDTO.getX(), widgetDTO.getY(),
+                        widgetDTO.getZIndex(), widgetDTO.getWidth(), widgetDTO.getHeight(), null))
+                .collect(Collectors.toList());
+        return convert(widgetService.updateAll(widgets));
+    }
+
+    @Operation(summary = "Delete several widgets by their ids")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "Widgets are deleted", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Some widget not found, nothing is deleted", content = @Content)})
+    @DeleteMapping(path = "/batch", consumes = APPLICATION_JSON_VALUE)
+    public ResponseEntity<Void> deleteAll(@RequestBody final List<@NotNull Long> ids) {
+        widgetService.deleteAll(ids);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    private static List<WidgetDTO> convert(final List<Widget> widgets) {
+        return widgets.stream()
+                .map(WidgetUtil::convert)
+                .collect(Collectors.toList());
+    }
+
+    // modes are lower case in the API
+    private static SpatialIndex.Mode areaMode(final String mode) {
+        try {
+            return SpatialIndex.Mode.valueOf(mode.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "unknown mode " + mode);
+        }
+    }
+
+    private static void writeWidget(final JsonGenerator generator, final Widget widget) {
+        try {
+            generator.writeObject(WidgetUtil.convert(widget));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,17 @@
+package com.miro.service.widget.dto;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotNull;
+
+@Data
+public class AreaDTO {
+    @NotNull
+    private Integer left;
+    @NotNull
+    private Integer bottom;
+    @NotNull
+    private Integer right;
+    @NotNull
+    private Integer top;
+}
@@ -0,0 +1,17 @@
+package com.miro.service.widget.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+@EqualsAndHashCode
+public class AreaWidgetsDTO {
+    // every found widget once
+    private final List<WidgetDTO> widgets;
+    // ids of widgets found in every area, in the order areas are given
+    private final List<List<Long>> areas;
+}
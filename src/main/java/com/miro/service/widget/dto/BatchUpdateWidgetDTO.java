@@ -0,0 +1,13 @@
+package com.miro.service.widget.dto;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import javax.validation.constraints.NotNull;
+
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class BatchUpdateWidgetDTO extends UpdateWidgetDTO {
+    @NotNull
+    private Long id;
+}
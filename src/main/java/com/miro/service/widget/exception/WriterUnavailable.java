@@ -0,0 +1,7 @@
+package com.miro.service.widget.exception;
+
+public class WriterUnavailable extends RuntimeException {
+    public WriterUnavailable(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.miro.service.widget.model;
+
+import lombok.Data;
+
+@Data
+public class Area {
+    private final int left;
+    private final int bottom;
+    private final int right;
+    private final int top;
+}
@@ -7,7 +7,9 @@ import lombok.NoArgsConstructor;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import java.time.LocalDateTime;
 
@@ -17,8 +19,10 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "widget")
 public class Widget {
+    // ids are allocated from the sequence in blocks, so inserts need no sequence round-trip each and can be batched
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "widget_id")
+    @SequenceGenerator(name = "widget_id", sequenceName = "widget_id_sequence", allocationSize = 50)
     private Long id;
     @Column
     private Integer x;
@@ -3,20 +3,71 @@ package com.miro.service.widget.repository;
 import com.miro.service.widget.model.Widget;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface WidgetRepository {
     Page<Widget> findAll(Pageable pageable);
 
+    /**
+     * Returns widgets with z-index greater than zIndex ordered by z-index, total count is not calculated.
+     * Only page size of the pageable is used, the offset is expected to be 0.
+     */
+    Slice<Widget> findByZindexGreaterThanOrderByZindex(int zIndex, Pageable pageable);
+
     Optional<Widget> findById(long id);
 
+    List<Widget> findAllById(Iterable<Long> ids);
+
+    /**
+     * Passes all widgets to the consumer in batches of at most batchSize widgets, e.g. to build indexes on startup.
+     */
+    void forEachBatch(int batchSize, Consumer<List<Widget>> consumer);
+
     Optional<Widget> findTopByOrderByZindexDesc();
 
     List<Widget> findByZindexGreaterThanEqualOrderByZindex(int zIndex);
 
+    List<Widget> findByZindexBetweenOrderByZindex(int fromZIndex, int toZIndex);
+
     Widget save(Widget widget);
 
+    <S extends Widget> List<S> saveAll(Iterable<S> widgets);
+
     void deleteById(long id);
+
+    void deleteAll(Iterable<? extends Widget> widgets);
+
+    /**
+     * Returns the z-index of the last widget of the contiguous run starting at zIndex, empty if zIndex is free.
+     * Widget with ignoredId (if not null) is treated as absent.
+     */
+    Optional<Integer> findLastZindexOfRun(int zIndex, Long ignoredId);
+
+    /**
+     * Frees zIndex position by shifting the contiguous run of widgets starting at zIndex up by one.
+     * Widget with ignoredId (if not null) is about to be moved, so its position is treated as free.
+     * Returns the z-index of the last widget of the run before the shift, empty if nothing was shifted.
+     */
+    Optional<Integer> shiftZindexFrom(int zIndex, Long ignoredId);
+
+    /**
+     * Saves the widget after shifting the contiguous run of widgets starting at its z-index up by one,
+     * the position the widget leaves is treated as free. Transactional repositories do both in one transaction.
+     */
+    default Widget shiftZindexAndSave(final Widget widget) {
+        shiftZindexFrom(widget.getZindex(), widget.getId());
+        return save(widget);
+    }
+
+    /**
+     * Returns true if z-index is the position of a widget in the stack (1..n), so saving a widget moves
+     * the following ones implicitly and z-indexes are never shifted explicitly.
+     */
+    default boolean hasDenseZIndexes() {
+        return false;
+    }
 }
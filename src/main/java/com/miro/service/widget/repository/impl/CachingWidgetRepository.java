@@ -0,0 +1,234 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.util.WidgetCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Read-through cache of widgets by id in front of the database repository. Saved widgets replace cached ones,
+ * deleted and shifted widgets are invalidated by the z-index range the shift reports. Lookups are counted
+ * by cache.gets metric with hit and miss results.
+ */
+@Primary
+@Repository
+@Profile("database & !write-behind")
+public class CachingWidgetRepository implements WidgetRepository {
+    private static final String CACHE_NAME = "widgets";
+
+    private final WidgetRepository widgetRepository;
+    private final WidgetCache cache;
+    private final TransactionOperations transactionOperations;
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public CachingWidgetRepository(final DbWidgetRepository widgetRepository, final MeterRegistry meterRegistry,
+            final PlatformTransactionManager transactionManager,
+            @Value("${widget.cache.maximum-size}") final int maximumSize,
+            @Value("${widget.cache.ttl-ms}") final long ttlMillis) {
+        this(widgetRepository, new WidgetCache(maximumSize, ttlMillis), new TransactionTemplate(transactionManager),
+                meterRegistry);
+    }
+
+    CachingWidgetRepository(final WidgetRepository widgetRepository, final WidgetCache cache,
+            final TransactionOperations transactionOperations, final MeterRegistry meterRegistry) {
+        this.widgetRepository = widgetRepository;
+        this.cache = cache;
+        this.transactionOperations = transactionOperations;
+        hits = Counter.builder("cache.gets").tag("cache", CACHE_NAME).tag("result", "hit")
+                .register(meterRegistry);
+        misses = Counter.builder("cache.gets").tag("cache", CACHE_NAME).tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", cache, WidgetCache::evictionCount).tag("cache", CACHE_NAME)
+                .register(meterRegistry);
+        Gauge.builder("cache.size", cache, WidgetCache::size).tag("cache", CACHE_NAME)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Page<Widget> findAll(final Pageable pageable) {
+        return widgetRepository.findAll(pageable);
+    }
+
+    @Override
+    public Slice<Widget> findByZindexGreaterThanOrderByZindex(final int zIndex, final Pageable pageable) {
+        return widgetRepository.findByZindexGreaterThanOrderByZindex(zIndex, pageable);
+    }
+
+    @Override
+    public Optional<Widget> findById(final long id) {
+        final Widget cachedWidget = cache.get(id);
+        if (cachedWidget != null) {
+            hits.increment();
+            return Optional.of(cachedWidget);
+        }
+
+        misses.increment();
+        final long generation = cache.generation();
+        final Optional<Widget> widget = widgetRepository.findById(id);
+        widget.ifPresent(foundWidget -> cache.putIfNotInvalidated(foundWidget, generation));
+        return widget;
+    }
+
+    @Override
+    public List<Widget> findAllById(final Iterable<Long> ids) {
+        final Map<Long, Widget> widgets = new HashMap<>();
+        final List<Long> missingIds = new ArrayList<>();
+        for (Long id : ids) {
+            final Widget cachedWidget = cache.get(id);
+            if (cachedWidget != null) {
+                widgets.put(id, cachedWidget);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        hits.increment(widgets.size());
+        misses.increment(missingIds.size());
+
+        if (!missingIds.isEmpty()) {
+            final long generation = cache.generation();
+            for (Widget widget : widgetRepository.findAllById(missingIds)) {
+                cache.putIfNotInvalidated(widget, generation);
+                widgets.put(widget.getId(), widget);
+            }
+        }
+
+        // the order of ids is kept, absent widgets are skipped
+        final List<Widget> foundWidgets = new ArrayList<>(widgets.size());
+        for (Long id : ids) {
+            final Widget widget = widgets.remove(id);
+            if (widget != null) {
+                foundWidgets.add(widget);
+            }
+        }
+        return foundWidgets;
+    }
+
+    @Override
+    public void forEachBatch(final int batchSize, final Consumer<List<Widget>> consumer) {
+        widgetRepository.forEachBatch(batchSize, consumer);
+    }
+
+    @Override
+    public Optional<Widget> findTopByOrderByZindexDesc() {
+        return widgetRepository.findTopByOrderByZindexDesc();
+    }
+
+    @Override
+    public List<Widget> findByZindexGreaterThanEqualOrderByZindex(final int zIndex) {
+        return widgetRepository.findByZindexGreaterThanEqualOrderByZindex(zIndex);
+    }
+
+    @Override
+    public List<Widget> findByZindexBetweenOrderByZindex(final int fromZIndex, final int toZIndex) {
+        return widgetRepository.findByZindexBetweenOrderByZindex(fromZIndex, toZIndex);
+    }
+
+    @Override
+    public Widget save(final Widget widget) {
+        final Widget savedWidget = widgetRepository.save(widget);
+        cache.put(savedWidget);
+        return savedWidget;
+    }
+
+    @Override
+    public <S extends Widget> List<S> saveAll(final Iterable<S> widgets) {
+        final List<S> savedWidgets = widgetRepository.saveAll(widgets);
+        savedWidgets.forEach(cache::put);
+        return savedWidgets;
+    }
+
+    @Override
+    public void deleteById(final long id) {
+        try {
+            widgetRepository.deleteById(id);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public void deleteAll(final Iterable<? extends Widget> widgets) {
+        try {
+            widgetRepository.deleteAll(widgets);
+        } finally {
+            widgets.forEach(widget -> cache.invalidate(widget.getId()));
+        }
+    }
+
+    @Override
+    public Optional<Integer> findLastZindexOfRun(final int zIndex, final Long ignoredId) {
+        return widgetRepository.findLastZindexOfRun(zIndex, ignoredId);
+    }
+
+    @Override
+    public Optional<Integer> shiftZindexFrom(final int zIndex, final Long ignoredId) {
+        // the shift is a bulk update, so its widgets are invalidated by the range it reports
+        Optional<Integer> lastZIndex = null;
+        try {
+            lastZIndex = widgetRepository.shiftZindexFrom(zIndex, ignoredId);
+            return lastZIndex;
+        } finally {
+            invalidateRun(zIndex, lastZIndex);
+        }
+    }
+
+    /**
+     * The shift and the save are done in one transaction here rather than by the database repository,
+     * so the end of the shifted run is known without looking it up again.
+     */
+    @Override
+    public Widget shiftZindexAndSave(final Widget widget) {
+        final int zIndex = widget.getZindex();
+        final AtomicReference<Optional<Integer>> lastZIndex = new AtomicReference<>();
+        final Widget savedWidget;
+        try {
+            savedWidget = transactionOperations.execute(status -> {
+                lastZIndex.set(widgetRepository.shiftZindexFrom(zIndex, widget.getId()));
+                return widgetRepository.save(widget);
+            });
+        } finally {
+            // shifted widgets are invalidated once the transaction is committed, so they can't be read back before
+            invalidateRun(zIndex, lastZIndex.get());
+        }
+        cache.put(savedWidget);
+        return savedWidget;
+    }
+
+    @Override
+    public boolean hasDenseZIndexes() {
+        return widgetRepository.hasDenseZIndexes();
+    }
+
+    // the end of the run is unknown if the shift failed, so all widgets from zIndex up are invalidated then
+    private void invalidateRun(final int zIndex, final Optional<Integer> lastZIndex) {
+        if (lastZIndex == null) {
+            cache.invalidateZIndexBetween(zIndex, Integer.MAX_VALUE);
+        } else {
+            lastZIndex.ifPresent(last -> cache.invalidateZIndexBetween(zIndex, last));
+        }
+    }
+}
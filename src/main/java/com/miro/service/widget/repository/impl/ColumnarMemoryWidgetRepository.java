@@ -0,0 +1,79 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.util.WidgetUtil;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.Arrays;
+
+/**
+ * Memory repository keeping widget fields in primitive columns indexed by slot instead of widget objects,
+ * so a widget takes a few dozen bytes of heap and no objects are allocated per stored widget.
+ */
+@Repository
+@Profile("memory & columnar")
+public class ColumnarMemoryWidgetRepository extends SlottedWidgetRepository {
+    static final int INITIAL_CAPACITY = 1024;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] zIndexes = new int[INITIAL_CAPACITY];
+    private int[] widths = new int[INITIAL_CAPACITY];
+    private int[] heights = new int[INITIAL_CAPACITY];
+    private long[] lastModified = new long[INITIAL_CAPACITY];
+
+    @Override
+    protected long idAt(final int slot) {
+        return ids[slot];
+    }
+
+    @Override
+    protected int zIndexAt(final int slot) {
+        return zIndexes[slot];
+    }
+
+    @Override
+    protected Widget widgetAt(final int slot) {
+        return new Widget(ids[slot], xs[slot], ys[slot], zIndexes[slot], widths[slot], heights[slot],
+                WidgetUtil.fromEpochNanos(lastModified[slot]));
+    }
+
+    @Override
+    protected void write(final int slot, final Widget widget) {
+        ids[slot] = widget.getId();
+        xs[slot] = widget.getX();
+        ys[slot] = widget.getY();
+        zIndexes[slot] = widget.getZindex();
+        widths[slot] = widget.getWidth();
+        heights[slot] = widget.getHeight();
+        lastModified[slot] = WidgetUtil.toEpochNanos(widget.getLastModified());
+    }
+
+    @Override
+    protected void writeZIndex(final int slot, final int zIndex) {
+        zIndexes[slot] = zIndex;
+    }
+
+    @Override
+    protected void free(final int slot) {
+        ids[slot] = FREE_SLOT;
+    }
+
+    @Override
+    protected void ensureCapacity(final int slotCount) {
+        if (slotCount <= ids.length) {
+            return;
+        }
+
+        final int capacity = Math.max(slotCount, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zIndexes = Arrays.copyOf(zIndexes, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        lastModified = Arrays.copyOf(lastModified, capacity);
+    }
+}
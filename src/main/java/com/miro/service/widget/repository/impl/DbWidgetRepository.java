@@ -3,10 +3,84 @@ package com.miro.service.widget.repository.impl;
 import com.miro.service.widget.model.Widget;
 import com.miro.service.widget.repository.WidgetRepository;
 import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 @Repository
 @Profile("database")
-public interface DbWidgetRepository extends JpaRepository<Widget, Long>, WidgetRepository {
+public interface DbWidgetRepository extends JpaRepository<Widget, Long>, WidgetRepository, DbWidgetRepositoryCustom {
+    List<Widget> findByIdGreaterThanOrderById(long id, Pageable pageable);
+
+    @Override
+    default void forEachBatch(final int batchSize, final Consumer<List<Widget>> consumer) {
+        // batches are read by primary key ranges, so neither offset scans nor one huge result set are needed
+        List<Widget> batch = findByIdGreaterThanOrderById(Long.MIN_VALUE, PageRequest.of(0, batchSize));
+        while (!batch.isEmpty()) {
+            consumer.accept(batch);
+            batch = batch.size() < batchSize ? List.of()
+                    : findByIdGreaterThanOrderById(batch.get(batch.size() - 1).getId(), PageRequest.of(0, batchSize));
+        }
+    }
+
+    // the top is looked up by the maximum, which is read from the z-index index directly,
+    // unlike descending order with a limit
+    @Override
+    @Query("select w from Widget w where w.zindex = (select max(m.zindex) from Widget m)")
+    Optional<Widget> findTopByOrderByZindexDesc();
+
+    @Override
+    @Query("select min(w.zindex) from Widget w"
+            + " where w.zindex >= :zIndex and (:ignoredId is null or w.id <> :ignoredId)"
+            + " and exists (select f.id from Widget f"
+            + "     where f.zindex = :zIndex and (:ignoredId is null or f.id <> :ignoredId))"
+            + " and not exists (select n.id from Widget n"
+            + "     where n.zindex = w.zindex + 1 and (:ignoredId is null or n.id <> :ignoredId))")
+    Optional<Integer> findLastZindexOfRun(@Param("zIndex") int zIndex, @Param("ignoredId") Long ignoredId);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Widget w set w.zindex = w.zindex + 1 where w.zindex between :fromZIndex and :toZIndex")
+    int shiftZindexBetween(@Param("fromZIndex") int fromZIndex, @Param("toZIndex") int toZIndex);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Widget w set w.zindex = null where w.id = :id")
+    int clearZindex(@Param("id") long id);
+
+    /**
+     * The ignored widget is parked without a z-index, it's expected to be saved in the same transaction,
+     * as shiftZindexAndSave does.
+     */
+    @Override
+    @Transactional
+    default Optional<Integer> shiftZindexFrom(final int zIndex, final Long ignoredId) {
+        final Optional<Integer> lastZIndex = findLastZindexOfRun(zIndex, ignoredId);
+        lastZIndex.ifPresent(last -> {
+            if (ignoredId != null) {
+                // the ignored widget may hold the position right above the run, which is unique; parking it
+                // like saveAll does takes no position, so none outside of the locked z-index range is claimed
+                clearZindex(ignoredId);
+            }
+            shiftZindexBetween(zIndex, last);
+        });
+        return lastZIndex;
+    }
+
+    @Override
+    @Transactional
+    default Widget shiftZindexAndSave(final Widget widget) {
+        shiftZindexFrom(widget.getZindex(), widget.getId());
+        // save is declared both by the widget and the JPA repository
+        return ((WidgetRepository) this).save(widget);
+    }
 }
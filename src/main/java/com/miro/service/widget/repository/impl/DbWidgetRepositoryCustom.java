@@ -0,0 +1,16 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+
+import java.util.List;
+
+/**
+ * Writes of {@link DbWidgetRepository} implemented with the entity manager, they take precedence over
+ * the ones of the base repository.
+ */
+public interface DbWidgetRepositoryCustom {
+    /**
+     * Saves widgets at once, z-indexes may be moved between them as long as they are unique after the save.
+     */
+    <S extends Widget> List<S> saveAll(Iterable<S> widgets);
+}
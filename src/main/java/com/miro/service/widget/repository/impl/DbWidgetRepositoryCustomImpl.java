@@ -0,0 +1,51 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+public class DbWidgetRepositoryCustomImpl implements DbWidgetRepositoryCustom {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public <S extends Widget> List<S> saveAll(final Iterable<S> widgets) {
+        final List<Long> ids = StreamSupport.stream(widgets.spliterator(), false)
+                .map(Widget::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (!ids.isEmpty()) {
+            parkZindexes(ids);
+        }
+
+        final List<S> savedWidgets = new ArrayList<>();
+        for (S widget : widgets) {
+            if (widget.getId() == null) {
+                entityManager.persist(widget);
+                savedWidgets.add(widget);
+            } else {
+                savedWidgets.add(entityManager.merge(widget));
+            }
+        }
+        return savedWidgets;
+    }
+
+    // rows are written one by one, so z-indexes of the saved widgets are cleared first, otherwise a widget taking
+    // the position of another one violates the unique index until that one is written; the unique index allows
+    // several nulls and they are replaced within the transaction, so no arithmetic on z-indexes can overflow
+    private void parkZindexes(final List<Long> ids) {
+        entityManager.createQuery("update Widget w set w.zindex = null where w.id in :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        // managed widgets are outdated by the bulk update
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,308 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.util.OrderStatisticTree;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Memory repository where z-index is a dense position (1..n) in the stack of widgets.
+ * The order is kept by internal sort keys with gaps between neighbours, so that inserting a widget
+ * in the middle of the stack takes a key between its neighbours instead of shifting following widgets.
+ * Keys are renumbered in the background once gaps become small.
+ */
+@Repository
+@Profile("memory & gapped")
+public class GappedMemoryWidgetRepository implements WidgetRepository {
+    // distance between keys of neighbouring widgets after renumbering
+    static final long SORT_KEY_GAP = 1L << 16;
+    // renumbering is requested once a gap between neighbours becomes smaller
+    static final long MIN_SORT_KEY_GAP = 1L << 8;
+
+    private final Map<Long, Widget> storage = new HashMap<>();
+    private final Map<Long, Long> sortKeys = new HashMap<>();
+    private final OrderStatisticTree<Widget> order = new OrderStatisticTree<>();
+    private final AtomicLong idGenerator = new AtomicLong();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicBoolean renumberScheduled = new AtomicBoolean();
+    private final ExecutorService renumberExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "widget-sort-key-renumber");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public Page<Widget> findAll(final Pageable pageable) {
+        lock.readLock().lock();
+        try {
+            final int offset = (int) Math.min(pageable.getOffset(), order.size());
+            return new PageImpl<>(positioned(order.values(offset, pageable.getPageSize()), offset + 1),
+                    pageable, order.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Slice<Widget> findByZindexGreaterThanOrderByZindex(final int zIndex, final Pageable pageable) {
+        lock.readLock().lock();
+        try {
+            // z-indexes are positions, so the slice starts right at zIndex
+            final int offset = Math.min(Math.max(zIndex, 0), order.size());
+            final List<Widget> widgets = positioned(order.values(offset, pageable.getPageSize()), offset + 1);
+            return new SliceImpl<>(widgets, pageable, offset + widgets.size() < order.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Widget> findById(final long id) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(storage.get(id))
+                    .map(this::positioned);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findAllById(final Iterable<Long> ids) {
+        lock.readLock().lock();
+        try {
+            final List<Widget> widgets = new ArrayList<>();
+            for (Long id : ids) {
+                final Widget widget = storage.get(id);
+                if (widget != null) {
+                    widgets.add(positioned(widget));
+                }
+            }
+            return widgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachBatch(final int batchSize, final Consumer<List<Widget>> consumer) {
+        lock.readLock().lock();
+        try {
+            for (int offset = 0; offset < order.size(); offset += batchSize) {
+                consumer.accept(positioned(order.values(offset, batchSize), offset + 1));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Widget> findTopByOrderByZindexDesc() {
+        lock.readLock().lock();
+        try {
+            final int size = order.size();
+            return size == 0 ? Optional.empty() : Optional.of(withZIndex(order.valueAt(size - 1), size));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findByZindexGreaterThanEqualOrderByZindex(final int zIndex) {
+        lock.readLock().lock();
+        try {
+            final int offset = Math.min(Math.max(zIndex, 1) - 1, order.size());
+            return positioned(order.values(offset, order.size() - offset), offset + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findByZindexBetweenOrderByZindex(final int fromZIndex, final int toZIndex) {
+        lock.readLock().lock();
+        try {
+            final int offset = Math.min(Math.max(fromZIndex, 1) - 1, order.size());
+            final int count = Math.max(0, Math.min(toZIndex, order.size()) - offset);
+            return positioned(order.values(offset, count), offset + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Widget save(final Widget widget) {
+        lock.writeLock().lock();
+        try {
+            if (widget.getId() == null) {
+                widget.setId(idGenerator.incrementAndGet());
+            }
+
+            final Long previousSortKey = sortKeys.remove(widget.getId());
+            if (previousSortKey != null) {
+                order.remove(previousSortKey);
+            }
+
+            final int zIndex = Math.max(1, Math.min(widget.getZindex(), order.size() + 1));
+            final long sortKey = sortKeyAt(zIndex - 1, previousSortKey);
+            final Widget storedWidget = withZIndex(widget, zIndex);
+
+            storage.put(storedWidget.getId(), storedWidget);
+            sortKeys.put(storedWidget.getId(), sortKey);
+            order.put(sortKey, storedWidget);
+
+            return withZIndex(storedWidget, zIndex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public <S extends Widget> List<S> saveAll(final Iterable<S> widgets) {
+        lock.writeLock().lock();
+        try {
+            final List<S> savedWidgets = new ArrayList<>();
+            for (S widget : widgets) {
+                // position may be clamped
+                widget.setZindex(save(widget).getZindex());
+                savedWidgets.add(widget);
+            }
+            return savedWidgets;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteById(final long id) {
+        lock.writeLock().lock();
+        try {
+            if (storage.remove(id) == null) {
+                throw new EntityNotFoundException();
+            }
+
+            order.remove(sortKeys.remove(id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteAll(final Iterable<? extends Widget> widgets) {
+        lock.writeLock().lock();
+        try {
+            widgets.forEach(widget -> deleteById(widget.getId()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasDenseZIndexes() {
+        return true;
+    }
+
+    @Override
+    public Optional<Integer> findLastZindexOfRun(final int zIndex, final Long ignoredId) {
+        // positions are never taken, following widgets move implicitly
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Integer> shiftZindexFrom(final int zIndex, final Long ignoredId) {
+        // z-indexes are positions, inserting a widget shifts the following ones implicitly
+        return Optional.empty();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renumberExecutor.shutdownNow();
+    }
+
+    // sort key for a widget taking the given index, previous key is kept when it still fits between neighbours
+    private long sortKeyAt(final int index, final Long previousSortKey) {
+        final Long lower = index > 0 ? order.keyAt(index - 1) : null;
+        final Long upper = index < order.size() ? order.keyAt(index) : null;
+
+        if (previousSortKey != null && (lower == null || lower < previousSortKey)
+                && (upper == null || previousSortKey < upper)) {
+            return previousSortKey;
+        }
+
+        if (lower == null && upper == null) {
+            return SORT_KEY_GAP;
+        } else if (lower == null) {
+            return upper - SORT_KEY_GAP;
+        } else if (upper == null) {
+            return lower + SORT_KEY_GAP;
+        }
+
+        final long gap = upper - lower;
+        if (gap < 2) {
+            // background renumbering didn't make it in time
+            renumber();
+            return sortKeyAt(index, null);
+        }
+        if (gap < 2 * MIN_SORT_KEY_GAP) {
+            scheduleRenumber();
+        }
+        return lower + gap / 2;
+    }
+
+    private void scheduleRenumber() {
+        if (renumberScheduled.compareAndSet(false, true)) {
+            renumberExecutor.execute(() -> {
+                lock.writeLock().lock();
+                try {
+                    renumberScheduled.set(false);
+                    renumber();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            });
+        }
+    }
+
+    private void renumber() {
+        order.renumber(SORT_KEY_GAP, (widget, sortKey) -> sortKeys.put(widget.getId(), sortKey));
+    }
+
+    private Widget positioned(final Widget widget) {
+        return withZIndex(widget, order.rank(sortKeys.get(widget.getId())) + 1);
+    }
+
+    private static List<Widget> positioned(final List<Widget> widgets, final int firstZIndex) {
+        final List<Widget> positionedWidgets = new ArrayList<>(widgets.size());
+        for (int i = 0; i < widgets.size(); i++) {
+            positionedWidgets.add(withZIndex(widgets.get(i), firstZIndex + i));
+        }
+        return positionedWidgets;
+    }
+
+    private static Widget withZIndex(final Widget widget, final int zIndex) {
+        return new Widget(widget.getId(), widget.getX(), widget.getY(), zIndex,
+                widget.getWidth(), widget.getHeight(), widget.getLastModified());
+    }
+}
@@ -0,0 +1,346 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.util.WidgetUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Repository keeping widgets as fixed-size records in a memory-mapped file, so the heap holds primitive
+ * indexes only and restart takes mapping and scanning the file.
+ * <p>
+ * Every record change is appended to the change log before it is written to the mapped file. Once the log
+ * grows over checkpointLogSize the mapped file is forced to disk and the log is truncated. On startup records
+ * of the log are written over the mapped file, which restores changes not forced to disk before a crash,
+ * the torn tail of the log is ignored. Records written by a batch are preceded by their previous state in the log,
+ * so a batch without its end entry is rolled back on startup and z-indexes moved between widgets stay unique.
+ */
+@Repository
+@Profile("memory & mapped")
+public class MappedWidgetRepository extends SlottedWidgetRepository {
+    static final String RECORDS_FILE = "widgets.dat";
+    static final String LOG_FILE = "widgets.log";
+
+    private static final int MAGIC = 0x57494447;
+    // magic, record size, slot count, last id
+    static final int HEADER_SIZE = 24;
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int LAST_ID_OFFSET = 16;
+    // id, x, y, z-index, width, height, lastModified
+    static final int RECORD_SIZE = 40;
+    private static final int ID_OFFSET = 0;
+    private static final int X_OFFSET = 8;
+    private static final int Y_OFFSET = 12;
+    private static final int Z_INDEX_OFFSET = 16;
+    private static final int WIDTH_OFFSET = 20;
+    private static final int HEIGHT_OFFSET = 24;
+    private static final int LAST_MODIFIED_OFFSET = 28;
+    // type, slot, record, checksum
+    static final int LOG_ENTRY_SIZE = 4 + 4 + RECORD_SIZE + 4;
+    private static final int ENTRY_SLOT_OFFSET = 4;
+    private static final int ENTRY_RECORD_OFFSET = 8;
+    // the new record of the slot, its previous record within a batch, boundaries of a batch
+    private static final int REDO_ENTRY = 0;
+    private static final int UNDO_ENTRY = 1;
+    private static final int BEGIN_ENTRY = 2;
+    private static final int END_ENTRY = 3;
+    private static final int INITIAL_CAPACITY = 1024;
+    // a single mapping is limited by 2GB
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    private final FileChannel recordsChannel;
+    private final FileChannel logChannel;
+    private final boolean fsync;
+    private final long checkpointLogSize;
+
+    private MappedByteBuffer records;
+    private int capacity;
+    // log entries of the record being written and of its previous state or a batch boundary,
+    // accessed by writers only
+    private final ByteBuffer logEntry = ByteBuffer.allocate(LOG_ENTRY_SIZE);
+    private final ByteBuffer undoEntry = ByteBuffer.allocate(LOG_ENTRY_SIZE);
+    private final CRC32 checksum = new CRC32();
+    private boolean inBatch;
+
+    public MappedWidgetRepository(@Value("${widget.mapped.directory}") final String directory,
+            @Value("${widget.mapped.fsync}") final boolean fsync,
+            @Value("${widget.mapped.checkpoint-log-size}") final long checkpointLogSize) {
+        this.fsync = fsync;
+        this.checkpointLogSize = checkpointLogSize;
+
+        try {
+            final Path path = Files.createDirectories(Paths.get(directory));
+            recordsChannel = FileChannel.open(path.resolve(RECORDS_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            logChannel = FileChannel.open(path.resolve(LOG_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            final boolean created = recordsChannel.size() == 0;
+            map(created ? INITIAL_CAPACITY : (int) ((recordsChannel.size() - HEADER_SIZE) / RECORD_SIZE));
+            if (created) {
+                records.putInt(0, MAGIC);
+                records.putInt(4, RECORD_SIZE);
+            } else if (records.getInt(0) != MAGIC || records.getInt(4) != RECORD_SIZE) {
+                throw new IllegalStateException("Unknown format of " + path.resolve(RECORDS_FILE));
+            }
+
+            restore(replayLog(), records.getLong(LAST_ID_OFFSET));
+            checkpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkpoint();
+            logChannel.close();
+            recordsChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected long idAt(final int slot) {
+        return records.getLong(offset(slot) + ID_OFFSET);
+    }
+
+    @Override
+    protected int zIndexAt(final int slot) {
+        return records.getInt(offset(slot) + Z_INDEX_OFFSET);
+    }
+
+    @Override
+    protected Widget widgetAt(final int slot) {
+        final int offset = offset(slot);
+        return new Widget(records.getLong(offset + ID_OFFSET), records.getInt(offset + X_OFFSET),
+                records.getInt(offset + Y_OFFSET), records.getInt(offset + Z_INDEX_OFFSET),
+                records.getInt(offset + WIDTH_OFFSET), records.getInt(offset + HEIGHT_OFFSET),
+                WidgetUtil.fromEpochNanos(records.getLong(offset + LAST_MODIFIED_OFFSET)));
+    }
+
+    @Override
+    protected void beginBatch() {
+        appendMarker(BEGIN_ENTRY);
+        inBatch = true;
+    }
+
+    @Override
+    protected void endBatch() {
+        inBatch = false;
+        appendMarker(END_ENTRY);
+        forceLog();
+        checkpointIfFull();
+    }
+
+    @Override
+    protected void write(final int slot, final Widget widget) {
+        final int offset = ENTRY_RECORD_OFFSET;
+        logEntry.clear();
+        logEntry.putLong(offset + ID_OFFSET, widget.getId())
+                .putInt(offset + X_OFFSET, widget.getX())
+                .putInt(offset + Y_OFFSET, widget.getY())
+                .putInt(offset + Z_INDEX_OFFSET, widget.getZindex())
+                .putInt(offset + WIDTH_OFFSET, widget.getWidth())
+                .putInt(offset + HEIGHT_OFFSET, widget.getHeight())
+                .putLong(offset + LAST_MODIFIED_OFFSET, WidgetUtil.toEpochNanos(widget.getLastModified()));
+        apply(slot);
+        // not logged, ids of deleted widgets are not reused as long as their creation is logged or forced to disk
+        records.putLong(LAST_ID_OFFSET, Math.max(widget.getId(), records.getLong(LAST_ID_OFFSET)));
+    }
+
+    @Override
+    protected void writeZIndex(final int slot, final int zIndex) {
+        loadRecord(logEntry, slot);
+        logEntry.putInt(ENTRY_RECORD_OFFSET + Z_INDEX_OFFSET, zIndex);
+        apply(slot);
+    }
+
+    @Override
+    protected void free(final int slot) {
+        loadRecord(logEntry, slot);
+        logEntry.putLong(ENTRY_RECORD_OFFSET + ID_OFFSET, FREE_SLOT);
+        apply(slot);
+    }
+
+    @Override
+    protected void ensureCapacity(final int slotCount) {
+        if (slotCount > capacity) {
+            if (slotCount > MAX_CAPACITY) {
+                throw new IllegalStateException("Widget store is full");
+            }
+            try {
+                map((int) Math.min(Math.max(slotCount, 2L * capacity), MAX_CAPACITY));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // not logged, the slot count is restored from log entries as well
+        records.putInt(SLOT_COUNT_OFFSET, Math.max(slotCount, records.getInt(SLOT_COUNT_OFFSET)));
+    }
+
+    private void map(final int capacity) throws IOException {
+        // a replaced mapping is released by the garbage collector
+        records = recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        this.capacity = capacity;
+    }
+
+    // writes the record of the log entry to the log, then to the mapped file
+    private void apply(final int slot) {
+        if (inBatch) {
+            // the previous record is logged first, so that a logged change of a batch can always be rolled back
+            loadRecord(undoEntry, slot);
+            append(undoEntry, UNDO_ENTRY, slot);
+        }
+        append(logEntry, REDO_ENTRY, slot);
+        forceLog();
+
+        copyRecord(logEntry, slot);
+        if (!inBatch) {
+            checkpointIfFull();
+        }
+    }
+
+    private void appendMarker(final int type) {
+        Arrays.fill(undoEntry.array(), (byte) 0);
+        append(undoEntry, type, 0);
+    }
+
+    private void append(final ByteBuffer entry, final int type, final int slot) {
+        entry.putInt(0, type);
+        entry.putInt(ENTRY_SLOT_OFFSET, slot);
+        checksum.reset();
+        checksum.update(entry.array(), 0, LOG_ENTRY_SIZE - 4);
+        entry.putInt(LOG_ENTRY_SIZE - 4, (int) checksum.getValue());
+
+        try {
+            entry.rewind();
+            while (entry.hasRemaining()) {
+                logChannel.write(entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void forceLog() {
+        if (fsync) {
+            try {
+                logChannel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void loadRecord(final ByteBuffer entry, final int slot) {
+        entry.clear();
+        final ByteBuffer record = records.duplicate();
+        record.position(offset(slot)).limit(offset(slot) + RECORD_SIZE);
+        entry.position(ENTRY_RECORD_OFFSET);
+        entry.put(record);
+    }
+
+    private void copyRecord(final ByteBuffer entry, final int slot) {
+        final ByteBuffer record = records.duplicate();
+        record.position(offset(slot));
+        record.put(entry.array(), ENTRY_RECORD_OFFSET, RECORD_SIZE);
+    }
+
+    // writes valid log entries over the mapped file, returns the slot count
+    private int replayLog() throws IOException {
+        int slotCount = records.getInt(SLOT_COUNT_OFFSET);
+        // previous records of the batch being replayed, in the order of the log
+        final List<ByteBuffer> undoEntries = new ArrayList<>();
+        boolean batchOpen = false;
+        logChannel.position(0);
+        while (true) {
+            logEntry.clear();
+            while (logEntry.hasRemaining() && logChannel.read(logEntry) >= 0) {
+                // read the entry completely
+            }
+            if (logEntry.hasRemaining()) {
+                break;
+            }
+
+            checksum.reset();
+            checksum.update(logEntry.array(), 0, LOG_ENTRY_SIZE - 4);
+            final int type = logEntry.getInt(0);
+            final int slot = logEntry.getInt(ENTRY_SLOT_OFFSET);
+            if (logEntry.getInt(LOG_ENTRY_SIZE - 4) != (int) checksum.getValue() || slot < 0
+                    || type < REDO_ENTRY || type > END_ENTRY) {
+                break;
+            }
+
+            if (type == BEGIN_ENTRY || type == END_ENTRY) {
+                batchOpen = type == BEGIN_ENTRY;
+                undoEntries.clear();
+            } else if (type == UNDO_ENTRY) {
+                undoEntries.add(ByteBuffer.wrap(logEntry.array().clone()));
+            } else {
+                ensureCapacity(slot + 1);
+                copyRecord(logEntry, slot);
+                records.putLong(LAST_ID_OFFSET, Math.max(idAt(slot), records.getLong(LAST_ID_OFFSET)));
+                slotCount = Math.max(slotCount, slot + 1);
+            }
+        }
+
+        if (batchOpen) {
+            // the batch was torn by a crash, its records are restored from the last change back
+            for (int i = undoEntries.size() - 1; i >= 0; i--) {
+                final int slot = undoEntries.get(i).getInt(ENTRY_SLOT_OFFSET);
+                ensureCapacity(slot + 1);
+                copyRecord(undoEntries.get(i), slot);
+                slotCount = Math.max(slotCount, slot + 1);
+            }
+        }
+        return slotCount;
+    }
+
+    private void checkpointIfFull() {
+        if (logSize() >= checkpointLogSize) {
+            checkpoint();
+        }
+    }
+
+    private void checkpoint() {
+        try {
+            records.force();
+            logChannel.truncate(0);
+            logChannel.position(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long logSize() {
+        try {
+            return logChannel.position();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int offset(final int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+}
@@ -2,71 +2,267 @@ package com.miro.service.widget.repository.impl;
 
 import com.miro.service.widget.model.Widget;
 import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.util.WidgetUtil;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityNotFoundException;
-import java.util.Comparator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Repository
-@Profile("memory")
+@Profile("memory & !gapped & !columnar & !mapped")
 public class MemoryWidgetRepository implements WidgetRepository {
     private final Map<Long, Widget> storage = new ConcurrentHashMap<>();
     private final AtomicLong idGenerator = new AtomicLong();
 
+    // widgets ordered by z-index, kept in sync with storage, so ordered reads don't need to sort
+    private final ConcurrentNavigableMap<Integer, Widget> zIndexOrder = new ConcurrentSkipListMap<>();
+
+    // z-index each widget is registered with in zIndexOrder, widgets may be modified in place before saving,
+    // so the stored widget itself can't be used to find its old position
+    private final Map<Long, Integer> indexedZIndexes = new HashMap<>();
+
+    // null unless the wal profile is active
+    private final WriteAheadLog writeAheadLog;
+
+    public MemoryWidgetRepository() {
+        this(Optional.empty());
+    }
+
+    @Autowired
+    public MemoryWidgetRepository(final Optional<WriteAheadLog> writeAheadLog) {
+        this.writeAheadLog = writeAheadLog.orElse(null);
+        if (this.writeAheadLog != null) {
+            idGenerator.set(this.writeAheadLog.replay(this::put, this::remove));
+            this.writeAheadLog.start(this::snapshot);
+        }
+    }
+
     @Override
     public Page<Widget> findAll(final Pageable pageable) {
-        final List<Widget> widgets = storage.values().stream()
-                .sorted(Comparator.comparingLong(Widget::getZindex))
+        final List<Widget> widgets = zIndexOrder.values().stream()
                 .skip(pageable.getOffset())
                 .limit(pageable.getPageSize())
                 .collect(Collectors.toList());
         return new PageImpl<>(widgets, pageable, storage.size());
     }
 
+    @Override
+    public Slice<Widget> findByZindexGreaterThanOrderByZindex(final int zIndex, final Pageable pageable) {
+        // one extra widget tells whether there is a next slice
+        final List<Widget> widgets = zIndexOrder.tailMap(zIndex, false).values().stream()
+                .limit(pageable.getPageSize() + 1L)
+                .collect(Collectors.toList());
+        final boolean hasNext = widgets.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? widgets.subList(0, pageable.getPageSize()) : widgets, pageable, hasNext);
+    }
+
     @Override
     public Optional<Widget> findById(final long id) {
         return Optional.ofNullable(storage.get(id));
     }
 
+    @Override
+    public List<Widget> findAllById(final Iterable<Long> ids) {
+        final List<Widget> widgets = new ArrayList<>();
+        for (Long id : ids) {
+            final Widget widget = storage.get(id);
+            if (widget != null) {
+                widgets.add(widget);
+            }
+        }
+        return widgets;
+    }
+
+    @Override
+    public void forEachBatch(final int batchSize, final Consumer<List<Widget>> consumer) {
+        WidgetUtil.forEachBatch(storage.values(), batchSize, consumer);
+    }
+
     @Override
     public Optional<Widget> findTopByOrderByZindexDesc() {
-        return storage.values().stream()
-                .max(Comparator.comparingLong(Widget::getZindex));
+        return Optional.ofNullable(zIndexOrder.lastEntry())
+                .map(Map.Entry::getValue);
     }
 
     @Override
     public List<Widget> findByZindexGreaterThanEqualOrderByZindex(final int zIndex) {
-        return storage.values().stream()
-                .filter(widget -> widget.getZindex() >= zIndex)
-                .sorted(Comparator.comparingLong(Widget::getZindex))
-                .collect(Collectors.toList());
+        return new ArrayList<>(zIndexOrder.tailMap(zIndex, true).values());
+    }
+
+    @Override
+    public List<Widget> findByZindexBetweenOrderByZindex(final int fromZIndex, final int toZIndex) {
+        return fromZIndex > toZIndex ? new ArrayList<>()
+                : new ArrayList<>(zIndexOrder.subMap(fromZIndex, true, toZIndex, true).values());
     }
 
     @Override
     public Widget save(final Widget widget) {
-        if (widget.getId() == null) {
-            widget.setId(idGenerator.incrementAndGet());
-        }
-        storage.put(widget.getId(), widget);
+        awaitDurable(saveLogged(widget));
         return widget;
     }
 
+    @Override
+    public <S extends Widget> List<S> saveAll(final Iterable<S> widgets) {
+        final List<S> savedWidgets = new ArrayList<>();
+        awaitDurable(logBatch(() -> {
+            for (S widget : widgets) {
+                saveLogged(widget);
+                savedWidgets.add(widget);
+            }
+        }));
+        return savedWidgets;
+    }
+
     @Override
     public void deleteById(final long id) {
-        if (!storage.containsKey(id)) {
+        awaitDurable(deleteLogged(id));
+    }
+
+    @Override
+    public void deleteAll(final Iterable<? extends Widget> widgets) {
+        awaitDurable(logBatch(() -> widgets.forEach(widget -> deleteLogged(widget.getId()))));
+    }
+
+    @Override
+    public synchronized Optional<Integer> findLastZindexOfRun(final int zIndex, final Long ignoredId) {
+        return Optional.ofNullable(findRun(zIndex, ignoredId).peek())
+                .map(Widget::getZindex);
+    }
+
+    @Override
+    public Optional<Integer> shiftZindexFrom(final int zIndex, final Long ignoredId) {
+        final AtomicReference<Optional<Integer>> lastZIndex = new AtomicReference<>();
+        awaitDurable(logBatch(() -> lastZIndex.set(shiftLogged(zIndex, ignoredId))));
+        return lastZIndex.get();
+    }
+
+    @Override
+    public Widget shiftZindexAndSave(final Widget widget) {
+        // the shifted run may take the position the widget leaves, so they are replayed only together
+        awaitDurable(logBatch(() -> {
+            shiftLogged(widget.getZindex(), widget.getId());
+            saveLogged(widget);
+        }));
+        return widget;
+    }
+
+    // appends records of the writes as a batch, which is replayed only as a whole, returns the sequence of its end;
+    // the end is appended even if a write fails, as the writes done before are applied to the storage already
+    private synchronized long logBatch(final Runnable writes) {
+        if (writeAheadLog == null) {
+            writes.run();
+            return 0;
+        }
+
+        final long sequence;
+        writeAheadLog.appendBeginBatch();
+        try {
+            writes.run();
+        } finally {
+            sequence = writeAheadLog.appendEndBatch();
+        }
+        return sequence;
+    }
+
+    private synchronized Optional<Integer> shiftLogged(final int zIndex, final Long ignoredId) {
+        final Deque<Widget> run = findRun(zIndex, ignoredId);
+        final Optional<Integer> lastZIndex = Optional.ofNullable(run.peek()).map(Widget::getZindex);
+        // shifting from the top doesn't produce zIndex duplicates
+        for (Widget widget : run) {
+            widget.setZindex(widget.getZindex() + 1);
+            saveLogged(widget);
+        }
+        return lastZIndex;
+    }
+
+    // returns the sequence of the log record, writers wait for it to become durable outside of the lock,
+    // so that concurrent writes are forced to disk together
+    private synchronized long saveLogged(final Widget widget) {
+        if (widget.getId() == null) {
+            widget.setId(idGenerator.incrementAndGet());
+        } else {
+            // widgets loaded with their ids don't collide with generated ones
+            idGenerator.accumulateAndGet(widget.getId(), Math::max);
+        }
+
+        put(widget);
+        return writeAheadLog != null ? writeAheadLog.appendSave(widget) : 0;
+    }
+
+    private synchronized long deleteLogged(final long id) {
+        if (!remove(id)) {
             throw new EntityNotFoundException();
         }
 
-        storage.remove(id);
+        return writeAheadLog != null ? writeAheadLog.appendDelete(id) : 0;
+    }
+
+    private void awaitDurable(final long sequence) {
+        if (writeAheadLog != null && sequence > 0) {
+            writeAheadLog.awaitDurable(sequence);
+        }
+    }
+
+    private void put(final Widget widget) {
+        final Widget previousWidget = storage.put(widget.getId(), widget);
+        final Integer previousZIndex = indexedZIndexes.put(widget.getId(), widget.getZindex());
+        if (previousZIndex != null) {
+            // the position may be already taken by another widget, which was shifted there
+            zIndexOrder.remove(previousZIndex, previousWidget);
+        }
+        zIndexOrder.put(widget.getZindex(), widget);
+    }
+
+    private boolean remove(final long id) {
+        final Widget widget = storage.remove(id);
+        if (widget == null) {
+            return false;
+        }
+
+        zIndexOrder.remove(indexedZIndexes.remove(id), widget);
+        return true;
+    }
+
+    // copies widgets with writes stopped, so that the snapshot matches the log switched to a new segment
+    private synchronized WriteAheadLog.Snapshot snapshot() {
+        final List<Widget> widgets = storage.values().stream()
+                .map(WidgetUtil::copy)
+                .collect(Collectors.toList());
+        return new WriteAheadLog.Snapshot(widgets, idGenerator.get(), writeAheadLog.rotate());
+    }
+
+    // widgets of the contiguous run starting at zIndex, the widget with maximum zIndex is on the head
+    private Deque<Widget> findRun(final int zIndex, final Long ignoredId) {
+        final Deque<Widget> run = new ArrayDeque<>();
+
+        int nextZIndex = zIndex;
+        for (Map.Entry<Integer, Widget> entry : zIndexOrder.tailMap(zIndex, true).entrySet()) {
+            if (entry.getKey() != nextZIndex || entry.getValue().getId().equals(ignoredId)) {
+                break;
+            }
+            run.push(entry.getValue());
+            nextZIndex++;
+        }
+        return run;
     }
 }
@@ -0,0 +1,371 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.util.IntIntSortedMap;
+import com.miro.service.widget.util.LongIntHashMap;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import javax.persistence.EntityNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Base of repositories keeping widgets as fixed-size records in numbered slots instead of widget objects.
+ * Ids are mapped to slots and slots are ordered by z-index with primitive indexes, slots of deleted widgets
+ * are reused. Widgets are materialized on reads only, saved widgets are copied into the records.
+ */
+public abstract class SlottedWidgetRepository implements WidgetRepository {
+    // ids are generated starting from 1, so 0 marks a free slot
+    protected static final long FREE_SLOT = 0;
+
+    // slots ever taken, slots of deleted widgets are reused first
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount;
+
+    private final LongIntHashMap slotsById = new LongIntHashMap();
+    // slots ordered by z-index, a position may be already taken by another widget, which was shifted there
+    private final IntIntSortedMap zIndexOrder = new IntIntSortedMap();
+    private final AtomicLong idGenerator = new AtomicLong();
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected abstract long idAt(int slot);
+
+    protected abstract int zIndexAt(int slot);
+
+    protected abstract Widget widgetAt(int slot);
+
+    /**
+     * Writes all fields of the widget including its id to the slot.
+     */
+    protected abstract void write(int slot, Widget widget);
+
+    protected abstract void writeZIndex(int slot, int zIndex);
+
+    /**
+     * Marks the slot as free, idAt(slot) returns FREE_SLOT afterwards.
+     */
+    protected abstract void free(int slot);
+
+    /**
+     * Makes sure slots 0..slotCount - 1 may be written.
+     */
+    protected abstract void ensureCapacity(int slotCount);
+
+    /**
+     * Marks the start of writes which move z-indexes between widgets, so that they are restored all or none
+     * after a crash; records are unique by z-index only once endBatch() is reached.
+     */
+    protected void beginBatch() {
+    }
+
+    protected void endBatch() {
+    }
+
+    /**
+     * Rebuilds indexes from already stored records of slots 0..slotCount - 1, ids are generated after lastId
+     * and ids of stored widgets.
+     */
+    protected void restore(final int slotCount, final long lastId) {
+        this.slotCount = slotCount;
+        idGenerator.set(lastId);
+        for (int slot = 0; slot < slotCount; slot++) {
+            final long id = idAt(slot);
+            if (id == FREE_SLOT) {
+                pushFreeSlot(slot);
+            } else {
+                slotsById.put(id, slot);
+                zIndexOrder.put(zIndexAt(slot), slot);
+                idGenerator.accumulateAndGet(id, Math::max);
+            }
+        }
+    }
+
+    protected int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public Page<Widget> findAll(final Pageable pageable) {
+        lock.readLock().lock();
+        try {
+            final List<Widget> widgets = new ArrayList<>();
+            if (pageable.getOffset() < zIndexOrder.size()) {
+                zIndexOrder.forEachFromIndex((int) pageable.getOffset(), (zIndex, slot) -> {
+                    widgets.add(widgetAt(slot));
+                    return widgets.size() < pageable.getPageSize();
+                });
+            }
+            return new PageImpl<>(widgets, pageable, slotsById.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Slice<Widget> findByZindexGreaterThanOrderByZindex(final int zIndex, final Pageable pageable) {
+        lock.readLock().lock();
+        try {
+            final List<Widget> widgets = new ArrayList<>();
+            if (zIndex == Integer.MAX_VALUE) {
+                return new SliceImpl<>(widgets, pageable, false);
+            }
+
+            // one extra widget tells whether there is a next slice
+            zIndexOrder.forEachFrom(zIndex + 1, (nextZIndex, slot) -> {
+                widgets.add(widgetAt(slot));
+                return widgets.size() <= pageable.getPageSize();
+            });
+            final boolean hasNext = widgets.size() > pageable.getPageSize();
+            return new SliceImpl<>(hasNext ? widgets.subList(0, pageable.getPageSize()) : widgets, pageable, hasNext);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Widget> findById(final long id) {
+        lock.readLock().lock();
+        try {
+            final int slot = slotsById.get(id);
+            return slot != LongIntHashMap.NO_VALUE ? Optional.of(widgetAt(slot)) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findAllById(final Iterable<Long> ids) {
+        lock.readLock().lock();
+        try {
+            final List<Widget> widgets = new ArrayList<>();
+            for (Long id : ids) {
+                final int slot = slotsById.get(id);
+                if (slot != LongIntHashMap.NO_VALUE) {
+                    widgets.add(widgetAt(slot));
+                }
+            }
+            return widgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachBatch(final int batchSize, final Consumer<List<Widget>> consumer) {
+        lock.readLock().lock();
+        try {
+            List<Widget> batch = new ArrayList<>(batchSize);
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (idAt(slot) == FREE_SLOT) {
+                    continue;
+                }
+                batch.add(widgetAt(slot));
+                if (batch.size() == batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Widget> findTopByOrderByZindexDesc() {
+        lock.readLock().lock();
+        try {
+            return zIndexOrder.isEmpty() ? Optional.empty() : Optional.of(widgetAt(zIndexOrder.lastValue()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findByZindexGreaterThanEqualOrderByZindex(final int zIndex) {
+        lock.readLock().lock();
+        try {
+            final List<Widget> widgets = new ArrayList<>();
+            zIndexOrder.forEachFrom(zIndex, (nextZIndex, slot) -> widgets.add(widgetAt(slot)));
+            return widgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findByZindexBetweenOrderByZindex(final int fromZIndex, final int toZIndex) {
+        lock.readLock().lock();
+        try {
+            final List<Widget> widgets = new ArrayList<>();
+            zIndexOrder.forEachFrom(fromZIndex,
+                    (nextZIndex, slot) -> nextZIndex <= toZIndex && widgets.add(widgetAt(slot)));
+            return widgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Widget save(final Widget widget) {
+        lock.writeLock().lock();
+        try {
+            if (widget.getId() == null) {
+                widget.setId(idGenerator.incrementAndGet());
+            }
+
+            int slot = slotsById.get(widget.getId());
+            if (slot == LongIntHashMap.NO_VALUE) {
+                slot = takeSlot();
+                slotsById.put(widget.getId(), slot);
+            } else {
+                removeFromZIndexOrder(slot);
+            }
+
+            write(slot, widget);
+            zIndexOrder.put(widget.getZindex(), slot);
+
+            return widget;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public <S extends Widget> List<S> saveAll(final Iterable<S> widgets) {
+        lock.writeLock().lock();
+        try {
+            final List<S> savedWidgets = new ArrayList<>();
+            beginBatch();
+            try {
+                for (S widget : widgets) {
+                    save(widget);
+                    savedWidgets.add(widget);
+                }
+            } finally {
+                // records written before a failure are kept as they are in memory
+                endBatch();
+            }
+            return savedWidgets;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteById(final long id) {
+        lock.writeLock().lock();
+        try {
+            final int slot = slotsById.remove(id);
+            if (slot == LongIntHashMap.NO_VALUE) {
+                throw new EntityNotFoundException();
+            }
+
+            removeFromZIndexOrder(slot);
+            free(slot);
+            pushFreeSlot(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteAll(final Iterable<? extends Widget> widgets) {
+        lock.writeLock().lock();
+        try {
+            widgets.forEach(widget -> deleteById(widget.getId()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Integer> findLastZindexOfRun(final int zIndex, final Long ignoredId) {
+        lock.readLock().lock();
+        try {
+            final OptionalInt lastZIndex = findLastZIndexOfRun(zIndex, ignoredId);
+            return lastZIndex.isPresent() ? Optional.of(lastZIndex.getAsInt()) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Integer> shiftZindexFrom(final int zIndex, final Long ignoredId) {
+        lock.writeLock().lock();
+        try {
+            final OptionalInt lastZIndex = findLastZIndexOfRun(zIndex, ignoredId);
+            if (lastZIndex.isEmpty()) {
+                return Optional.empty();
+            }
+
+            // shifting from the top overwrites positions of already shifted widgets only,
+            // the counter is long, so that it doesn't wrap around below Integer.MIN_VALUE
+            for (long nextZIndex = lastZIndex.getAsInt(); nextZIndex >= zIndex; nextZIndex--) {
+                final int slot = zIndexOrder.get((int) nextZIndex);
+                writeZIndex(slot, (int) nextZIndex + 1);
+                zIndexOrder.put((int) nextZIndex + 1, slot);
+            }
+            zIndexOrder.remove(zIndex);
+            return Optional.of(lastZIndex.getAsInt());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // z-index of the last widget of the contiguous run starting at zIndex, empty if the position is free
+    private OptionalInt findLastZIndexOfRun(final int zIndex, final Long ignoredId) {
+        if (!isTaken(zIndex, ignoredId)) {
+            return OptionalInt.empty();
+        }
+
+        int lastZIndex = zIndex;
+        while (lastZIndex != Integer.MAX_VALUE && isTaken(lastZIndex + 1, ignoredId)) {
+            lastZIndex++;
+        }
+        return OptionalInt.of(lastZIndex);
+    }
+
+    private boolean isTaken(final int zIndex, final Long ignoredId) {
+        final int slot = zIndexOrder.get(zIndex);
+        return slot != IntIntSortedMap.NO_VALUE && (ignoredId == null || idAt(slot) != ignoredId);
+    }
+
+    private void removeFromZIndexOrder(final int slot) {
+        final int zIndex = zIndexAt(slot);
+        if (zIndexOrder.get(zIndex) == slot) {
+            zIndexOrder.remove(zIndex);
+        }
+    }
+
+    private int takeSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+
+        ensureCapacity(slotCount + 1);
+        return slotCount++;
+    }
+
+    private void pushFreeSlot(final int slot) {
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+}
@@ -0,0 +1,556 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.util.WidgetUtil;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only binary log of memory repository changes with periodic snapshots.
+ * <p>
+ * Records are appended to a buffer, which is written to the current log segment and forced to disk
+ * by the flusher thread once groupCommitRecords records are pending or groupCommitInterval passes (group commit).
+ * With ALWAYS fsync policy writers wait until their records are forced, with INTERVAL policy they don't wait,
+ * with NEVER policy the log is written without forcing, so it survives process crashes but not power loss.
+ * <p>
+ * A snapshot holds all widgets at the moment the log is switched to a new segment, once it's written
+ * older segments are deleted. On startup the latest snapshot and the following segments are replayed,
+ * the torn tail of the last segment is ignored. Records of a batch are framed by begin and end records
+ * and replayed only if the end is read, so a batch torn by a crash is dropped as a whole.
+ */
+@Slf4j
+@Component
+@Profile("memory & wal")
+public class WriteAheadLog {
+    public enum FsyncPolicy {
+        ALWAYS, INTERVAL, NEVER
+    }
+
+    @Data
+    static class Snapshot {
+        private final List<Widget> widgets;
+        private final long lastId;
+        // the first segment not covered by the snapshot
+        private final long nextSegment;
+    }
+
+    static final String SNAPSHOT_FILE = "widgets.snapshot";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int SNAPSHOT_MAGIC = 0x57534E50;
+    private static final byte SAVE = 1;
+    private static final byte DELETE = 2;
+    private static final byte BEGIN_BATCH = 3;
+    private static final byte END_BATCH = 4;
+    // type, id, x, y, z-index, width, height, lastModified, checksum
+    static final int RECORD_SIZE = 1 + 8 + 5 * 4 + 8 + 4;
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long groupCommitIntervalNanos;
+    private final int groupCommitRecords;
+    private final long snapshotIntervalMillis;
+
+    // guards the pending buffer and sequences, writers append under it
+    private final Lock lock = new ReentrantLock();
+    private final Condition flushRequested = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long appendedSequence;
+    private long flushedSequence;
+    private long pendingSinceNanos;
+    private boolean closed;
+    // once writing fails the log stops accepting records, as their durability can't be guaranteed
+    private IOException failure;
+
+    // serializes writes to segments, taken before lock
+    private final Lock ioLock = new ReentrantLock();
+    private FileChannel segment;
+    private long segmentNumber;
+
+    private final CRC32 checksum = new CRC32();
+    private Thread flusher;
+    private ScheduledExecutorService snapshotExecutor;
+    private long snapshotSequence;
+
+    public WriteAheadLog(@Value("${widget.wal.directory}") final String directory,
+            @Value("${widget.wal.fsync}") final FsyncPolicy fsyncPolicy,
+            @Value("${widget.wal.group-commit-interval-ms}") final long groupCommitIntervalMillis,
+            @Value("${widget.wal.group-commit-records}") final int groupCommitRecords,
+            @Value("${widget.wal.snapshot-interval-ms}") final long snapshotIntervalMillis) {
+        this.directory = Paths.get(directory);
+        this.fsyncPolicy = fsyncPolicy;
+        this.groupCommitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitIntervalMillis);
+        this.groupCommitRecords = groupCommitRecords;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * Passes widgets of the latest snapshot and changes of the following segments to the consumers,
+     * returns the greatest id seen. Must be called once before start.
+     */
+    public long replay(final Consumer<Widget> savedWidgets, final LongConsumer deletedIds) {
+        try {
+            Files.createDirectories(directory);
+
+            long lastId = 0;
+            long nextSegment = 0;
+            final Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshotPath)) {
+                final Snapshot snapshot = readSnapshot(snapshotPath);
+                snapshot.getWidgets().forEach(savedWidgets);
+                lastId = snapshot.getLastId();
+                nextSegment = snapshot.getNextSegment();
+            }
+
+            for (long number : segmentNumbers()) {
+                if (number < nextSegment) {
+                    Files.delete(segmentPath(number));
+                } else {
+                    lastId = Math.max(lastId, replaySegment(segmentPath(number), savedWidgets, deletedIds));
+                    nextSegment = number + 1;
+                }
+            }
+
+            // the last segment may have a torn tail, so appending starts with a new one
+            segmentNumber = nextSegment;
+            segment = openSegment(segmentNumber);
+            return lastId;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts group commits and periodic snapshots. The snapshot source is called with writes stopped,
+     * it is expected to copy widgets and call rotate.
+     */
+    public void start(final Supplier<Snapshot> snapshotSource) {
+        flusher = new Thread(this::flushLoop, "widget-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "widget-wal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleWithFixedDelay(() -> snapshotIfChanged(snapshotSource),
+                snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends the widget state, returns the sequence of the record.
+     */
+    public long appendSave(final Widget widget) {
+        return append(SAVE, widget.getId(), widget.getX(), widget.getY(), widget.getZindex(),
+                widget.getWidth(), widget.getHeight(), WidgetUtil.toEpochNanos(widget.getLastModified()));
+    }
+
+    /**
+     * Appends the widget deletion, returns the sequence of the record.
+     */
+    public long appendDelete(final long id) {
+        return append(DELETE, id, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Appends the start of a batch, the following records are replayed only if the end of the batch is durable too.
+     */
+    public long appendBeginBatch() {
+        return append(BEGIN_BATCH, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Appends the end of a batch, returns the sequence of the record.
+     */
+    public long appendEndBatch() {
+        return append(END_BATCH, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Waits until the record with the given sequence is durable according to the fsync policy.
+     */
+    public void awaitDurable(final long sequence) {
+        if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            while (flushedSequence < sequence) {
+                checkOpen();
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes pending records and switches to a new segment, returns its number. Must be called with writes stopped.
+     */
+    long rotate() {
+        ioLock.lock();
+        try {
+            flush();
+            segment.close();
+            segment = openSegment(++segmentNumber);
+            return segmentNumber;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the snapshot and deletes segments covered by it.
+     */
+    void writeSnapshot(final Snapshot snapshot) {
+        try {
+            final Path temporaryPath = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                final CheckedOutputStream checkedStream = new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+                final DataOutputStream stream = new DataOutputStream(checkedStream);
+                stream.writeInt(SNAPSHOT_MAGIC);
+                stream.writeLong(snapshot.getLastId());
+                stream.writeLong(snapshot.getNextSegment());
+                stream.writeInt(snapshot.getWidgets().size());
+                for (Widget widget : snapshot.getWidgets()) {
+                    stream.writeLong(widget.getId());
+                    stream.writeInt(widget.getX());
+                    stream.writeInt(widget.getY());
+                    stream.writeInt(widget.getZindex());
+                    stream.writeInt(widget.getWidth());
+                    stream.writeInt(widget.getHeight());
+                    stream.writeLong(WidgetUtil.toEpochNanos(widget.getLastModified()));
+                }
+                stream.writeLong(checkedStream.getChecksum().getValue());
+                stream.flush();
+                channel.force(true);
+            }
+            Files.move(temporaryPath, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE);
+
+            for (long number : segmentNumbers()) {
+                if (number < snapshot.getNextSegment()) {
+                    Files.delete(segmentPath(number));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+
+        ioLock.lock();
+        try {
+            flush();
+            lock.lock();
+            try {
+                closed = true;
+                flushRequested.signalAll();
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (segment != null && segment.isOpen()) {
+                segment.force(false);
+                segment.close();
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private long append(final byte type, final long id, final int x, final int y, final int zIndex,
+            final int width, final int height, final long lastModified) {
+        lock.lock();
+        try {
+            checkOpen();
+            if (pending.remaining() < RECORD_SIZE) {
+                pending = ByteBuffer.allocate(pending.capacity() * 2).put(pending.flip());
+            }
+
+            final int start = pending.position();
+            pending.put(type).putLong(id).putInt(x).putInt(y).putInt(zIndex).putInt(width).putInt(height)
+                    .putLong(lastModified);
+            checksum.reset();
+            checksum.update(pending.array(), start, RECORD_SIZE - 4);
+            pending.putInt((int) checksum.getValue());
+
+            final boolean firstPending = appendedSequence++ == flushedSequence;
+            if (firstPending) {
+                pendingSinceNanos = System.nanoTime();
+            }
+            // the flusher starts waiting for the group commit interval with the first pending record
+            if (firstPending || appendedSequence - flushedSequence >= groupCommitRecords) {
+                flushRequested.signal();
+            }
+            return appendedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                while (!closed && failure == null && !isFlushDue()) {
+                    if (appendedSequence == flushedSequence) {
+                        flushRequested.awaitUninterruptibly();
+                    } else {
+                        flushRequested.awaitNanos(groupCommitIntervalNanos - (System.nanoTime() - pendingSinceNanos));
+                    }
+                }
+                if (closed || failure != null) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            ioLock.lock();
+            try {
+                flush();
+            } catch (UncheckedIOException e) {
+                log.error("Failed to write the write-ahead log", e);
+            } finally {
+                ioLock.unlock();
+            }
+        }
+    }
+
+    // writes pending records to the current segment, must be called under ioLock
+    private void flush() {
+        final ByteBuffer buffer;
+        final long sequence;
+        lock.lock();
+        try {
+            if (closed || failure != null || appendedSequence == flushedSequence) {
+                return;
+            }
+            buffer = pending;
+            sequence = appendedSequence;
+            pending = spare;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                segment.force(false);
+            }
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+
+        lock.lock();
+        try {
+            spare = buffer;
+            flushedSequence = sequence;
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // enough records are pending or the group commit interval of the first pending one passed
+    private boolean isFlushDue() {
+        final long pendingRecords = appendedSequence - flushedSequence;
+        return pendingRecords >= groupCommitRecords
+                || pendingRecords > 0 && System.nanoTime() - pendingSinceNanos >= groupCommitIntervalNanos;
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+    }
+
+    private void snapshotIfChanged(final Supplier<Snapshot> snapshotSource) {
+        try {
+            lock.lock();
+            try {
+                if (appendedSequence == snapshotSequence) {
+                    return;
+                }
+                snapshotSequence = appendedSequence;
+            } finally {
+                lock.unlock();
+            }
+
+            writeSnapshot(snapshotSource.get());
+        } catch (RuntimeException e) {
+            log.error("Failed to write a snapshot", e);
+        }
+    }
+
+    private Snapshot readSnapshot(final Path path) throws IOException {
+        try (InputStream fileStream = Files.newInputStream(path)) {
+            final CheckedInputStream checkedStream = new CheckedInputStream(new BufferedInputStream(fileStream),
+                    new CRC32());
+            final DataInputStream stream = new DataInputStream(checkedStream);
+            if (stream.readInt() != SNAPSHOT_MAGIC) {
+                throw new IllegalStateException("Unknown format of " + path);
+            }
+
+            final long lastId = stream.readLong();
+            final long nextSegment = stream.readLong();
+            final int count = stream.readInt();
+            final List<Widget> widgets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                widgets.add(new Widget(stream.readLong(), stream.readInt(), stream.readInt(), stream.readInt(),
+                        stream.readInt(), stream.readInt(), WidgetUtil.fromEpochNanos(stream.readLong())));
+            }
+
+            // snapshots are renamed once complete, so a broken one can't be skipped silently
+            final long expectedChecksum = checkedStream.getChecksum().getValue();
+            if (stream.readLong() != expectedChecksum) {
+                throw new IllegalStateException("Checksum mismatch of " + path);
+            }
+            return new Snapshot(widgets, lastId, nextSegment);
+        }
+    }
+
+    // returns the greatest id of the segment
+    private long replaySegment(final Path path, final Consumer<Widget> savedWidgets, final LongConsumer deletedIds)
+            throws IOException {
+        long lastId = 0;
+        // changes of the batch being read, null outside of batches
+        List<Runnable> batch = null;
+        final byte[] record = new byte[RECORD_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                stream.readFully(record);
+
+                checksum.reset();
+                checksum.update(record, 0, RECORD_SIZE - 4);
+                if (buffer.getInt(RECORD_SIZE - 4) != (int) checksum.getValue()) {
+                    log.warn("Write-ahead log {} is replayed up to a broken record", path);
+                    break;
+                }
+
+                if (record[0] == BEGIN_BATCH) {
+                    batch = new ArrayList<>();
+                    continue;
+                }
+                if (record[0] == END_BATCH) {
+                    if (batch != null) {
+                        batch.forEach(Runnable::run);
+                    }
+                    batch = null;
+                    continue;
+                }
+
+                final long id = buffer.getLong(1);
+                final Runnable change;
+                if (record[0] == SAVE) {
+                    final Widget widget = new Widget(id, buffer.getInt(9), buffer.getInt(13), buffer.getInt(17),
+                            buffer.getInt(21), buffer.getInt(25), WidgetUtil.fromEpochNanos(buffer.getLong(29)));
+                    change = () -> savedWidgets.accept(widget);
+                } else {
+                    change = () -> deletedIds.accept(id);
+                }
+                if (batch != null) {
+                    batch.add(change);
+                } else {
+                    change.run();
+                }
+                lastId = Math.max(lastId, id);
+            }
+        } catch (EOFException e) {
+            // the end of the segment, possibly in the middle of a torn record
+        }
+
+        if (batch != null) {
+            log.warn("Write-ahead log {} ends with a torn batch of {} changes, which is dropped", path, batch.size());
+        }
+        return lastId;
+    }
+
+    private List<Long> segmentNumbers() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private FileChannel openSegment(final long number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(final long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,258 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.util.WidgetUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Repository serving all reads from an in-memory mirror of the database, which is loaded on startup.
+ * Writes are applied to the mirror and written to the database asynchronously: changes of the same widget
+ * are coalesced and flushed in batches at least every maxLag or once batchSize widgets are changed.
+ * Pending changes are flushed on shutdown.
+ * <p>
+ * Reads are not refreshed from the database, so while the mirror runs it must be the only writer of the widget table.
+ * Ids are allocated from widget_id_sequence in blocks the same way Hibernate does, so the database profile
+ * can take over the table later without reusing them.
+ */
+@Slf4j
+@Primary
+@Repository
+@Profile("database & write-behind")
+public class WriteBehindWidgetRepository implements WidgetRepository {
+    private static final String INSERT_SQL = "insert into widget (id, x, y, zindex, width, height, last_modified)"
+            + " values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_SQL = "delete from widget where id = ?";
+    private static final String NEXT_ID_BLOCK_SQL = "select next value for widget_id_sequence";
+    // matches the increment of widget_id_sequence, a sequence value is the last id of its block
+    private static final int ID_BLOCK_SIZE = 50;
+    private static final int LOAD_BATCH_SIZE = 10_000;
+
+    private final MemoryWidgetRepository mirror = new MemoryWidgetRepository();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    // next id to assign and the last one of the allocated block, the block is empty initially
+    private long nextId = 1;
+    private long lastId;
+    // latest state of changed widgets by id in the order of the first change, null for deleted widgets
+    private Map<Long, Widget> pendingWidgets = new LinkedHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "widget-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public WriteBehindWidgetRepository(final DbWidgetRepository widgetRepository, final JdbcTemplate jdbcTemplate,
+            final PlatformTransactionManager transactionManager,
+            @Value("${widget.write-behind.max-lag-ms}") final long maxLagMillis,
+            @Value("${widget.write-behind.batch-size}") final int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+
+        widgetRepository.forEachBatch(LOAD_BATCH_SIZE, mirror::saveAll);
+        flushExecutor.scheduleWithFixedDelay(this::flushQuietly, maxLagMillis, maxLagMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Page<Widget> findAll(final Pageable pageable) {
+        return mirror.findAll(pageable);
+    }
+
+    @Override
+    public Slice<Widget> findByZindexGreaterThanOrderByZindex(final int zIndex, final Pageable pageable) {
+        return mirror.findByZindexGreaterThanOrderByZindex(zIndex, pageable);
+    }
+
+    @Override
+    public Optional<Widget> findById(final long id) {
+        return mirror.findById(id);
+    }
+
+    @Override
+    public List<Widget> findAllById(final Iterable<Long> ids) {
+        return mirror.findAllById(ids);
+    }
+
+    @Override
+    public void forEachBatch(final int batchSize, final Consumer<List<Widget>> consumer) {
+        mirror.forEachBatch(batchSize, consumer);
+    }
+
+    @Override
+    public Optional<Widget> findTopByOrderByZindexDesc() {
+        return mirror.findTopByOrderByZindexDesc();
+    }
+
+    @Override
+    public List<Widget> findByZindexGreaterThanEqualOrderByZindex(final int zIndex) {
+        return mirror.findByZindexGreaterThanEqualOrderByZindex(zIndex);
+    }
+
+    @Override
+    public List<Widget> findByZindexBetweenOrderByZindex(final int fromZIndex, final int toZIndex) {
+        return mirror.findByZindexBetweenOrderByZindex(fromZIndex, toZIndex);
+    }
+
+    @Override
+    public synchronized Widget save(final Widget widget) {
+        assignId(widget);
+        final Widget savedWidget = mirror.save(widget);
+        addPending(savedWidget.getId(), savedWidget);
+        return savedWidget;
+    }
+
+    @Override
+    public synchronized <S extends Widget> List<S> saveAll(final Iterable<S> widgets) {
+        widgets.forEach(this::assignId);
+        final List<S> savedWidgets = mirror.saveAll(widgets);
+        savedWidgets.forEach(widget -> addPending(widget.getId(), widget));
+        return savedWidgets;
+    }
+
+    @Override
+    public synchronized void deleteById(final long id) {
+        mirror.deleteById(id);
+        addPending(id, null);
+    }
+
+    @Override
+    public synchronized void deleteAll(final Iterable<? extends Widget> widgets) {
+        mirror.deleteAll(widgets);
+        widgets.forEach(widget -> addPending(widget.getId(), null));
+    }
+
+    @Override
+    public Optional<Integer> findLastZindexOfRun(final int zIndex, final Long ignoredId) {
+        return mirror.findLastZindexOfRun(zIndex, ignoredId);
+    }
+
+    @Override
+    public synchronized Optional<Integer> shiftZindexFrom(final int zIndex, final Long ignoredId) {
+        // the mirror shifts widgets in place, so the shifted run is read back to write its widgets behind
+        final Optional<Integer> lastZIndex = mirror.shiftZindexFrom(zIndex, ignoredId);
+        lastZIndex.ifPresent(last -> {
+            for (Widget widget : mirror.findByZindexBetweenOrderByZindex(zIndex + 1, last + 1)) {
+                addPending(widget.getId(), widget);
+            }
+        });
+        return lastZIndex;
+    }
+
+    /**
+     * The ignored widget may hold the position right above the shifted run in the database until its save
+     * is flushed, so the shift and the save are queued together and no flush writes the shifted run alone.
+     */
+    @Override
+    public synchronized Widget shiftZindexAndSave(final Widget widget) {
+        shiftZindexFrom(widget.getZindex(), widget.getId());
+        return save(widget);
+    }
+
+    /**
+     * Writes pending changes to the database in a single transaction, failed changes are retried by the next flush
+     * unless the widgets are changed again.
+     */
+    public void flush() {
+        final Map<Long, Widget> widgets;
+        synchronized (this) {
+            flushScheduled.set(false);
+            if (pendingWidgets.isEmpty()) {
+                return;
+            }
+            widgets = pendingWidgets;
+            pendingWidgets = new LinkedHashMap<>();
+        }
+
+        // rows of all changed widgets are deleted before their latest state is inserted, so that z-indexes
+        // moved between them never collide in the unique index while rows are written one by one
+        final List<Object[]> inserts = new ArrayList<>();
+        final List<Object[]> deletes = new ArrayList<>();
+        widgets.forEach((id, widget) -> {
+            deletes.add(new Object[] {id});
+            if (widget != null) {
+                inserts.add(new Object[] {id, widget.getX(), widget.getY(), widget.getZindex(), widget.getWidth(),
+                        widget.getHeight(), widget.getLastModified() != null
+                                ? Timestamp.valueOf(widget.getLastModified()) : null});
+            }
+        });
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate(DELETE_SQL, deletes);
+                jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                // newer changes of the same widgets take precedence
+                widgets.forEach((id, widget) -> {
+                    if (!pendingWidgets.containsKey(id)) {
+                        pendingWidgets.put(id, widget);
+                    }
+                });
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        flush();
+    }
+
+    private void assignId(final Widget widget) {
+        if (widget.getId() != null) {
+            return;
+        }
+        if (nextId > lastId) {
+            lastId = jdbcTemplate.queryForObject(NEXT_ID_BLOCK_SQL, Long.class);
+            // the initial value of the sequence is a block of its own, ids start with 1
+            nextId = Math.max(lastId - ID_BLOCK_SIZE + 1, 1);
+        }
+        widget.setId(nextId++);
+    }
+
+    private void addPending(final long id, final Widget widget) {
+        // copies are kept, as the mirror modifies widgets in place
+        pendingWidgets.put(id, widget != null ? WidgetUtil.copy(widget) : null);
+        if (pendingWidgets.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(this::flushQuietly);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to write widgets to the database", e);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.miro.service.widget.service;
+
+import com.miro.service.widget.exception.WriterUnavailable;
+import com.miro.service.widget.model.Widget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Widget service applying all writes on a single writer thread, so writes don't contend for locks.
+ * Writes are queued into a bounded buffer (callers block while it's full), the writer takes all queued writes
+ * at once and applies them one by one, search tree changes of the whole batch are published as a single version.
+ * Futures of the batch are completed once the tree is published, so a completed write is visible to searches.
+ * Once the service is stopping new writes are rejected and queued ones fail with WriterUnavailable.
+ */
+@Service
+@Profile("memory & single-writer")
+public class SingleWriterWidgetService extends WidgetService {
+    static final int QUEUE_CAPACITY = 4096;
+    static final int MAX_BATCH_SIZE = 1024;
+    // the writer and callers waiting for space in the full queue check that often whether the service is stopping
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final long STOP_TIMEOUT_MS = 10_000;
+
+    private static class Write {
+        private final Supplier<List<Widget>> action;
+        private final boolean delete;
+        private final CompletableFuture<List<Widget>> result = new CompletableFuture<>();
+        private List<Widget> widgets;
+        private Throwable error;
+
+        Write(final Supplier<List<Widget>> action, final boolean delete) {
+            this.action = action;
+            this.delete = delete;
+        }
+    }
+
+    private final BlockingQueue<Write> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer = new Thread(this::applyWrites, "widget-writer");
+    private volatile boolean stopping;
+    private long writeTimeoutMillis;
+
+    @Value("${widget.single-writer.write-timeout-ms:30000}")
+    void setWriteTimeoutMillis(final long writeTimeoutMillis) {
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Lets the writer finish the batch being applied and fails writes still queued.
+     */
+    @PreDestroy
+    public void stop() {
+        stopping = true;
+        try {
+            writer.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.interrupt();
+        failQueued();
+    }
+
+    @Override
+    public Widget create(final Widget widget) {
+        return await(createAsync(widget));
+    }
+
+    @Override
+    public Widget update(final Widget widgetUpdate) {
+        return await(updateAsync(widgetUpdate));
+    }
+
+    @Override
+    public void delete(final long id) {
+        await(deleteAsync(id));
+    }
+
+    @Override
+    public List<Widget> createAll(final List<Widget> widgets) {
+        return await(createAllAsync(widgets));
+    }
+
+    @Override
+    public List<Widget> updateAll(final List<Widget> widgetUpdates) {
+        return await(updateAllAsync(widgetUpdates));
+    }
+
+    @Override
+    public void deleteAll(final Collection<Long> ids) {
+        await(deleteAllAsync(ids));
+    }
+
+    /**
+     * The action is run by the writer between writes, so the caller waits for the writes queued before it.
+     * The wait is not bounded by the write timeout, as the action may be loading the whole board.
+     */
+    @Override
+    protected void runWithWritesHeld(final Runnable action) {
+        submit(new Write(() -> {
+            action.run();
+            return List.of();
+        }, false)).join();
+    }
+
+    public CompletableFuture<Widget> createAsync(final Widget widget) {
+        return submit(new Write(() -> List.of(applyCreate(widget)), false)).thenApply(widgets -> widgets.get(0));
+    }
+
+    public CompletableFuture<Widget> updateAsync(final Widget widgetUpdate) {
+        return submit(new Write(() -> List.of(applyUpdate(widgetUpdate)), false)).thenApply(widgets -> widgets.get(0));
+    }
+
+    /**
+     * The future is completed with the deleted widget.
+     */
+    public CompletableFuture<Widget> deleteAsync(final long id) {
+        return submit(new Write(() -> List.of(applyDelete(id)), true)).thenApply(widgets -> widgets.get(0));
+    }
+
+    public CompletableFuture<List<Widget>> createAllAsync(final List<Widget> widgets) {
+        return submit(new Write(() -> applyCreateAll(widgets), false));
+    }
+
+    public CompletableFuture<List<Widget>> updateAllAsync(final List<Widget> widgetUpdates) {
+        return submit(new Write(() -> applyUpdateAll(widgetUpdates), false));
+    }
+
+    /**
+     * The future is completed with the deleted widgets.
+     */
+    public CompletableFuture<List<Widget>> deleteAllAsync(final Collection<Long> ids) {
+        return submit(new Write(() -> applyDeleteAll(ids), true));
+    }
+
+    private CompletableFuture<List<Widget>> submit(final Write write) {
+        boolean queued = false;
+        try {
+            while (!queued && !stopping) {
+                queued = queue.offer(write, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.result.completeExceptionally(e);
+            return write.result;
+        }
+
+        if (!queued) {
+            write.result.completeExceptionally(new WriterUnavailable("Widget writer is stopped"));
+        } else if (stopping) {
+            // the queue may have been already failed by stop(), so the write is not left in it
+            failQueued();
+        }
+        return write.result;
+    }
+
+    private void failQueued() {
+        final List<Write> writes = new ArrayList<>();
+        queue.drainTo(writes);
+        writes.forEach(write -> write.result.completeExceptionally(new WriterUnavailable("Widget writer is stopped")));
+    }
+
+    private void applyWrites() {
+        final List<Write> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        try {
+            while (!stopping) {
+                final Write write = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (write == null) {
+                    continue;
+                }
+                batch.add(write);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                applyBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // service is stopped
+        }
+    }
+
+    private void applyBatch(final List<Write> batch) {
+        // the last version of every widget goes to the tree
+        final Map<Long, Widget> savedWidgets = new LinkedHashMap<>();
+        final Map<Long, Widget> deletedWidgets = new LinkedHashMap<>();
+        for (Write write : batch) {
+            try {
+                write.widgets = write.action.get();
+                for (Widget widget : write.widgets) {
+                    if (write.delete) {
+                        savedWidgets.remove(widget.getId());
+                        deletedWidgets.put(widget.getId(), widget);
+                    } else {
+                        savedWidgets.put(widget.getId(), widget);
+                    }
+                }
+            } catch (Throwable e) {
+                // errors fail the write only, the writer keeps applying the following ones
+                write.error = e;
+            }
+        }
+
+        try {
+            updateSearchTree(savedWidgets.values(), deletedWidgets.values());
+        } catch (Throwable e) {
+            batch.forEach(write -> write.result.completeExceptionally(e));
+            return;
+        }
+
+        for (Write write : batch) {
+            if (write.error != null) {
+                write.result.completeExceptionally(write.error);
+            } else {
+                write.result.complete(write.widgets);
+            }
+        }
+    }
+
+    // the write may still be applied after the wait times out
+    private <T> T await(final CompletableFuture<T> result) {
+        try {
+            return result.get(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // errors like WidgetNotFound are rethrown as they are, so they are handled as in other modes
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new WriterUnavailable("Widget write is not applied in " + writeTimeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WriterUnavailable("Interrupted while waiting for a widget write");
+        }
+    }
+}
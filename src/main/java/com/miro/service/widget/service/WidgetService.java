@@ -1,32 +1,306 @@
 package com.miro.service.widget.service;
 
 import com.miro.service.widget.exception.WidgetNotFound;
+import com.miro.service.widget.model.Area;
 import com.miro.service.widget.model.Paging;
 import com.miro.service.widget.model.Widget;
 import com.miro.service.widget.repository.WidgetRepository;
 import com.miro.service.widget.util.RTreeWrapper;
+import com.miro.service.widget.util.SpatialIndex;
 import com.miro.service.widget.util.WidgetUtil;
+import com.miro.service.widget.util.ZIndexLocks;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import javax.persistence.EntityNotFoundException;
 import java.time.LocalDateTime;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+@Slf4j
 @Service
+@Profile("!single-writer")
 public class WidgetService {
+    // size of batches widgets are read with while loading the search tree
+    private static final int LOAD_BATCH_SIZE = 10_000;
+    // widgets found in the search tree are read from the repository in chunks of this size
+    private static final int AREA_CHUNK_SIZE = 1_000;
+    private static final Comparator<Widget> Z_INDEX_ORDER = Comparator.comparing(Widget::getZindex);
+    // pages of area widgets ordered by z-index are selected in memory, so they are bounded
+    public static final int MAX_Z_INDEX_PAGE_SIZE = 1_000;
+
     @Autowired
     private WidgetRepository widgetRepository;
 
-    private final RTreeWrapper searchTree = new RTreeWrapper();
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private SpatialIndex searchTree = new RTreeWrapper();
+    private final ZIndexLocks zIndexLocks = new ZIndexLocks();
+
+    // z-indexes a write affects: previous position of the widget, the position it takes
+    // and the last position of the run shifted from there, null when not applicable
+    @Data
+    private static class WriteRange {
+        private final Integer previousZIndex;
+        private final Integer zIndex;
+        private final Integer lastShiftedZIndex;
+
+        BitSet stripes() {
+            final BitSet stripes = new BitSet();
+            if (previousZIndex != null) {
+                ZIndexLocks.addStripes(stripes, previousZIndex, previousZIndex);
+            }
+            if (zIndex != null) {
+                // shifted run takes one more position above
+                ZIndexLocks.addStripes(stripes, zIndex,
+                        lastShiftedZIndex != null ? lastShiftedZIndex + 1L : zIndex);
+            }
+            return stripes;
+        }
+    }
+
+    // top-k selection: the heap keeps limit widgets first in the order seen so far, the last of them on its head,
+    // so the whole result set is never sorted
+    private static class TopWidgets implements Consumer<Widget> {
+        private final Comparator<Widget> order;
+        private final int limit;
+        private final PriorityQueue<Widget> widgets;
+
+        TopWidgets(final Comparator<Widget> order, final int limit) {
+            this.order = order;
+            this.limit = limit;
+            widgets = new PriorityQueue<>(order.reversed());
+        }
+
+        @Override
+        public void accept(final Widget widget) {
+            if (widgets.size() < limit) {
+                widgets.add(widget);
+            } else if (order.compare(widget, widgets.peek()) < 0) {
+                widgets.poll();
+                widgets.add(widget);
+            }
+        }
+
+        List<Widget> toList() {
+            final List<Widget> sortedWidgets = new ArrayList<>(widgets);
+            sortedWidgets.sort(order);
+            return sortedWidgets;
+        }
+    }
+
+    private static class AreaMatches implements SpatialIndex.AreaMatchConsumer {
+        private long[] ids = new long[16];
+        private long[] areas = new long[16];
+        private int count;
+
+        @Override
+        public void accept(final long id, final long matchedAreas) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                areas = Arrays.copyOf(areas, count * 2);
+            }
+            ids[count] = id;
+            areas[count++] = matchedAreas;
+        }
+    }
+
+    @Value("${widget.spatial-index:RTREE}")
+    void setSpatialIndexEngine(final SpatialIndex.Engine engine) {
+        // the tree is loaded once the application is ready
+        searchTree = engine.create();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadSearchTree() {
+        // area search is incomplete until the tree is loaded
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+
+        // a write reaching the tree while widgets are read would be replaced by the rebuilt tree,
+        // so writes wait until it's published
+        runWithWritesHeld(() -> {
+            final long startTime = System.nanoTime();
+            final List<Widget> widgets = new ArrayList<>();
+            widgetRepository.forEachBatch(LOAD_BATCH_SIZE, widgets::addAll);
+            searchTree.rebuild(widgets);
+
+            final long loadTimeMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), 1);
+            log.info("Search tree is loaded with {} widgets in {} ms ({} widgets/s)",
+                    widgets.size(), loadTimeMillis, widgets.size() * 1000L / loadTimeMillis);
+        });
+
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+    }
 
     public List<Widget> findAll(final Paging paging) {
         return widgetRepository.findAll(WidgetUtil.pageable(paging)).getContent();
     }
 
+    /**
+     * Returns at most size widgets with z-index greater than afterZIndex ordered by z-index.
+     */
+    public List<Widget> findAllAfterZIndex(final int afterZIndex, final int size) {
+        return widgetRepository.findByZindexGreaterThanOrderByZindex(afterZIndex, PageRequest.of(0, size))
+                .getContent();
+    }
+
     public List<Widget> findAllInArea(final int left, final int bottom, final int right, final int top) {
-        return searchTree.search(left, bottom, right, top);
+        return findAllInArea(SpatialIndex.Mode.WITHIN, left, bottom, right, top);
+    }
+
+    /**
+     * Returns widgets matching the area in the given mode.
+     */
+    public List<Widget> findAllInArea(final SpatialIndex.Mode mode,
+            final int left, final int bottom, final int right, final int top) {
+        final List<Widget> widgets = new ArrayList<>();
+        forEachInArea(mode, left, bottom, right, top, 0, Integer.MAX_VALUE, widgets::add);
+        return widgets;
+    }
+
+    /**
+     * Returns at most limit widgets within the area with z-index greater than afterZIndex (if set), ordered by z-index.
+     */
+    public List<Widget> findAllInArea(final int left, final int bottom, final int right, final int top,
+            final Integer afterZIndex, final int limit) {
+        return findAllInArea(SpatialIndex.Mode.WITHIN, left, bottom, right, top, afterZIndex, limit);
+    }
+
+    /**
+     * Returns at most limit widgets matching the area in the given mode with z-index greater than afterZIndex
+     * (if set), ordered by z-index. The limit is at most MAX_Z_INDEX_PAGE_SIZE.
+     */
+    public List<Widget> findAllInArea(final SpatialIndex.Mode mode,
+            final int left, final int bottom, final int right, final int top,
+            final Integer afterZIndex, final int limit) {
+        if (limit > MAX_Z_INDEX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page ordered by z-index is limited to " + MAX_Z_INDEX_PAGE_SIZE);
+        }
+        final TopWidgets lowestWidgets = new TopWidgets(Z_INDEX_ORDER, limit);
+        forEachInArea(mode, left, bottom, right, top, 0, Integer.MAX_VALUE, widget -> {
+            if (afterZIndex == null || widget.getZindex() > afterZIndex) {
+                lowestWidgets.accept(widget);
+            }
+        });
+        return lowestWidgets.toList();
+    }
+
+    /**
+     * Passes widgets matching any of the areas in the given mode to the consumer once, as they are read,
+     * and returns ids of the passed widgets matching every area, in the order of areas. At most
+     * SpatialIndex.MAX_AREAS areas are searched, all of them in a single traversal of the tree.
+     */
+    public List<List<Long>> forEachInAreas(final SpatialIndex.Mode mode, final List<Area> areas,
+            final Consumer<Widget> consumer) {
+        if (areas.size() > SpatialIndex.MAX_AREAS) {
+            throw new IllegalArgumentException("At most " + SpatialIndex.MAX_AREAS + " areas are searched at once");
+        }
+
+        // the tree passes every widget once, ids and areas they match are kept in primitive arrays until read
+        final AreaMatches matches = new AreaMatches();
+        searchTree.searchAll(mode, areas, matches);
+
+        final List<List<Long>> areaIds = new ArrayList<>(areas.size());
+        areas.forEach(area -> areaIds.add(new ArrayList<>()));
+        final Map<Long, Long> chunkAreas = new HashMap<>();
+        for (int from = 0; from < matches.count; from += AREA_CHUNK_SIZE) {
+            chunkAreas.clear();
+            for (int i = from; i < Math.min(matches.count, from + AREA_CHUNK_SIZE); i++) {
+                chunkAreas.put(matches.ids[i], matches.areas[i]);
+            }
+            // widgets held by the tree may be outdated, so the latest state is read; widgets deleted since
+            // the search are left out of the areas too
+            for (Widget widget : widgetRepository.findAllById(List.copyOf(chunkAreas.keySet()))) {
+                consumer.accept(widget);
+                for (long bits = chunkAreas.get(widget.getId()); bits != 0; bits &= bits - 1) {
+                    areaIds.get(Long.numberOfTrailingZeros(bits)).add(widget.getId());
+                }
+            }
+        }
+        return areaIds;
+    }
+
+    /**
+     * Returns at most limit widgets covering the point ordered by z-index from the highest, i.e. the widgets
+     * a click at the point hits, the topmost first. Integer.MAX_VALUE coordinates are not supported,
+     * as the unit square at them doesn't fit int.
+     */
+    public List<Widget> findAllAtPoint(final int x, final int y, final int limit) {
+        if (x == Integer.MAX_VALUE || y == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Point " + x + ", " + y + " is out of the board");
+        }
+        // a widget covers the point when it intersects the unit square at it, so only the few widgets
+        // stacked at the point are read from the repository
+        final TopWidgets highestWidgets = new TopWidgets(Z_INDEX_ORDER.reversed(), limit);
+        forEachInArea(SpatialIndex.Mode.INTERSECTS, x, y, x + 1, y + 1, 0, Integer.MAX_VALUE, highestWidgets);
+        return highestWidgets.toList();
+    }
+
+    /**
+     * Passes widgets within the area to the consumer as they are found, skipping the first skip ones
+     * and stopping after limit widgets.
+     */
+    public void forEachInArea(final int left, final int bottom, final int right, final int top,
+            final int skip, final int limit, final Consumer<Widget> consumer) {
+        forEachInArea(SpatialIndex.Mode.WITHIN, left, bottom, right, top, skip, limit, consumer);
+    }
+
+    /**
+     * Passes widgets matching the area in the given mode to the consumer as they are found, skipping the first
+     * skip ones and stopping after limit widgets. Intersecting widgets are found by the tree itself,
+     * so the area doesn't need to be padded and filtered by callers.
+     */
+    public void forEachInArea(final SpatialIndex.Mode mode, final int left, final int bottom, final int right,
+            final int top, final int skip, final int limit, final Consumer<Widget> consumer) {
+        // widgets held by the tree may be outdated (e.g. shifted by z-index), so the latest state is read
+        final List<Long> ids = new ArrayList<>(AREA_CHUNK_SIZE);
+        searchTree.search(mode, left, bottom, right, top, skip, limit, id -> {
+            ids.add(id);
+            if (ids.size() == AREA_CHUNK_SIZE) {
+                widgetRepository.findAllById(List.copyOf(ids)).forEach(consumer);
+                ids.clear();
+            }
+        });
+        if (!ids.isEmpty()) {
+            widgetRepository.findAllById(ids).forEach(consumer);
+        }
+    }
+
+    /**
+     * Tells if more than skip widgets match the area in the given mode, i.e. if the page after the first skip widgets
+     * is not empty. Only the tree is searched.
+     */
+    public boolean existsInArea(final SpatialIndex.Mode mode, final int left, final int bottom, final int right,
+            final int top, final int skip) {
+        final AtomicBoolean found = new AtomicBoolean();
+        searchTree.search(mode, left, bottom, right, top, skip, 1, id -> found.set(true));
+        return found.get();
     }
 
     public Widget findById(final long id) {
@@ -35,68 +309,253 @@ public class WidgetService {
     }
 
     public Widget create(final Widget widget) {
-        if (widget.getZindex() == null) {
-            // find maximum zIndex among existing widgets
-            final Integer maxZIndex = widgetRepository.findTopByOrderByZindexDesc()
-                    .map(Widget::getZindex)
-                    .orElse(0);
-            widget.setZindex(maxZIndex + 1);
-        }
-
-        return save(widget);
+        return writeLocked(() -> {
+            final int zIndex = zIndexToCreate(widget);
+            return new WriteRange(null, zIndex, widgetRepository.findLastZindexOfRun(zIndex, null).orElse(null));
+        }, range -> {
+            // the top may have been deleted since the range was read, the locked z-index is taken anyway
+            widget.setZindex(range.getZIndex());
+            final Widget savedWidget = applyCreate(widget);
+            searchTree.update(savedWidget);
+            return savedWidget;
+        });
     }
 
     public Widget update(final Widget widgetUpdate) {
-        final Widget sourceWidget = widgetRepository.findById(widgetUpdate.getId())
-                .orElseThrow(() -> new WidgetNotFound(widgetUpdate.getId()));
+        return writeLocked(() -> {
+            final Widget sourceWidget = findById(widgetUpdate.getId());
+            final int zIndex = widgetUpdate.getZindex() != null ? widgetUpdate.getZindex() : sourceWidget.getZindex();
+            return new WriteRange(sourceWidget.getZindex(), zIndex,
+                    widgetRepository.findLastZindexOfRun(zIndex, sourceWidget.getId()).orElse(null));
+        }, range -> {
+            final Widget savedWidget = applyUpdate(widgetUpdate);
+            searchTree.update(savedWidget);
+            return savedWidget;
+        });
+    }
 
-        final Widget updatedWidget = WidgetUtil.update(sourceWidget, widgetUpdate);
+    public void delete(final long id) {
+        writeLocked(() -> new WriteRange(findById(id).getZindex(), null, null), range -> {
+            final Widget deletedWidget = applyDelete(id);
+            searchTree.delete(deletedWidget);
+            return deletedWidget;
+        });
+    }
 
-        return save(updatedWidget);
+    /**
+     * Creates widgets as if they were created one by one in the given order, the widgets are saved at once.
+     */
+    public List<Widget> createAll(final List<Widget> widgets) {
+        return writeLockedAll(() -> {
+            final List<Widget> createdWidgets = applyCreateAll(widgets);
+            updateSearchTree(createdWidgets, List.of());
+            return createdWidgets;
+        });
     }
 
-    public void delete(final long id) {
+    /**
+     * Updates widgets as if they were updated one by one in the given order, the widgets are saved at once.
+     */
+    public List<Widget> updateAll(final List<Widget> widgetUpdates) {
+        return writeLockedAll(() -> {
+            final List<Widget> updatedWidgets = applyUpdateAll(widgetUpdates);
+            updateSearchTree(updatedWidgets, List.of());
+            return updatedWidgets;
+        });
+    }
+
+    /**
+     * Deletes widgets at once, nothing is deleted if any of them is not found.
+     */
+    public void deleteAll(final Collection<Long> ids) {
+        writeLockedAll(() -> {
+            final List<Widget> deletedWidgets = applyDeleteAll(ids);
+            updateSearchTree(List.of(), deletedWidgets);
+            return deletedWidgets;
+        });
+    }
+
+    /**
+     * Writes the created widget to the repository, the search tree is not updated.
+     * Callers are responsible for not running conflicting writes concurrently.
+     */
+    protected Widget applyCreate(final Widget widget) {
+        widget.setZindex(zIndexToCreate(widget));
+        return save(widget);
+    }
+
+    /**
+     * Writes the widget update to the repository, the search tree is not updated.
+     * Callers are responsible for not running conflicting writes concurrently.
+     */
+    protected Widget applyUpdate(final Widget widgetUpdate) {
+        return save(WidgetUtil.update(findById(widgetUpdate.getId()), widgetUpdate));
+    }
+
+    /**
+     * Deletes the widget from the repository and returns it, the search tree is not updated.
+     * Callers are responsible for not running conflicting writes concurrently.
+     */
+    protected Widget applyDelete(final long id) {
         try {
             final Widget widget = findById(id);
             widgetRepository.deleteById(id);
-            searchTree.delete(widget);
+            return widget;
         } catch (EntityNotFoundException e) {
             throw new WidgetNotFound(id);
         }
     }
 
-    private Widget save(final Widget widgetToSave) {
-        final List<Widget> widgets = widgetRepository.findByZindexGreaterThanEqualOrderByZindex(widgetToSave.getZindex());
-        final List<Widget> widgetsToUpdate = new LinkedList<>();
+    /**
+     * Writes created widgets to the repository, z-index shifts of the whole batch are planned in memory,
+     * so every shifted widget is saved once. The search tree is not updated.
+     * Callers are responsible for not running conflicting writes concurrently.
+     */
+    protected List<Widget> applyCreateAll(final List<Widget> widgets) {
+        if (widgetRepository.hasDenseZIndexes()) {
+            // positions are shifted by the repository itself
+            return widgets.stream()
+                    .map(this::applyCreate)
+                    .collect(Collectors.toList());
+        }
 
-        Widget widgetToInsert = widgetToSave;
+        final ZIndexStack stack = new ZIndexStack(findTopZIndex(), this::findRun);
+        final LocalDateTime lastModified = LocalDateTime.now();
         for (Widget widget : widgets) {
-            // no need to update the widget itself
-            if (widget.getId().equals(widgetToSave.getId())) {
-                continue;
-            }
+            widget.setLastModified(lastModified);
+            stack.put(widget, widget.getZindex() != null ? widget.getZindex() : stack.getTopZIndex() + 1);
+        }
 
-            if (widget.getZindex().intValue() == widgetToInsert.getZindex().intValue()) {
-                // widget to insert has the same z-index as existing, some following widgets must be shifted by z-index
-                widgetToInsert = widget;
-                widgetToInsert.setZindex(widgetToInsert.getZindex() + 1);
+        widgetRepository.saveAll(stack.getChangedWidgets());
+        return widgets;
+    }
 
-                // put widget with maximum zIndex to the head
-                widgetsToUpdate.add(0, widgetToInsert);
-            } else if (widget.getZindex() > widgetToInsert.getZindex()) {
-                // widgetToSave's zIndex is unique, so no need to update any widgetToSave
-                break;
-            }
+    /**
+     * Writes widget updates to the repository, z-index shifts of the whole batch are planned in memory,
+     * so every shifted widget is saved once. The search tree is not updated.
+     * Callers are responsible for not running conflicting writes concurrently.
+     */
+    protected List<Widget> applyUpdateAll(final List<Widget> widgetUpdates) {
+        if (widgetRepository.hasDenseZIndexes()) {
+            findAllExisting(widgetUpdates.stream().map(Widget::getId).collect(Collectors.toList()));
+            return widgetUpdates.stream()
+                    .map(this::applyUpdate)
+                    .collect(Collectors.toList());
+        }
+
+        final List<Widget> sourceWidgets = findAllExisting(widgetUpdates.stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList()));
+        // updated widgets leave their positions, so they are taken from the stack to be removed from it
+        final ZIndexStack stack = new ZIndexStack(findTopZIndex(), this::findRun);
+        final Map<Long, Widget> currentWidgets = sourceWidgets.stream()
+                .map(sourceWidget -> stack.get(sourceWidget.getZindex()))
+                .collect(Collectors.toMap(Widget::getId, Function.identity()));
+        final List<Widget> updatedWidgets = new ArrayList<>();
+        for (Widget widgetUpdate : widgetUpdates) {
+            final Widget sourceWidget = currentWidgets.get(widgetUpdate.getId());
+            final Widget updatedWidget = WidgetUtil.update(sourceWidget, widgetUpdate);
+            stack.remove(sourceWidget);
+            stack.put(updatedWidget, updatedWidget.getZindex());
+            currentWidgets.put(updatedWidget.getId(), updatedWidget);
+            updatedWidgets.add(updatedWidget);
         }
 
-        // widgetsToUpdate is already reverse sorted by zIndex, so saving one by one doesn't produce zIndex duplicates
-        widgetsToUpdate.forEach(widgetRepository::save);
+        widgetRepository.saveAll(stack.getChangedWidgets());
+        return updatedWidgets;
+    }
 
-        widgetToSave.setLastModified(LocalDateTime.now());
+    /**
+     * Deletes widgets from the repository and returns them, the search tree is not updated.
+     * Callers are responsible for not running conflicting writes concurrently.
+     */
+    protected List<Widget> applyDeleteAll(final Collection<Long> ids) {
+        final List<Widget> widgets = findAllExisting(ids);
+        widgetRepository.deleteAll(widgets);
+        return widgets;
+    }
+
+    /**
+     * Runs the action with no write applied meanwhile, writes started before it are completed first.
+     */
+    protected void runWithWritesHeld(final Runnable action) {
+        writeLockedAll(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Publishes search tree changes of several writes as a single tree version.
+     */
+    protected void updateSearchTree(final Collection<Widget> savedWidgets, final Collection<Widget> deletedWidgets) {
+        searchTree.updateAll(savedWidgets, deletedWidgets);
+    }
+
+    private int zIndexToCreate(final Widget widget) {
+        return widget.getZindex() != null ? widget.getZindex() : findTopZIndex() + 1;
+    }
+
+    // find maximum zIndex among existing widgets
+    private int findTopZIndex() {
+        return widgetRepository.findTopByOrderByZindexDesc()
+                .map(Widget::getZindex)
+                .orElse(0);
+    }
+
+    // copies of the contiguous run of widgets starting at zIndex, i.e. all widgets a write to it shifts
+    private List<Widget> findRun(final int zIndex) {
+        return widgetRepository.findLastZindexOfRun(zIndex, null)
+                .map(lastZIndex -> widgetRepository.findByZindexBetweenOrderByZindex(zIndex, lastZIndex).stream()
+                        .map(WidgetUtil::copy)
+                        .collect(Collectors.toList()))
+                .orElse(List.of());
+    }
 
-        final Widget savedWidget = widgetRepository.save(widgetToSave);
-        searchTree.update(savedWidget);
+    private List<Widget> findAllExisting(final Collection<Long> ids) {
+        final Set<Long> missingIds = new LinkedHashSet<>(ids);
+        final List<Widget> widgets = widgetRepository.findAllById(missingIds);
+        widgets.forEach(widget -> missingIds.remove(widget.getId()));
+        if (!missingIds.isEmpty()) {
+            throw new WidgetNotFound(missingIds.iterator().next());
+        }
+        return widgets;
+    }
+
+    // batch writes may affect any z-index, so all stripes are locked
+    private <T> T writeLockedAll(final Supplier<T> write) {
+        final BitSet stripes = new BitSet();
+        ZIndexLocks.addStripes(stripes, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        zIndexLocks.lock(stripes);
+        try {
+            return write.get();
+        } finally {
+            zIndexLocks.unlock(stripes);
+        }
+    }
+
+    // the write is done with the z-index range it affects locked, so writes of other ranges proceed in parallel
+    // and reads are not blocked at all; the range is read before locking and once again after,
+    // the write is retried if the range has been changed by another write meanwhile
+    private <T> T writeLocked(final Supplier<WriteRange> rangeReader, final Function<WriteRange, T> write) {
+        while (true) {
+            final WriteRange range = rangeReader.get();
+            final BitSet stripes = range.stripes();
+            zIndexLocks.lock(stripes);
+            try {
+                if (range.equals(rangeReader.get())) {
+                    return write.apply(range);
+                }
+            } finally {
+                zIndexLocks.unlock(stripes);
+            }
+        }
+    }
+
+    private Widget save(final Widget widgetToSave) {
+        widgetToSave.setLastModified(LocalDateTime.now());
 
-        return savedWidget;
+        // widget to save may take the zIndex of an existing widget, in this case following widgets are shifted
+        return widgetRepository.shiftZindexAndSave(widgetToSave);
     }
 }
@@ -0,0 +1,118 @@
+package com.miro.service.widget.service;
+
+import com.miro.service.widget.model.Widget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Part of the widget stack kept in memory while a batch of writes is planned.
+ * Writes are applied to the stack one by one with the same z-index shifting as single writes,
+ * so every changed widget is saved only once with its final z-index.
+ * Only the contiguous runs of widgets writes reach are loaded, widgets put into the stack are modified in place.
+ */
+class ZIndexStack {
+    @FunctionalInterface
+    interface RunLoader {
+        /**
+         * Returns widgets of the contiguous run starting at zIndex in z-index order, empty if zIndex is free.
+         */
+        List<Widget> loadRun(int zIndex);
+    }
+
+    private final NavigableMap<Integer, Widget> widgets = new TreeMap<>();
+    // disjoint ranges of loaded positions, first to last z-index; positions outside of them are not read yet
+    private final NavigableMap<Integer, Integer> loadedRanges = new TreeMap<>();
+    private final Set<Widget> changedWidgets = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final RunLoader runLoader;
+    private int topZIndex;
+
+    /**
+     * @param topZIndex maximum z-index of all widgets
+     * @param runLoader reads runs of widgets at positions writes reach for the first time
+     */
+    ZIndexStack(final int topZIndex, final RunLoader runLoader) {
+        this.topZIndex = topZIndex;
+        this.runLoader = runLoader;
+    }
+
+    // removing widgets doesn't lower the top, widgets are removed only by batch updates which don't need it
+    int getTopZIndex() {
+        return topZIndex;
+    }
+
+    /**
+     * Returns the widget at zIndex, null if the position is free.
+     */
+    Widget get(final int zIndex) {
+        load(zIndex);
+        return widgets.get(zIndex);
+    }
+
+    /**
+     * Puts the widget to zIndex, the contiguous run of widgets starting there is shifted up by one.
+     */
+    void put(final Widget widget, final int zIndex) {
+        int lastZIndex = zIndex;
+        while (get(lastZIndex) != null) {
+            lastZIndex++;
+        }
+        // shifting from the top doesn't produce zIndex duplicates
+        for (int shiftedZIndex = lastZIndex - 1; shiftedZIndex >= zIndex; shiftedZIndex--) {
+            final Widget shiftedWidget = widgets.remove(shiftedZIndex);
+            shiftedWidget.setZindex(shiftedZIndex + 1);
+            widgets.put(shiftedZIndex + 1, shiftedWidget);
+            changedWidgets.add(shiftedWidget);
+        }
+
+        widget.setZindex(zIndex);
+        widgets.put(zIndex, widget);
+        changedWidgets.add(widget);
+        topZIndex = Math.max(topZIndex, lastZIndex);
+    }
+
+    /**
+     * Removes the widget got from the stack, its position becomes free.
+     */
+    void remove(final Widget widget) {
+        widgets.remove(widget.getZindex(), widget);
+        changedWidgets.remove(widget);
+    }
+
+    /**
+     * Returns widgets put or shifted, topmost first.
+     */
+    List<Widget> getChangedWidgets() {
+        final List<Widget> changed = new ArrayList<>(changedWidgets);
+        changed.sort(Comparator.comparing(Widget::getZindex).reversed());
+        return changed;
+    }
+
+    private void load(final int zIndex) {
+        final Map.Entry<Integer, Integer> range = loadedRanges.floorEntry(zIndex);
+        if (range != null && range.getValue() >= zIndex) {
+            return;
+        }
+
+        // loaded positions hold planned changes, so the repository is read only up to the next of them
+        final Integer nextLoadedZIndex = loadedRanges.higherKey(zIndex);
+        final int lastZIndex = nextLoadedZIndex != null ? nextLoadedZIndex - 1 : Integer.MAX_VALUE;
+        // the position right after the run is known to be free too
+        long lastKnownZIndex = zIndex;
+        for (Widget widget : runLoader.loadRun(zIndex)) {
+            if (widget.getZindex() > lastZIndex) {
+                break;
+            }
+            widgets.put(widget.getZindex(), widget);
+            lastKnownZIndex = widget.getZindex() + 1L;
+        }
+        loadedRanges.put(zIndex, (int) Math.min(lastKnownZIndex, lastZIndex));
+    }
+}
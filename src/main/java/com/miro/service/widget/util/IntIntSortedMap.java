@@ -0,0 +1,198 @@
+package com.miro.service.widget.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted map of int keys to int values kept in primitive blocks of at most BLOCK_CAPACITY entries,
+ * so that an entry takes about 8 bytes. Lookups and updates take O(log n + BLOCK_CAPACITY),
+ * the entry at a given index is found in O(n / BLOCK_CAPACITY).
+ * Not thread safe.
+ */
+public class IntIntSortedMap {
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    static final int BLOCK_CAPACITY = 512;
+
+    @FunctionalInterface
+    public interface EntryVisitor {
+        /**
+         * Returns false to stop the iteration.
+         */
+        boolean visit(int key, int value);
+    }
+
+    private static class Block {
+        private final int[] keys = new int[BLOCK_CAPACITY];
+        private final int[] values = new int[BLOCK_CAPACITY];
+        private int size;
+    }
+
+    // non-empty blocks, keys of a block are less than keys of the next one
+    private final List<Block> blocks = new ArrayList<>();
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value of the key or NO_VALUE if the key is absent.
+     */
+    public int get(final int key) {
+        if (blocks.isEmpty()) {
+            return NO_VALUE;
+        }
+
+        final Block block = blocks.get(blockIndexOf(key));
+        final int index = Arrays.binarySearch(block.keys, 0, block.size, key);
+        return index >= 0 ? block.values[index] : NO_VALUE;
+    }
+
+    /**
+     * Returns the previous value of the key or NO_VALUE if the key was absent.
+     */
+    public int put(final int key, final int value) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+
+        final int blockIndex = blockIndexOf(key);
+        Block block = blocks.get(blockIndex);
+        int index = Arrays.binarySearch(block.keys, 0, block.size, key);
+        if (index >= 0) {
+            final int previousValue = block.values[index];
+            block.values[index] = value;
+            return previousValue;
+        }
+
+        index = -index - 1;
+        if (block.size == BLOCK_CAPACITY) {
+            final Block upperHalf = split(blockIndex);
+            if (index > block.size) {
+                index -= block.size;
+                block = upperHalf;
+            }
+        }
+
+        System.arraycopy(block.keys, index, block.keys, index + 1, block.size - index);
+        System.arraycopy(block.values, index, block.values, index + 1, block.size - index);
+        block.keys[index] = key;
+        block.values[index] = value;
+        block.size++;
+        size++;
+        return NO_VALUE;
+    }
+
+    /**
+     * Returns the removed value of the key or NO_VALUE if the key was absent.
+     */
+    public int remove(final int key) {
+        if (blocks.isEmpty()) {
+            return NO_VALUE;
+        }
+
+        final int blockIndex = blockIndexOf(key);
+        final Block block = blocks.get(blockIndex);
+        final int index = Arrays.binarySearch(block.keys, 0, block.size, key);
+        if (index < 0) {
+            return NO_VALUE;
+        }
+
+        final int removedValue = block.values[index];
+        System.arraycopy(block.keys, index + 1, block.keys, index, block.size - index - 1);
+        System.arraycopy(block.values, index + 1, block.values, index, block.size - index - 1);
+        if (--block.size == 0) {
+            blocks.remove(blockIndex);
+        }
+        size--;
+        return removedValue;
+    }
+
+    /**
+     * Returns the greatest key, the map must not be empty.
+     */
+    public int lastKey() {
+        final Block block = blocks.get(blocks.size() - 1);
+        return block.keys[block.size - 1];
+    }
+
+    public int lastValue() {
+        final Block block = blocks.get(blocks.size() - 1);
+        return block.values[block.size - 1];
+    }
+
+    /**
+     * Passes entries with keys greater than or equal to fromKey to the visitor in key order.
+     */
+    public void forEachFrom(final int fromKey, final EntryVisitor visitor) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        final int blockIndex = blockIndexOf(fromKey);
+        final int index = Arrays.binarySearch(blocks.get(blockIndex).keys, 0, blocks.get(blockIndex).size, fromKey);
+        forEach(blockIndex, index >= 0 ? index : -index - 1, visitor);
+    }
+
+    /**
+     * Passes entries to the visitor in key order skipping the first fromIndex ones.
+     */
+    public void forEachFromIndex(final int fromIndex, final EntryVisitor visitor) {
+        int blockIndex = 0;
+        int index = fromIndex;
+        while (blockIndex < blocks.size() && index >= blocks.get(blockIndex).size) {
+            index -= blocks.get(blockIndex).size;
+            blockIndex++;
+        }
+        forEach(blockIndex, index, visitor);
+    }
+
+    private void forEach(final int fromBlockIndex, final int fromIndex, final EntryVisitor visitor) {
+        int index = fromIndex;
+        for (int blockIndex = fromBlockIndex; blockIndex < blocks.size(); blockIndex++) {
+            final Block block = blocks.get(blockIndex);
+            for (; index < block.size; index++) {
+                if (!visitor.visit(block.keys[index], block.values[index])) {
+                    return;
+                }
+            }
+            index = 0;
+        }
+    }
+
+    // the last block whose first key is less than or equal to the key, or the first block
+    private int blockIndexOf(final int key) {
+        int low = 1;
+        int high = blocks.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (blocks.get(middle).keys[0] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    // moves the upper half of a full block to a new block following it
+    private Block split(final int blockIndex) {
+        final Block block = blocks.get(blockIndex);
+        final Block upperHalf = new Block();
+        final int half = BLOCK_CAPACITY / 2;
+
+        System.arraycopy(block.keys, half, upperHalf.keys, 0, BLOCK_CAPACITY - half);
+        System.arraycopy(block.values, half, upperHalf.values, 0, BLOCK_CAPACITY - half);
+        upperHalf.size = BLOCK_CAPACITY - half;
+        block.size = half;
+
+        blocks.add(blockIndex + 1, upperHalf);
+        return upperHalf;
+    }
+}
@@ -0,0 +1,782 @@
+package com.miro.service.widget.util;
+
+import com.miro.service.widget.model.Area;
+import com.miro.service.widget.model.Widget;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+/**
+ * R-tree of widget rectangles with exact int coordinates. Nodes are kept in primitive arrays and leaves hold
+ * widget ids only, so no objects are allocated per widget. Right and top edges are kept as long, as a widget
+ * may reach beyond Integer.MAX_VALUE. Nodes are split quadratically, underfull nodes are
+ * dissolved and their entries reinserted at their own level, rebuilding packs the tree with STR bulk loading.
+ * <p>
+ * Writes are exclusive, searches run concurrently with each other and collect ids under the read lock,
+ * so consumers never block writers. Widget id 0 is not supported.
+ */
+public class IntRTree implements SpatialIndex {
+    static final int MAX_ENTRIES = 16;
+    static final int MIN_ENTRIES = 6;
+
+    private static final int NO_NODE = -1;
+    // one more slot than MAX_ENTRIES, so a node overflows in place before it is split
+    private static final int STRIDE = MAX_ENTRIES + 1;
+    private static final int INITIAL_NODES = 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // entries of node n take slots n * STRIDE .. n * STRIDE + counts[n] - 1, boxes are inclusive;
+    // a slot refers to a widget id in leaves and to a child node in inner nodes
+    private int[] minXs;
+    private int[] minYs;
+    private long[] maxXs;
+    private long[] maxYs;
+    private long[] refs;
+
+    private int[] counts;
+    // 0 for leaves
+    private int[] levels;
+    private int[] parents;
+    private int nodeCount;
+    private int[] freeNodes = new int[INITIAL_NODES];
+    private int freeNodeCount;
+    private int root;
+
+    // leaf holding every widget
+    private LongIntHashMap leaves = new LongIntHashMap();
+
+    // entries of dissolved nodes waiting to be reinserted into nodes of their level
+    private long[] orphanRefs = new long[MAX_ENTRIES];
+    private long[] orphanBoxes = new long[MAX_ENTRIES * 4];
+    private int[] orphanLevels = new int[MAX_ENTRIES];
+    private int orphanCount;
+
+    public IntRTree() {
+        clear(INITIAL_NODES);
+        root = allocateNode(0);
+    }
+
+    @Override
+    public void add(final Widget widget) {
+        update(widget);
+    }
+
+    @Override
+    public void update(final Widget widget) {
+        lock.writeLock().lock();
+        try {
+            put(widget);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(final Widget widget) {
+        lock.writeLock().lock();
+        try {
+            remove(widget.getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAll(final Collection<Widget> widgets) {
+        lock.writeLock().lock();
+        try {
+            if (widgets.size() < leaves.size()) {
+                widgets.forEach(this::put);
+                return;
+            }
+
+            // batch is comparable with the tree, so packing all entries from scratch is cheaper;
+            // ids are mapped to their last occurrence in the batch
+            final LongIntHashMap batchIds = new LongIntHashMap();
+            int index = 0;
+            for (Widget widget : widgets) {
+                batchIds.put(widget.getId(), index++);
+            }
+
+            final int capacity = leaves.size() + widgets.size();
+            final long[] ids = new long[capacity];
+            final long[] boxes = new long[capacity * 4];
+            int count = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                if (levels[node] != 0 || !isLive(node)) {
+                    continue;
+                }
+                for (int slot = node * STRIDE; slot < node * STRIDE + counts[node]; slot++) {
+                    if (batchIds.get(refs[slot]) == LongIntHashMap.NO_VALUE) {
+                        ids[count] = refs[slot];
+                        setBox(boxes, count++, minXs[slot], minYs[slot], maxXs[slot], maxYs[slot]);
+                    }
+                }
+            }
+            index = 0;
+            for (Widget widget : widgets) {
+                if (batchIds.get(widget.getId()) == index++) {
+                    ids[count] = widget.getId();
+                    setBox(boxes, count++, widget);
+                }
+            }
+            load(ids, boxes, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateAll(final Collection<Widget> widgets, final Collection<Widget> deletedWidgets) {
+        lock.writeLock().lock();
+        try {
+            widgets.forEach(this::put);
+            deletedWidgets.forEach(widget -> remove(widget.getId()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void rebuild(final Collection<Widget> widgets) {
+        final long[] ids = new long[widgets.size()];
+        final long[] boxes = new long[widgets.size() * 4];
+        int count = 0;
+        for (Widget widget : widgets) {
+            ids[count] = widget.getId();
+            setBox(boxes, count++, widget);
+        }
+
+        lock.writeLock().lock();
+        try {
+            load(ids, boxes, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void search(final Mode mode, final int left, final int bottom, final int right, final int top,
+            final int skip, final int limit, final LongConsumer idConsumer) {
+        if (limit <= 0) {
+            return;
+        }
+
+        long[] ids = new long[16];
+        int count = 0;
+
+        lock.readLock().lock();
+        try {
+            int[] stack = new int[levels[root] * MAX_ENTRIES + 1];
+            int stackSize = 0;
+            stack[stackSize++] = root;
+            int skipped = 0;
+
+            traversal:
+            while (stackSize > 0) {
+                final int node = stack[--stackSize];
+                final int first = node * STRIDE;
+                final int end = first + counts[node];
+                if (levels[node] == 0) {
+                    for (int slot = first; slot < end; slot++) {
+                        if (!matches(mode, slot, left, bottom, right, top)) {
+                            continue;
+                        }
+                        if (skipped < skip) {
+                            skipped++;
+                            continue;
+                        }
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = refs[slot];
+                        if (count == limit) {
+                            break traversal;
+                        }
+                    }
+                } else {
+                    // children are pushed in reverse, so they are visited in slot order
+                    for (int slot = end - 1; slot >= first; slot--) {
+                        if (minXs[slot] <= right && maxXs[slot] >= left && minYs[slot] <= top && maxYs[slot] >= bottom) {
+                            if (stackSize == stack.length) {
+                                stack = Arrays.copyOf(stack, stackSize * 2);
+                            }
+                            stack[stackSize++] = (int) refs[slot];
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (int i = 0; i < count; i++) {
+            idConsumer.accept(ids[i]);
+        }
+    }
+
+    @Override
+    public void searchAll(final Mode mode, final List<Area> areas, final AreaMatchConsumer consumer) {
+        if (areas.size() > MAX_AREAS) {
+            throw new IllegalArgumentException("At most " + MAX_AREAS + " areas are searched at once");
+        }
+        if (areas.isEmpty()) {
+            return;
+        }
+
+        final int[] lefts = new int[areas.size()];
+        final int[] bottoms = new int[areas.size()];
+        final int[] rights = new int[areas.size()];
+        final int[] tops = new int[areas.size()];
+        for (int i = 0; i < areas.size(); i++) {
+            lefts[i] = areas.get(i).getLeft();
+            bottoms[i] = areas.get(i).getBottom();
+            rights[i] = areas.get(i).getRight();
+            tops[i] = areas.get(i).getTop();
+        }
+
+        // found ids with the areas they match
+        long[] ids = new long[16];
+        long[] idAreas = new long[16];
+        int count = 0;
+
+        lock.readLock().lock();
+        try {
+            // a node is pushed with the areas its widgets are checked against and the areas all of its widgets
+            // match (widgets within an area intersect it too), so subtrees are not checked against other areas
+            int[] stack = new int[levels[root] * MAX_ENTRIES + 1];
+            long[] stackCheckedAreas = new long[stack.length];
+            long[] stackMatchedAreas = new long[stack.length];
+            int stackSize = 0;
+            stack[stackSize] = root;
+            stackCheckedAreas[stackSize] = -1L >>> (Long.SIZE - areas.size());
+            stackMatchedAreas[stackSize++] = 0;
+
+            while (stackSize > 0) {
+                stackSize--;
+                final int node = stack[stackSize];
+                final long checkedAreas = stackCheckedAreas[stackSize];
+                final long matchedAreas = stackMatchedAreas[stackSize];
+                final int first = node * STRIDE;
+                final int end = first + counts[node];
+                if (levels[node] == 0) {
+                    for (int slot = first; slot < end; slot++) {
+                        long slotAreas = matchedAreas;
+                        for (long bits = checkedAreas; bits != 0; bits &= bits - 1) {
+                            final int i = Long.numberOfTrailingZeros(bits);
+                            if (matches(mode, slot, lefts[i], bottoms[i], rights[i], tops[i])) {
+                                slotAreas |= 1L << i;
+                            }
+                        }
+                        if (slotAreas != 0) {
+                            if (count == ids.length) {
+                                ids = Arrays.copyOf(ids, count * 2);
+                                idAreas = Arrays.copyOf(idAreas, count * 2);
+                            }
+                            ids[count] = refs[slot];
+                            idAreas[count++] = slotAreas;
+                        }
+                    }
+                } else {
+                    // children are pushed in reverse, so they are visited in slot order
+                    for (int slot = end - 1; slot >= first; slot--) {
+                        long childCheckedAreas = 0;
+                        long childMatchedAreas = matchedAreas;
+                        for (long bits = checkedAreas; bits != 0; bits &= bits - 1) {
+                            final int i = Long.numberOfTrailingZeros(bits);
+                            if (minXs[slot] >= lefts[i] && maxXs[slot] <= rights[i]
+                                    && minYs[slot] >= bottoms[i] && maxYs[slot] <= tops[i]) {
+                                childMatchedAreas |= 1L << i;
+                            } else if (minXs[slot] <= rights[i] && maxXs[slot] >= lefts[i]
+                                    && minYs[slot] <= tops[i] && maxYs[slot] >= bottoms[i]) {
+                                childCheckedAreas |= 1L << i;
+                            }
+                        }
+                        if (childCheckedAreas != 0 || childMatchedAreas != 0) {
+                            if (stackSize == stack.length) {
+                                stack = Arrays.copyOf(stack, stackSize * 2);
+                                stackCheckedAreas = Arrays.copyOf(stackCheckedAreas, stackSize * 2);
+                                stackMatchedAreas = Arrays.copyOf(stackMatchedAreas, stackSize * 2);
+                            }
+                            stack[stackSize] = (int) refs[slot];
+                            stackCheckedAreas[stackSize] = childCheckedAreas;
+                            stackMatchedAreas[stackSize++] = childMatchedAreas;
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (int i = 0; i < count; i++) {
+            consumer.accept(ids[i], idAreas[i]);
+        }
+    }
+
+    // widget boxes end at the widget edge, so intersecting ones overlap the area by more than its border
+    private boolean matches(final Mode mode, final int slot,
+            final int left, final int bottom, final int right, final int top) {
+        if (mode == Mode.INTERSECTS) {
+            return minXs[slot] < right && maxXs[slot] > left && minYs[slot] < top && maxYs[slot] > bottom;
+        }
+        return minXs[slot] >= left && maxXs[slot] <= right && minYs[slot] >= bottom && maxYs[slot] <= top;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return leaves.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int height() {
+        lock.readLock().lock();
+        try {
+            return levels[root] + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(final Widget widget) {
+        final long id = widget.getId();
+        final int minX = widget.getX();
+        final int minY = widget.getY();
+        final long maxX = (long) minX + widget.getWidth();
+        final long maxY = (long) minY + widget.getHeight();
+
+        final int leaf = leaves.get(id);
+        if (leaf != LongIntHashMap.NO_VALUE) {
+            final int slot = slotOf(leaf, id);
+            if (minXs[slot] == minX && minYs[slot] == minY && maxXs[slot] == maxX && maxYs[slot] == maxY) {
+                // e.g. only z-index is changed
+                return;
+            }
+            removeSlot(leaf, slot);
+            condense(leaf);
+        }
+        insert(id, minX, minY, maxX, maxY, 0);
+        reinsertOrphans();
+        shortenRoot();
+    }
+
+    private void remove(final long id) {
+        final int leaf = leaves.get(id);
+        if (leaf == LongIntHashMap.NO_VALUE) {
+            return;
+        }
+        leaves.remove(id);
+        removeSlot(leaf, slotOf(leaf, id));
+        condense(leaf);
+        reinsertOrphans();
+        shortenRoot();
+    }
+
+    // adds a widget id to a leaf (level 0) or a child node to an inner node of the level
+    private void insert(final long ref, final int minX, final int minY, final long maxX, final long maxY,
+            final int level) {
+        int node = root;
+        while (levels[node] > level) {
+            node = (int) refs[chooseSlot(node, minX, minY, maxX, maxY)];
+        }
+        addSlot(node, minX, minY, maxX, maxY, ref);
+        if (level == 0) {
+            leaves.put(ref, node);
+        } else {
+            parents[(int) ref] = node;
+        }
+        adjust(node, minX, minY, maxX, maxY);
+    }
+
+    // slot of the child needing the least enlargement to include the box, the smaller one on ties
+    private int chooseSlot(final int node, final int minX, final int minY, final long maxX, final long maxY) {
+        int bestSlot = NO_NODE;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int slot = node * STRIDE; slot < node * STRIDE + counts[node]; slot++) {
+            final double area = area(minXs[slot], minYs[slot], maxXs[slot], maxYs[slot]);
+            final double enlargement = area(Math.min(minXs[slot], minX), Math.min(minYs[slot], minY),
+                    Math.max(maxXs[slot], maxX), Math.max(maxYs[slot], maxY)) - area;
+            if (enlargement < bestEnlargement || enlargement == bestEnlargement && area < bestArea) {
+                bestSlot = slot;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return bestSlot;
+    }
+
+    // splits the node the box is added to if it overflows and propagates boxes and splits up to the root
+    private void adjust(int node, final int minX, final int minY, final long maxX, final long maxY) {
+        while (true) {
+            final int sibling = counts[node] > MAX_ENTRIES ? split(node) : NO_NODE;
+            if (node == root) {
+                if (sibling != NO_NODE) {
+                    root = allocateNode(levels[node] + 1);
+                    addChild(root, node);
+                    addChild(root, sibling);
+                }
+                return;
+            }
+
+            final int parent = parents[node];
+            final int slot = slotOf(parent, node);
+            if (sibling == NO_NODE && minXs[slot] <= minX && minYs[slot] <= minY
+                    && maxXs[slot] >= maxX && maxYs[slot] >= maxY) {
+                // the box of the node is not changed, so neither are the boxes above
+                return;
+            }
+            setBoxOfChild(slot, node);
+            if (sibling != NO_NODE) {
+                addChild(parent, sibling);
+            }
+            node = parent;
+        }
+    }
+
+    // moves part of entries of the overflowing node to a new sibling, returns the sibling
+    private int split(final int node) {
+        final int count = counts[node];
+        final int first = node * STRIDE;
+        final long[] boxes = new long[count * 4];
+        final long[] entryRefs = new long[count];
+        for (int i = 0; i < count; i++) {
+            setBox(boxes, i, minXs[first + i], minYs[first + i], maxXs[first + i], maxYs[first + i]);
+            entryRefs[i] = refs[first + i];
+        }
+
+        // seeds are the pair wasting the most area when put together
+        int seedA = 0;
+        int seedB = 1;
+        double worstWaste = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                final double waste = area(Math.min(boxes[i * 4], boxes[j * 4]),
+                        Math.min(boxes[i * 4 + 1], boxes[j * 4 + 1]),
+                        Math.max(boxes[i * 4 + 2], boxes[j * 4 + 2]),
+                        Math.max(boxes[i * 4 + 3], boxes[j * 4 + 3])) - area(boxes, i) - area(boxes, j);
+                if (waste > worstWaste) {
+                    worstWaste = waste;
+                    seedA = i;
+                    seedB = j;
+                }
+            }
+        }
+
+        final int sibling = allocateNode(levels[node]);
+        counts[node] = 0;
+        final long[] groupBoxes = new long[8];
+        final int[] groups = {node, sibling};
+        moveEntry(boxes, entryRefs, seedA, node);
+        setBox(groupBoxes, 0, boxes[seedA * 4], boxes[seedA * 4 + 1], boxes[seedA * 4 + 2], boxes[seedA * 4 + 3]);
+        moveEntry(boxes, entryRefs, seedB, sibling);
+        setBox(groupBoxes, 1, boxes[seedB * 4], boxes[seedB * 4 + 1], boxes[seedB * 4 + 2], boxes[seedB * 4 + 3]);
+
+        int remaining = count - 2;
+        for (int i = 0; i < count; i++) {
+            if (i == seedA || i == seedB) {
+                continue;
+            }
+
+            final int group;
+            if (counts[node] + remaining == MIN_ENTRIES) {
+                group = 0;
+            } else if (counts[sibling] + remaining == MIN_ENTRIES) {
+                group = 1;
+            } else {
+                final double enlargementA = enlargement(groupBoxes, 0, boxes, i);
+                final double enlargementB = enlargement(groupBoxes, 1, boxes, i);
+                if (enlargementA != enlargementB) {
+                    group = enlargementA < enlargementB ? 0 : 1;
+                } else {
+                    group = counts[node] <= counts[sibling] ? 0 : 1;
+                }
+            }
+
+            moveEntry(boxes, entryRefs, i, groups[group]);
+            setBox(groupBoxes, group, Math.min(groupBoxes[group * 4], boxes[i * 4]),
+                    Math.min(groupBoxes[group * 4 + 1], boxes[i * 4 + 1]),
+                    Math.max(groupBoxes[group * 4 + 2], boxes[i * 4 + 2]),
+                    Math.max(groupBoxes[group * 4 + 3], boxes[i * 4 + 3]));
+            remaining--;
+        }
+        return sibling;
+    }
+
+    private void moveEntry(final long[] boxes, final long[] entryRefs, final int entry, final int node) {
+        addSlot(node, (int) boxes[entry * 4], (int) boxes[entry * 4 + 1], boxes[entry * 4 + 2], boxes[entry * 4 + 3],
+                entryRefs[entry]);
+        if (levels[node] == 0) {
+            leaves.put(entryRefs[entry], node);
+        } else {
+            parents[(int) entryRefs[entry]] = node;
+        }
+    }
+
+    // dissolves underfull nodes from the node up to the root, keeping their entries as orphans, and shrinks boxes;
+    // entries of inner nodes are whole subtrees, so only the entries of dissolved nodes are reinserted
+    private void condense(final int leaf) {
+        int node = leaf;
+        while (node != root) {
+            final int parent = parents[node];
+            final int slot = slotOf(parent, node);
+            if (counts[node] < MIN_ENTRIES) {
+                removeSlot(parent, slot);
+                dissolve(node);
+            } else {
+                setBoxOfChild(slot, node);
+            }
+            node = parent;
+        }
+    }
+
+    private void dissolve(final int node) {
+        for (int slot = node * STRIDE; slot < node * STRIDE + counts[node]; slot++) {
+            if (levels[node] == 0) {
+                leaves.remove(refs[slot]);
+            }
+            if (orphanCount == orphanRefs.length) {
+                orphanRefs = Arrays.copyOf(orphanRefs, orphanCount * 2);
+                orphanBoxes = Arrays.copyOf(orphanBoxes, orphanCount * 8);
+                orphanLevels = Arrays.copyOf(orphanLevels, orphanCount * 2);
+            }
+            orphanRefs[orphanCount] = refs[slot];
+            orphanLevels[orphanCount] = levels[node];
+            setBox(orphanBoxes, orphanCount++, minXs[slot], minYs[slot], maxXs[slot], maxYs[slot]);
+        }
+        freeNode(node);
+    }
+
+    // the root is shortened only afterwards, so it stays above the levels of all orphans
+    private void reinsertOrphans() {
+        while (orphanCount > 0) {
+            final int orphan = --orphanCount;
+            insert(orphanRefs[orphan], (int) orphanBoxes[orphan * 4], (int) orphanBoxes[orphan * 4 + 1],
+                    orphanBoxes[orphan * 4 + 2], orphanBoxes[orphan * 4 + 3], orphanLevels[orphan]);
+        }
+    }
+
+    private void shortenRoot() {
+        while (levels[root] > 0 && counts[root] == 1) {
+            final int child = (int) refs[root * STRIDE];
+            freeNode(root);
+            root = child;
+            parents[root] = NO_NODE;
+        }
+        if (counts[root] == 0) {
+            levels[root] = 0;
+        }
+    }
+
+    // STR bulk loading: entries are sorted by x into vertical slices, every slice is sorted by y and packed into nodes,
+    // the nodes are packed the same way level by level
+    private void load(long[] ids, long[] boxes, int count) {
+        // packed nodes are full except the last one of every slice, inserts grow arrays later
+        clear(count / (MAX_ENTRIES - 1) + INITIAL_NODES);
+        if (count == 0) {
+            root = allocateNode(0);
+            return;
+        }
+
+        int level = 0;
+        while (true) {
+            final int nodesOfLevel = (count + MAX_ENTRIES - 1) / MAX_ENTRIES;
+            final int sliceSize = (int) Math.ceil(Math.sqrt(nodesOfLevel)) * MAX_ENTRIES;
+            final int[] order = sortedByCenter(boxes, 0, count, null, 0);
+
+            final long[] nodeRefs = new long[nodesOfLevel];
+            final long[] nodeBoxes = new long[nodesOfLevel * 4];
+            int nodes = 0;
+            for (int sliceStart = 0; sliceStart < count; sliceStart += sliceSize) {
+                final int sliceEnd = Math.min(count, sliceStart + sliceSize);
+                final int[] slice = sortedByCenter(boxes, 1, sliceEnd - sliceStart, order, sliceStart);
+                for (int runStart = 0; runStart < slice.length; runStart += MAX_ENTRIES) {
+                    final int node = allocateNode(level);
+                    for (int i = runStart; i < Math.min(slice.length, runStart + MAX_ENTRIES); i++) {
+                        moveEntry(boxes, ids, slice[i], node);
+                    }
+                    nodeRefs[nodes] = node;
+                    setBoxOfNode(nodeBoxes, nodes++, node);
+                }
+            }
+
+            if (nodes == 1) {
+                root = (int) nodeRefs[0];
+                parents[root] = NO_NODE;
+                return;
+            }
+            ids = nodeRefs;
+            boxes = nodeBoxes;
+            count = nodes;
+            level++;
+        }
+    }
+
+    // indexes of entries (all or order[from .. from + count) when order is set) sorted by the center on the axis
+    private static int[] sortedByCenter(final long[] boxes, final int axis, final int count,
+            final int[] order, final int from) {
+        final long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            final int entry = order != null ? order[from + i] : i;
+            // centers beyond Integer.MAX_VALUE are sorted together, which only affects packing, not search results
+            final long center = Math.min((boxes[entry * 4 + axis] + boxes[entry * 4 + 2 + axis]) >> 1,
+                    Integer.MAX_VALUE);
+            keys[i] = center << 32 | entry;
+        }
+        Arrays.sort(keys);
+
+        final int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    private void clear(final int nodeCapacity) {
+        minXs = new int[nodeCapacity * STRIDE];
+        minYs = new int[nodeCapacity * STRIDE];
+        maxXs = new long[nodeCapacity * STRIDE];
+        maxYs = new long[nodeCapacity * STRIDE];
+        refs = new long[nodeCapacity * STRIDE];
+        counts = new int[nodeCapacity];
+        levels = new int[nodeCapacity];
+        parents = new int[nodeCapacity];
+        nodeCount = 0;
+        freeNodeCount = 0;
+        leaves = new LongIntHashMap();
+    }
+
+    private int allocateNode(final int level) {
+        final int node;
+        if (freeNodeCount > 0) {
+            node = freeNodes[--freeNodeCount];
+        } else {
+            if (nodeCount == counts.length) {
+                final int capacity = nodeCount * 2;
+                minXs = Arrays.copyOf(minXs, capacity * STRIDE);
+                minYs = Arrays.copyOf(minYs, capacity * STRIDE);
+                maxXs = Arrays.copyOf(maxXs, capacity * STRIDE);
+                maxYs = Arrays.copyOf(maxYs, capacity * STRIDE);
+                refs = Arrays.copyOf(refs, capacity * STRIDE);
+                counts = Arrays.copyOf(counts, capacity);
+                levels = Arrays.copyOf(levels, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+            }
+            node = nodeCount++;
+        }
+        counts[node] = 0;
+        levels[node] = level;
+        parents[node] = NO_NODE;
+        return node;
+    }
+
+    private void freeNode(final int node) {
+        // freed nodes are marked by a negative count
+        counts[node] = -1;
+        if (freeNodeCount == freeNodes.length) {
+            freeNodes = Arrays.copyOf(freeNodes, freeNodeCount * 2);
+        }
+        freeNodes[freeNodeCount++] = node;
+    }
+
+    private boolean isLive(final int node) {
+        return counts[node] >= 0;
+    }
+
+    private int addSlot(final int node, final int minX, final int minY, final long maxX, final long maxY,
+            final long ref) {
+        final int slot = node * STRIDE + counts[node]++;
+        minXs[slot] = minX;
+        minYs[slot] = minY;
+        maxXs[slot] = maxX;
+        maxYs[slot] = maxY;
+        refs[slot] = ref;
+        return slot;
+    }
+
+    private void addChild(final int parent, final int child) {
+        final int slot = addSlot(parent, 0, 0, 0, 0, child);
+        setBoxOfChild(slot, child);
+        parents[child] = parent;
+    }
+
+    // the last entry takes the place of the removed one
+    private void removeSlot(final int node, final int slot) {
+        final int last = node * STRIDE + --counts[node];
+        minXs[slot] = minXs[last];
+        minYs[slot] = minYs[last];
+        maxXs[slot] = maxXs[last];
+        maxYs[slot] = maxYs[last];
+        refs[slot] = refs[last];
+    }
+
+    private int slotOf(final int node, final long ref) {
+        int slot = node * STRIDE;
+        while (refs[slot] != ref) {
+            slot++;
+        }
+        return slot;
+    }
+
+    private void setBoxOfChild(final int slot, final int child) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        long maxX = Integer.MIN_VALUE;
+        long maxY = Integer.MIN_VALUE;
+        for (int childSlot = child * STRIDE; childSlot < child * STRIDE + counts[child]; childSlot++) {
+            minX = Math.min(minX, minXs[childSlot]);
+            minY = Math.min(minY, minYs[childSlot]);
+            maxX = Math.max(maxX, maxXs[childSlot]);
+            maxY = Math.max(maxY, maxYs[childSlot]);
+        }
+        minXs[slot] = minX;
+        minYs[slot] = minY;
+        maxXs[slot] = maxX;
+        maxYs[slot] = maxY;
+    }
+
+    private void setBoxOfNode(final long[] boxes, final int index, final int node) {
+        setBox(boxes, index, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        for (int slot = node * STRIDE; slot < node * STRIDE + counts[node]; slot++) {
+            setBox(boxes, index, Math.min(boxes[index * 4], minXs[slot]), Math.min(boxes[index * 4 + 1], minYs[slot]),
+                    Math.max(boxes[index * 4 + 2], maxXs[slot]), Math.max(boxes[index * 4 + 3], maxYs[slot]));
+        }
+    }
+
+    private static void setBox(final long[] boxes, final int index, final Widget widget) {
+        setBox(boxes, index, widget.getX(), widget.getY(), (long) widget.getX() + widget.getWidth(),
+                (long) widget.getY() + widget.getHeight());
+    }
+
+    private static void setBox(final long[] boxes, final int index,
+            final long minX, final long minY, final long maxX, final long maxY) {
+        boxes[index * 4] = minX;
+        boxes[index * 4 + 1] = minY;
+        boxes[index * 4 + 2] = maxX;
+        boxes[index * 4 + 3] = maxY;
+    }
+
+    private static double enlargement(final long[] groupBoxes, final int group, final long[] boxes, final int entry) {
+        return area(Math.min(groupBoxes[group * 4], boxes[entry * 4]),
+                Math.min(groupBoxes[group * 4 + 1], boxes[entry * 4 + 1]),
+                Math.max(groupBoxes[group * 4 + 2], boxes[entry * 4 + 2]),
+                Math.max(groupBoxes[group * 4 + 3], boxes[entry * 4 + 3])) - area(groupBoxes, group);
+    }
+
+    private static double area(final long[] boxes, final int index) {
+        return area(boxes[index * 4], boxes[index * 4 + 1], boxes[index * 4 + 2], boxes[index * 4 + 3]);
+    }
+
+    // computed in doubles, as products of int ranges overflow long
+    private static double area(final long minX, final long minY, final long maxX, final long maxY) {
+        return (double) (maxX - minX) * (maxY - minY);
+    }
+}
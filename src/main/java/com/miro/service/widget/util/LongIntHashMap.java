@@ -0,0 +1,113 @@
+package com.miro.service.widget.util;
+
+/**
+ * Open addressing hash map of long keys to int values with linear probing, keys and values are kept
+ * in primitive arrays. Key 0 is reserved for empty cells. Not thread safe.
+ */
+public class LongIntHashMap {
+    public static final int NO_VALUE = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long EMPTY = 0;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of the key or NO_VALUE if the key is absent.
+     */
+    public int get(final long key) {
+        final int index = indexOf(key);
+        return keys[index] == key && key != EMPTY ? values[index] : NO_VALUE;
+    }
+
+    /**
+     * Returns the previous value of the key or NO_VALUE if the key was absent.
+     */
+    public int put(final long key, final int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key " + EMPTY + " is not supported");
+        }
+
+        final int index = indexOf(key);
+        if (keys[index] == key) {
+            final int previousValue = values[index];
+            values[index] = value;
+            return previousValue;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        // load factor is kept at most 1/2, so probe sequences stay short
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Returns the removed value of the key or NO_VALUE if the key was absent.
+     */
+    public int remove(final long key) {
+        int index = indexOf(key);
+        if (keys[index] != key || key == EMPTY) {
+            return NO_VALUE;
+        }
+
+        final int removedValue = values[index];
+        // following keys of the probe sequence are moved back to the freed cell, so lookups don't need tombstones
+        final int mask = keys.length - 1;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == EMPTY) {
+                break;
+            }
+            final int home = hash(keys[next]) & mask;
+            // the key may take the freed cell if its home isn't cyclically between the freed cell and its cell
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                index = next;
+            }
+        }
+        keys[index] = EMPTY;
+        size--;
+        return removedValue;
+    }
+
+    // cell of the key or the empty cell the key would take
+    private int indexOf(final long key) {
+        final int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                final int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(final long key) {
+        final long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
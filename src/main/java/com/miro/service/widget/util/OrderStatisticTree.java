@@ -0,0 +1,229 @@
+package com.miro.service.widget.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Treap keyed by long with subtree sizes, so that besides ordinary lookups
+ * the rank of a key and the key at a given index are found in O(log n).
+ * Not thread safe.
+ */
+public class OrderStatisticTree<V> {
+    private static class Node<V> {
+        private long key;
+        private V value;
+        private final int priority;
+        private int size = 1;
+        private Node<V> left;
+        private Node<V> right;
+
+        Node(final long key, final V value, final int priority) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Node<V> root;
+
+    public int size() {
+        return size(root);
+    }
+
+    public void put(final long key, final V value) {
+        final Node<V> node = find(key);
+        if (node != null) {
+            node.value = value;
+        } else {
+            root = insert(root, new Node<>(key, value, random.nextInt()));
+        }
+    }
+
+    public boolean remove(final long key) {
+        final int size = size();
+        root = remove(root, key);
+        return size != size();
+    }
+
+    /**
+     * Returns the number of keys less than the given one.
+     */
+    public int rank(final long key) {
+        int rank = 0;
+        Node<V> node = root;
+        while (node != null) {
+            if (key <= node.key) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    public long keyAt(final int index) {
+        return nodeAt(index).key;
+    }
+
+    public V valueAt(final int index) {
+        return nodeAt(index).value;
+    }
+
+    /**
+     * Returns at most count values in key order starting from the given index.
+     */
+    public List<V> values(final int fromIndex, final int count) {
+        final List<V> values = new ArrayList<>();
+        final int toIndex = (int) Math.min((long) fromIndex + count, size());
+        collect(root, fromIndex, toIndex, values);
+        return values;
+    }
+
+    /**
+     * Replaces keys by step, 2 * step, ... preserving their order, the consumer is notified about every new key.
+     */
+    public void renumber(final long step, final ObjLongConsumer<V> consumer) {
+        final Deque<Node<V>> stack = new ArrayDeque<>();
+        long key = 0;
+        Node<V> node = root;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            key += step;
+            node.key = key;
+            consumer.accept(node.value, key);
+            node = node.right;
+        }
+    }
+
+    private Node<V> find(final long key) {
+        Node<V> node = root;
+        while (node != null && node.key != key) {
+            node = key < node.key ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private Node<V> nodeAt(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+
+        int relativeIndex = index;
+        Node<V> node = root;
+        while (true) {
+            final int leftSize = size(node.left);
+            if (relativeIndex < leftSize) {
+                node = node.left;
+            } else if (relativeIndex == leftSize) {
+                return node;
+            } else {
+                relativeIndex -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private void collect(final Node<V> node, final int fromIndex, final int toIndex, final List<V> values) {
+        if (node == null || fromIndex >= toIndex) {
+            return;
+        }
+
+        final int leftSize = size(node.left);
+        if (fromIndex < leftSize) {
+            collect(node.left, fromIndex, Math.min(toIndex, leftSize), values);
+        }
+        if (fromIndex <= leftSize && leftSize < toIndex) {
+            values.add(node.value);
+        }
+        if (toIndex > leftSize + 1) {
+            collect(node.right, Math.max(0, fromIndex - leftSize - 1), toIndex - leftSize - 1, values);
+        }
+    }
+
+    private Node<V> insert(final Node<V> node, final Node<V> newNode) {
+        if (node == null) {
+            return newNode;
+        }
+
+        if (newNode.priority > node.priority) {
+            split(node, newNode.key, newNode);
+            return update(newNode);
+        }
+
+        if (newNode.key < node.key) {
+            node.left = insert(node.left, newNode);
+        } else {
+            node.right = insert(node.right, newNode);
+        }
+        return update(node);
+    }
+
+    private Node<V> remove(final Node<V> node, final long key) {
+        if (node == null) {
+            return null;
+        }
+
+        if (key < node.key) {
+            node.left = remove(node.left, key);
+        } else if (key > node.key) {
+            node.right = remove(node.right, key);
+        } else {
+            return merge(node.left, node.right);
+        }
+        return update(node);
+    }
+
+    // splits node's subtree by key into parent's left (less than key) and right (greater than key) subtrees
+    private void split(final Node<V> node, final long key, final Node<V> parent) {
+        if (node == null) {
+            parent.left = null;
+            parent.right = null;
+            return;
+        }
+
+        if (node.key < key) {
+            split(node.right, key, parent);
+            node.right = parent.left;
+            parent.left = update(node);
+        } else {
+            split(node.left, key, parent);
+            node.left = parent.right;
+            parent.right = update(node);
+        }
+    }
+
+    private Node<V> merge(final Node<V> left, final Node<V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+
+    private static <V> Node<V> update(final Node<V> node) {
+        node.size = size(node.left) + size(node.right) + 1;
+        return node;
+    }
+
+    private static int size(final Node<?> node) {
+        return node != null ? node.size : 0;
+    }
+}
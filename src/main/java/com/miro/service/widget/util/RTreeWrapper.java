@@ -1,55 +1,336 @@
 package com.miro.service.widget.util;
 
 import com.github.davidmoten.guavamini.annotations.VisibleForTesting;
+import com.github.davidmoten.rtree.Entries;
 import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.Leaf;
+import com.github.davidmoten.rtree.Node;
+import com.github.davidmoten.rtree.NonLeaf;
 import com.github.davidmoten.rtree.RTree;
 import com.github.davidmoten.rtree.geometry.Geometries;
 import com.github.davidmoten.rtree.geometry.Geometry;
 import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.miro.service.widget.model.Area;
 import com.miro.service.widget.model.Widget;
-import rx.Observable;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
-public class RTreeWrapper {
+public class RTreeWrapper implements SpatialIndex {
+    // tree is immutable, readers use the latest published version without locking,
+    // writers publish exactly one new version per mutation
     @VisibleForTesting
     volatile RTree<Widget, Geometry> tree = RTree.create();
 
+    // tree entries by widget id, accessed by writers only
     @VisibleForTesting
-    final Map<Long, Geometry> geometryMap = new HashMap<>();
+    final Map<Long, Entry<Widget, Geometry>> entryMap = new HashMap<>();
 
+    @Override
     public synchronized void add(final Widget widget) {
-        final Rectangle geometry = Geometries.rectangle(widget.getX(), widget.getY(),
-                widget.getX() + widget.getWidth() - 1, widget.getY() + widget.getHeight() - 1);
-        tree = tree.add(widget, geometry);
-        geometryMap.put(widget.getId(), geometry);
+        tree = insert(tree, widget);
     }
 
+    @Override
     public synchronized void update(final Widget widget) {
-        delete(widget);
-        add(widget);
+        tree = insert(remove(tree, widget.getId()), widget);
     }
 
+    @Override
     public synchronized void delete(final Widget widget) {
-        if (geometryMap.containsKey(widget.getId())) {
-            tree = tree.delete(widget, geometryMap.get(widget.getId()));
-            geometryMap.remove(widget.getId());
+        tree = remove(tree, widget.getId());
+    }
+
+    /**
+     * Adds or updates all widgets, publishing a single new tree version.
+     */
+    @Override
+    public synchronized void addAll(final Collection<Widget> widgets) {
+        if (widgets.size() < tree.size()) {
+            updateAll(widgets, List.of());
+        } else {
+            // batch is comparable with the tree, so packing all entries from scratch is cheaper
+            widgets.forEach(widget -> entryMap.put(widget.getId(), entry(widget)));
+            tree = RTree.create(new ArrayList<>(entryMap.values()));
         }
     }
 
-    public List<Widget> search(final int left, final int bottom, final int right, final int top) {
-        final Rectangle area = Geometries.rectangle(left, bottom, right, top);
-        final Observable<Entry<Widget, Geometry>> results = tree.search(area);
+    /**
+     * Adds or updates widgets and deletes deletedWidgets one by one, publishing a single new tree version.
+     */
+    @Override
+    public synchronized void updateAll(final Collection<Widget> widgets, final Collection<Widget> deletedWidgets) {
+        RTree<Widget, Geometry> newTree = tree;
+        for (Widget widget : widgets) {
+            newTree = insert(remove(newTree, widget.getId()), widget);
+        }
+        for (Widget widget : deletedWidgets) {
+            newTree = remove(newTree, widget.getId());
+        }
+        tree = newTree;
+    }
 
-        final List<Widget> result = new ArrayList<>();
-        results.map(Entry::value)
-                .filter(widget -> area.contains(widget.getX(), widget.getY())
-                        && area.contains(widget.getX() + widget.getWidth(), widget.getY() + widget.getHeight()))
-                .subscribe(result::add);
+    /**
+     * Replaces the content of the tree with the given widgets using STR bulk loading.
+     */
+    @Override
+    public synchronized void rebuild(final Collection<Widget> widgets) {
+        entryMap.clear();
+        widgets.forEach(widget -> entryMap.put(widget.getId(), entry(widget)));
+        tree = RTree.create(new ArrayList<>(entryMap.values()));
+    }
 
+    public List<Widget> search(final int left, final int bottom, final int right, final int top) {
+        final List<Widget> result = new ArrayList<>();
+        searchWidgets(left, bottom, right, top, 0, Integer.MAX_VALUE, result::add);
         return result;
     }
+
+    @Override
+    public void search(final Mode mode, final int left, final int bottom, final int right, final int top,
+            final int skip, final int limit, final LongConsumer idConsumer) {
+        searchWidgets(mode, left, bottom, right, top, skip, limit, widget -> idConsumer.accept(widget.getId()));
+    }
+
+    /**
+     * Passes widgets within the area to the consumer while the tree is traversed, the first skip widgets are omitted.
+     * Traversal stops once limit widgets are passed.
+     */
+    public void searchWidgets(final int left, final int bottom, final int right, final int top,
+            final int skip, final int limit, final Consumer<Widget> consumer) {
+        searchWidgets(Mode.WITHIN, left, bottom, right, top, skip, limit, consumer);
+    }
+
+    /**
+     * Passes widgets matching the area in the given mode to the consumer while the tree is traversed,
+     * the first skip widgets are omitted. Traversal stops once limit widgets are passed.
+     */
+    public void searchWidgets(final Mode mode, final int left, final int bottom, final int right, final int top,
+            final int skip, final int limit, final Consumer<Widget> consumer) {
+        final RTree<Widget, Geometry> currentTree = tree;
+        if (limit > 0 && currentTree.root().isPresent()) {
+            new AreaSearch(mode, left, bottom, right, top, skip, limit, consumer).visit(currentTree.root().get());
+        }
+    }
+
+    @Override
+    public void searchAll(final Mode mode, final List<Area> areas, final AreaMatchConsumer consumer) {
+        if (areas.size() > MAX_AREAS) {
+            throw new IllegalArgumentException("At most " + MAX_AREAS + " areas are searched at once");
+        }
+        final RTree<Widget, Geometry> currentTree = tree;
+        if (!areas.isEmpty() && currentTree.root().isPresent()) {
+            // every area is checked from the root
+            final long allAreas = -1L >>> (Long.SIZE - areas.size());
+            new MultiAreaSearch(mode, areas, consumer).visit(currentTree.root().get(), allAreas, 0);
+        }
+    }
+
+    // traverses the tree directly instead of through the rx pipeline of RTree.search, subtrees lying within the area
+    // are passed whole (widgets within the area intersect it too), the ones that can't hold a matching widget
+    // are pruned; a box holding an intersecting entry intersects the area as well, so pruning is the same in both modes
+    private static class AreaSearch {
+        private final Mode mode;
+        private final int left;
+        private final int bottom;
+        private final int right;
+        private final int top;
+        private final int limit;
+        private final Consumer<Widget> consumer;
+        // boxes of the tree are floats, so they are compared with the area rounded the same way; rounding keeps
+        // the order of coordinates, so a box holding an entry within the area intersects the rounded area
+        // and a box strictly inside the rounded area bounds holds entries within the area only
+        private final float areaLeft;
+        private final float areaBottom;
+        private final float areaRight;
+        private final float areaTop;
+        private final float leftBound;
+        private final float bottomBound;
+        private int skip;
+        private int passed;
+
+        AreaSearch(final Mode mode, final int left, final int bottom, final int right, final int top,
+                final int skip, final int limit, final Consumer<Widget> consumer) {
+            this.mode = mode;
+            this.left = left;
+            this.bottom = bottom;
+            this.right = right;
+            this.top = top;
+            this.skip = skip;
+            this.limit = limit;
+            this.consumer = consumer;
+            areaLeft = left;
+            areaBottom = bottom;
+            areaRight = right;
+            areaTop = top;
+            // entry boxes end one unit before the widget edge, so entries starting after left - 1
+            // and ending before right are within the area
+            leftBound = (float) ((long) left - 1);
+            bottomBound = (float) ((long) bottom - 1);
+        }
+
+        // returns false once limit widgets are passed
+        boolean visit(final Node<Widget, Geometry> node) {
+            final Rectangle mbr = node.geometry().mbr();
+            if (isDisjoint(mbr)) {
+                return true;
+            }
+            return holdsMatchingOnly(mbr) ? passAll(node) : visitChildren(node);
+        }
+
+        // no widget in the box matches the area
+        boolean isDisjoint(final Rectangle mbr) {
+            return mbr.x1() > areaRight || mbr.x2() < areaLeft || mbr.y1() > areaTop || mbr.y2() < areaBottom;
+        }
+
+        // every widget in the box matches the area
+        boolean holdsMatchingOnly(final Rectangle mbr) {
+            return mbr.x1() > leftBound && mbr.x2() < areaRight && mbr.y1() > bottomBound && mbr.y2() < areaTop;
+        }
+
+        private boolean visitChildren(final Node<Widget, Geometry> node) {
+            if (node instanceof NonLeaf) {
+                final NonLeaf<Widget, Geometry> nonLeaf = (NonLeaf<Widget, Geometry>) node;
+                for (int i = 0; i < nonLeaf.count(); i++) {
+                    if (!visit(nonLeaf.child(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            for (Entry<Widget, Geometry> entry : ((Leaf<Widget, Geometry>) node).entries()) {
+                final Widget widget = entry.value();
+                if (matches(widget) && !pass(widget)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(final Widget widget) {
+            final long widgetRight = (long) widget.getX() + widget.getWidth();
+            final long widgetTop = (long) widget.getY() + widget.getHeight();
+            if (mode == Mode.INTERSECTS) {
+                return widget.getX() < right && widgetRight > left && widget.getY() < top && widgetTop > bottom;
+            }
+            return widget.getX() >= left && widgetRight <= right && widget.getY() >= bottom && widgetTop <= top;
+        }
+
+        private boolean passAll(final Node<Widget, Geometry> node) {
+            if (node instanceof NonLeaf) {
+                final NonLeaf<Widget, Geometry> nonLeaf = (NonLeaf<Widget, Geometry>) node;
+                for (int i = 0; i < nonLeaf.count(); i++) {
+                    if (!passAll(nonLeaf.child(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            final List<Entry<Widget, Geometry>> entries = ((Leaf<Widget, Geometry>) node).entries();
+            if (skip >= entries.size()) {
+                skip -= entries.size();
+                return true;
+            }
+            for (Entry<Widget, Geometry> entry : entries) {
+                if (!pass(entry.value())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean pass(final Widget widget) {
+            if (skip > 0) {
+                skip--;
+                return true;
+            }
+            consumer.accept(widget);
+            return ++passed < limit;
+        }
+    }
+
+    // searches several areas in one traversal: a subtree is visited with the areas it may hold matching widgets of
+    // and the areas all of its widgets match, which are not checked; every entry is visited once,
+    // so a widget is passed once with all the areas it matches
+    private static class MultiAreaSearch {
+        // searches of single areas are used for their bounds only
+        private final AreaSearch[] searches;
+        private final AreaMatchConsumer consumer;
+
+        MultiAreaSearch(final Mode mode, final List<Area> areas, final AreaMatchConsumer consumer) {
+            searches = new AreaSearch[areas.size()];
+            for (int i = 0; i < searches.length; i++) {
+                final Area area = areas.get(i);
+                searches[i] = new AreaSearch(mode, area.getLeft(), area.getBottom(), area.getRight(), area.getTop(),
+                        0, 0, null);
+            }
+            this.consumer = consumer;
+        }
+
+        void visit(final Node<Widget, Geometry> node, final long checkedAreas, final long matchedAreas) {
+            final Rectangle mbr = node.geometry().mbr();
+            long nextCheckedAreas = 0;
+            long nextMatchedAreas = matchedAreas;
+            for (long areas = checkedAreas; areas != 0; areas &= areas - 1) {
+                final int i = Long.numberOfTrailingZeros(areas);
+                if (!searches[i].isDisjoint(mbr)) {
+                    if (searches[i].holdsMatchingOnly(mbr)) {
+                        nextMatchedAreas |= 1L << i;
+                    } else {
+                        nextCheckedAreas |= 1L << i;
+                    }
+                }
+            }
+            if (nextCheckedAreas == 0 && nextMatchedAreas == 0) {
+                return;
+            }
+
+            if (node instanceof NonLeaf) {
+                final NonLeaf<Widget, Geometry> nonLeaf = (NonLeaf<Widget, Geometry>) node;
+                for (int i = 0; i < nonLeaf.count(); i++) {
+                    visit(nonLeaf.child(i), nextCheckedAreas, nextMatchedAreas);
+                }
+                return;
+            }
+
+            for (Entry<Widget, Geometry> entry : ((Leaf<Widget, Geometry>) node).entries()) {
+                final Widget widget = entry.value();
+                long entryAreas = nextMatchedAreas;
+                for (long areas = nextCheckedAreas; areas != 0; areas &= areas - 1) {
+                    final int i = Long.numberOfTrailingZeros(areas);
+                    if (searches[i].matches(widget)) {
+                        entryAreas |= 1L << i;
+                    }
+                }
+                if (entryAreas != 0) {
+                    consumer.accept(widget.getId(), entryAreas);
+                }
+            }
+        }
+    }
+
+    private RTree<Widget, Geometry> insert(final RTree<Widget, Geometry> tree, final Widget widget) {
+        final Entry<Widget, Geometry> entry = entry(widget);
+        entryMap.put(widget.getId(), entry);
+        return tree.add(entry);
+    }
+
+    private RTree<Widget, Geometry> remove(final RTree<Widget, Geometry> tree, final long id) {
+        // entry is removed as it was added, the widget passed in may be already modified
+        final Entry<Widget, Geometry> entry = entryMap.remove(id);
+        return entry != null ? tree.delete(entry) : tree;
+    }
+
+    private static Entry<Widget, Geometry> entry(final Widget widget) {
+        final Rectangle geometry = Geometries.rectangle(widget.getX(), widget.getY(),
+                widget.getX() + widget.getWidth() - 1, widget.getY() + widget.getHeight() - 1);
+        return Entries.entry(widget, geometry);
+    }
 }
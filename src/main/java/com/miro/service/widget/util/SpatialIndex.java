@@ -0,0 +1,84 @@
+package com.miro.service.widget.util;
+
+import com.miro.service.widget.model.Area;
+import com.miro.service.widget.model.Widget;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Index of widget rectangles by their position on the board. Writes are serialized by implementations,
+ * searches may run concurrently with them.
+ */
+public interface SpatialIndex {
+    // areas searched at once are tracked in bits of a long
+    int MAX_AREAS = Long.SIZE;
+
+    void add(Widget widget);
+
+    void update(Widget widget);
+
+    void delete(Widget widget);
+
+    /**
+     * Adds or updates all widgets at once.
+     */
+    void addAll(Collection<Widget> widgets);
+
+    /**
+     * Adds or updates widgets and deletes deletedWidgets at once.
+     */
+    void updateAll(Collection<Widget> widgets, Collection<Widget> deletedWidgets);
+
+    /**
+     * Replaces the content of the index with the given widgets.
+     */
+    void rebuild(Collection<Widget> widgets);
+
+    /**
+     * Passes ids of widgets within the area to the consumer, the first skip widgets are omitted.
+     * Search stops once limit widgets are passed.
+     */
+    default void search(int left, int bottom, int right, int top, int skip, int limit, LongConsumer idConsumer) {
+        search(Mode.WITHIN, left, bottom, right, top, skip, limit, idConsumer);
+    }
+
+    /**
+     * Passes ids of widgets matching the area in the given mode to the consumer, the first skip widgets are omitted.
+     * Search stops once limit widgets are passed.
+     */
+    void search(Mode mode, int left, int bottom, int right, int top, int skip, int limit, LongConsumer idConsumer);
+
+    /**
+     * Searches all areas in a single traversal, passing every widget matching any of them in the given mode
+     * to the consumer once. At most MAX_AREAS areas are searched.
+     */
+    void searchAll(Mode mode, List<Area> areas, AreaMatchConsumer consumer);
+
+    @FunctionalInterface
+    interface AreaMatchConsumer {
+        /**
+         * Accepts the id of a widget with the areas it matches, bit i is set for the area at position i.
+         */
+        void accept(long id, long areas);
+    }
+
+    enum Mode {
+        // widget lies within the area, touching its border
+        WITHIN,
+        // widget shares a part of its surface with the area, touching the border only is not enough
+        INTERSECTS
+    }
+
+    enum Engine {
+        // davidmoten R-tree with float coordinates holding whole widgets
+        RTREE,
+        // R-tree with int coordinates in primitive arrays holding widget ids only
+        INT_RTREE;
+
+        public SpatialIndex create() {
+            return this == INT_RTREE ? new IntRTree() : new RTreeWrapper();
+        }
+    }
+}
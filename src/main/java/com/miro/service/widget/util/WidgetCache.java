@@ -0,0 +1,150 @@
+package com.miro.service.widget.util;
+
+import com.miro.service.widget.model.Widget;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of widgets by id, least recently used widgets are evicted once maximumSize is exceeded,
+ * widgets expire ttl after they are put. Widgets are copied on the way in and out, so cached widgets
+ * can't be modified by callers.
+ * <p>
+ * Every invalidation increases the generation, a widget read from the storage is put only if no invalidation
+ * happened since the read started, so a concurrent reader can't put back a widget overwritten by a writer.
+ * <p>
+ * Cached widgets are indexed by z-index, so a shifted run is invalidated without scanning the whole cache.
+ * Z-indexes are unique, so a widget put at the z-index of another cached widget evicts the outdated one.
+ */
+public class WidgetCache {
+    private static class Entry {
+        private final Widget widget;
+        private final long expiresAtNanos;
+
+        Entry(final Widget widget, final long expiresAtNanos) {
+            this.widget = widget;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    private final Map<Long, Entry> entries;
+    private final NavigableMap<Integer, Long> idsByZIndex = new TreeMap<>();
+    private long generation;
+    private long evictionCount;
+
+    public WidgetCache(final int maximumSize, final long ttlMillis) {
+        this(maximumSize, ttlMillis, System::nanoTime);
+    }
+
+    WidgetCache(final int maximumSize, final long ttlMillis, final LongSupplier nanoTime) {
+        this.maximumSize = maximumSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.nanoTime = nanoTime;
+        // access order makes the eldest entry the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Entry> eldest) {
+                if (size() > WidgetCache.this.maximumSize) {
+                    evictionCount++;
+                    unindex(eldest.getValue().widget);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached widget or null if it's absent or expired.
+     */
+    public synchronized Widget get(final long id) {
+        final Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (nanoTime.getAsLong() - entry.expiresAtNanos >= 0) {
+            remove(id);
+            evictionCount++;
+            return null;
+        }
+        return WidgetUtil.copy(entry.widget);
+    }
+
+    /**
+     * Returns the generation to pass to putIfNotInvalidated for a widget about to be read from the storage.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void putIfNotInvalidated(final Widget widget, final long readGeneration) {
+        if (readGeneration == generation) {
+            putEntry(widget);
+        }
+    }
+
+    /**
+     * Replaces the cached widget by the saved one.
+     */
+    public synchronized void put(final Widget widget) {
+        generation++;
+        putEntry(widget);
+    }
+
+    public synchronized void invalidate(final long id) {
+        generation++;
+        remove(id);
+    }
+
+    /**
+     * Invalidates widgets with z-index from fromZIndex to toZIndex inclusive.
+     */
+    public synchronized void invalidateZIndexBetween(final int fromZIndex, final int toZIndex) {
+        generation++;
+        final Map<Integer, Long> range = idsByZIndex.subMap(fromZIndex, true, toZIndex, true);
+        range.values().forEach(entries::remove);
+        range.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of widgets evicted by size or expiration.
+     */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private void putEntry(final Widget widget) {
+        remove(widget.getId());
+        if (widget.getZindex() != null) {
+            final Long outdatedId = idsByZIndex.put(widget.getZindex(), widget.getId());
+            if (outdatedId != null) {
+                entries.remove(outdatedId);
+            }
+        }
+        entries.put(widget.getId(), new Entry(WidgetUtil.copy(widget), nanoTime.getAsLong() + ttlNanos));
+    }
+
+    private void remove(final long id) {
+        final Entry entry = entries.remove(id);
+        if (entry != null) {
+            unindex(entry.widget);
+        }
+    }
+
+    private void unindex(final Widget widget) {
+        if (widget.getZindex() != null) {
+            idsByZIndex.remove(widget.getZindex(), widget.getId());
+        }
+    }
+}
@@ -8,8 +8,17 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class WidgetUtil {
+    // timestamps are stored as nanoseconds of UTC epoch, which covers years 1678..2262
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
     public static WidgetDTO convert(final Widget widget) {
         return new WidgetDTO(widget.getId(),
                 widget.getX(),
@@ -24,6 +33,24 @@ public class WidgetUtil {
         return PageRequest.of(paging.getPage(), paging.getSize(), Sort.by("zindex"));
     }
 
+    public static Widget copy(final Widget widget) {
+        return new Widget(widget.getId(), widget.getX(), widget.getY(), widget.getZindex(),
+                widget.getWidth(), widget.getHeight(), widget.getLastModified());
+    }
+
+    public static long toEpochNanos(final LocalDateTime dateTime) {
+        return dateTime != null
+                ? dateTime.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + dateTime.getNano()
+                : NO_TIMESTAMP;
+    }
+
+    public static LocalDateTime fromEpochNanos(final long nanos) {
+        return nanos != NO_TIMESTAMP
+                ? LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND),
+                        (int) Math.floorMod(nanos, NANOS_PER_SECOND), ZoneOffset.UTC)
+                : null;
+    }
+
     public static Widget update(final Widget sourceWidget, final Widget updateData) {
         return new Widget(sourceWidget.getId(),
                 getNonNullValue(sourceWidget.getX(), updateData.getX()),
@@ -34,6 +61,21 @@ public class WidgetUtil {
                 LocalDateTime.now());
     }
 
+    public static <T> void forEachBatch(final Iterable<T> items, final int batchSize,
+            final Consumer<List<T>> consumer) {
+        List<T> batch = new ArrayList<>(batchSize);
+        for (T item : items) {
+            batch.add(item);
+            if (batch.size() == batchSize) {
+                consumer.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
     private static <T> T getNonNullValue(final T source, final T update) {
         return update != null ? update : source;
     }
@@ -0,0 +1,51 @@
+package com.miro.service.widget.util;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks for z-index ranges. Z-indexes are split into blocks of BLOCK_SIZE neighbouring positions
+ * and blocks are mapped to a fixed number of stripes, so a range takes at most STRIPE_COUNT locks however long it is.
+ * Stripes are always locked in ascending order, so writers locking overlapping ranges can't deadlock.
+ */
+public class ZIndexLocks {
+    static final int STRIPE_COUNT = 64;
+    static final int BLOCK_SIZE = 64;
+
+    private final Lock[] locks = new Lock[STRIPE_COUNT];
+
+    public ZIndexLocks() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Adds stripes covering z-indexes from fromZIndex to toZIndex (inclusive) to the given set.
+     */
+    public static void addStripes(final BitSet stripes, final long fromZIndex, final long toZIndex) {
+        final long fromBlock = Math.floorDiv(fromZIndex, BLOCK_SIZE);
+        final long toBlock = Math.floorDiv(toZIndex, BLOCK_SIZE);
+        if (toBlock - fromBlock + 1 >= STRIPE_COUNT) {
+            stripes.set(0, STRIPE_COUNT);
+            return;
+        }
+
+        for (long block = fromBlock; block <= toBlock; block++) {
+            stripes.set(Math.floorMod(block, STRIPE_COUNT));
+        }
+    }
+
+    public void lock(final BitSet stripes) {
+        for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+            locks[stripe].lock();
+        }
+    }
+
+    public void unlock(final BitSet stripes) {
+        for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+            locks[stripe].unlock();
+        }
+    }
+}
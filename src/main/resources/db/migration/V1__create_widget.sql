@@ -0,0 +1,15 @@
+-- ids are allocated by Hibernate in blocks, the increment matches allocationSize of Widget.id
+create sequence widget_id_sequence start with 1 increment by 50;
+
+create table widget (
+    id            bigint primary key,
+    x             integer,
+    y             integer,
+    zindex        integer,
+    width         integer,
+    height        integer,
+    last_modified timestamp
+);
+
+-- serves the top z-index lookup and z-ordered range scans, no two widgets share a z-index
+create unique index widget_zindex_index on widget (zindex);
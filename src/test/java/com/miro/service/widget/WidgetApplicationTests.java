@@ -114,5 +114,14 @@ class WidgetApplicationTests {
                 .andExpect(jsonPath("$.[0].zindex", is(2)))
                 .andExpect(jsonPath("$.[0].width", is(25)))
                 .andExpect(jsonPath("$.[0].height", is(35)));
+
+        // widget 2 is within the area
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$.[0].id", is(2)))
+                .andExpect(jsonPath("$.[0].zindex", is(2)));
     }
 }
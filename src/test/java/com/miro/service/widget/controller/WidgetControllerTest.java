@@ -1,8 +1,11 @@
 package com.miro.service.widget.controller;
 
+import com.miro.service.widget.exception.WidgetNotFound;
+import com.miro.service.widget.model.Area;
 import com.miro.service.widget.model.Paging;
 import com.miro.service.widget.model.Widget;
 import com.miro.service.widget.service.WidgetService;
+import com.miro.service.widget.util.SpatialIndex;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
@@ -17,15 +20,26 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -44,6 +58,9 @@ public class WidgetControllerTest {
     @Captor
     ArgumentCaptor<Paging> pagingArgumentCaptor;
 
+    @Captor
+    ArgumentCaptor<List<Widget>> widgetListArgumentCaptor;
+
     private static final String WIDGETS_LINK = "/api/v1/widgets";
 
     @Test
@@ -88,13 +105,36 @@ public class WidgetControllerTest {
         assertEquals(4, pagingArgumentCaptor.getValue().getSize());
     }
 
+    @Test
+    void allAfterZIndex() throws Exception {
+        LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
+        Widget widget = new Widget(1L, 10, 20, 5, 25, 35, lastModified);
+
+        List<Widget> widgets = List.of(widget);
+        when(widgetService.findAllAfterZIndex(3, 4)).thenReturn(widgets);
+
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/?page=1&size=4&afterZIndex=3")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(widgets.size())))
+                .andExpect(jsonPath("$.[0].id", is(widget.getId().intValue())));
+
+        verify(widgetService, never()).findAll(any());
+    }
+
     @Test
     void filter() throws Exception {
         LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
         Widget widget = new Widget(1L, 10, 20, 5, 25, 35, lastModified);
 
         List<Widget> widgets = List.of(widget);
-        when(widgetService.findAllInArea(0, 0, 100, 100)).thenReturn(widgets);
+        doAnswer(invocation -> {
+            Consumer<Widget> consumer = invocation.getArgument(7);
+            widgets.forEach(consumer);
+            return null;
+        }).when(widgetService).forEachInArea(eq(SpatialIndex.Mode.WITHIN), eq(0), eq(0), eq(100), eq(100), eq(0),
+                eq(Integer.MAX_VALUE), any());
 
         mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
@@ -110,6 +150,230 @@ public class WidgetControllerTest {
                 .andExpect(jsonPath("$.[0].lastModified", is(lastModified.toString())));
     }
 
+    @Test
+    void filterWithCursor() throws Exception {
+        when(widgetService.existsInArea(SpatialIndex.Mode.WITHIN, 0, 0, 100, 100, 30)).thenReturn(true);
+
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&cursor=20&limit=10")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "30"))
+                .andExpect(jsonPath("$", hasSize(0)));
+
+        verify(widgetService).forEachInArea(eq(SpatialIndex.Mode.WITHIN), eq(0), eq(0), eq(100), eq(100), eq(20), eq(10),
+                any());
+    }
+
+    @Test
+    void filterWithCursorOnLastPage() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&cursor=20&limit=10")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"));
+
+        verify(widgetService).existsInArea(SpatialIndex.Mode.WITHIN, 0, 0, 100, 100, 30);
+    }
+
+    @Test
+    void filterIntersecting() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&mode=intersects")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk());
+
+        verify(widgetService).forEachInArea(eq(SpatialIndex.Mode.INTERSECTS), eq(0), eq(0), eq(100), eq(100), eq(0),
+                eq(Integer.MAX_VALUE), any());
+    }
+
+    @Test
+    void filterIntersectingOrderedByZIndex() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&mode=intersects&orderByZIndex=true")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk());
+
+        verify(widgetService).findAllInArea(SpatialIndex.Mode.INTERSECTS, 0, 0, 100, 100, null,
+                WidgetController.DEFAULT_Z_INDEX_PAGE_SIZE);
+    }
+
+    @Test
+    void filterFailsWithUnknownMode() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&mode=covers")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void filterOrderedByZIndex() throws Exception {
+        LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
+        List<Widget> widgets = List.of(
+                new Widget(2L, 10, 20, 4, 25, 35, lastModified),
+                new Widget(1L, 10, 20, 7, 25, 35, lastModified));
+        when(widgetService.findAllInArea(SpatialIndex.Mode.WITHIN, 0, 0, 100, 100, 3, 2)).thenReturn(widgets);
+
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&afterZIndex=3&limit=2")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$.[0].id", is(2)))
+                .andExpect(jsonPath("$.[1].id", is(1)));
+    }
+
+    @Test
+    void filterOrderedByZIndexWithoutLimit() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&orderByZIndex=true")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk());
+
+        verify(widgetService).findAllInArea(SpatialIndex.Mode.WITHIN, 0, 0, 100, 100, null,
+                WidgetController.DEFAULT_Z_INDEX_PAGE_SIZE);
+    }
+
+    @Test
+    void filterOrderedByZIndexFailsWithLimitAboveMax() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&orderByZIndex=true&limit="
+                + (WidgetService.MAX_Z_INDEX_PAGE_SIZE + 1))
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+
+        verify(widgetService, never()).findAllInArea(any(), anyInt(), anyInt(), anyInt(), anyInt(), any(), anyInt());
+    }
+
+    @Test
+    void filterFailsWithCursorAndZIndexOrder() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&afterZIndex=3&cursor=10")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void filterAll() throws Exception {
+        LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
+        String areasBody = "[{\"left\":0,\"bottom\":0,\"right\":100,\"top\":100},"
+                + "{\"left\":50,\"bottom\":50,\"right\":200,\"top\":200}]";
+        List<Widget> widgets = List.of(
+                new Widget(1L, 10, 20, 7, 25, 35, lastModified),
+                new Widget(2L, 60, 60, 4, 25, 35, lastModified));
+        doAnswer(invocation -> {
+            Consumer<Widget> consumer = invocation.getArgument(2);
+            widgets.forEach(consumer);
+            return List.of(List.of(1L, 2L), List.of(2L));
+        }).when(widgetService).forEachInAreas(eq(SpatialIndex.Mode.INTERSECTS),
+                eq(List.of(new Area(0, 0, 100, 100), new Area(50, 50, 200, 200))), any());
+
+        mockMvc.perform(MockMvcRequestBuilders.post(WIDGETS_LINK + "/filter/batch?mode=intersects")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(areasBody)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.widgets", hasSize(2)))
+                .andExpect(jsonPath("$.widgets.[0].id", is(1)))
+                .andExpect(jsonPath("$.widgets.[1].id", is(2)))
+                .andExpect(jsonPath("$.areas", hasSize(2)))
+                .andExpect(jsonPath("$.areas.[0]", contains(1, 2)))
+                .andExpect(jsonPath("$.areas.[1]", contains(2)));
+    }
+
+    @Test
+    void filterAllFailsWithMissingBound() throws Exception {
+        String areasBody = "[{\"left\":0,\"bottom\":0,\"right\":100}]";
+
+        mockMvc.perform(MockMvcRequestBuilders.post(WIDGETS_LINK + "/filter/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(areasBody)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+
+        verify(widgetService, never()).forEachInAreas(any(), any(), any());
+    }
+
+    @Test
+    void filterAllFailsWithTooManyAreas() throws Exception {
+        String areasBody = IntStream.rangeClosed(0, SpatialIndex.MAX_AREAS)
+                .mapToObj(i -> "{\"left\":0,\"bottom\":0,\"right\":100,\"top\":100}")
+                .collect(Collectors.joining(",", "[", "]"));
+
+        mockMvc.perform(MockMvcRequestBuilders.post(WIDGETS_LINK + "/filter/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(areasBody)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+
+        verify(widgetService, never()).forEachInAreas(any(), any(), any());
+    }
+
+    @Test
+    void at() throws Exception {
+        LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
+        List<Widget> widgets = List.of(
+                new Widget(1L, 10, 20, 7, 25, 35, lastModified),
+                new Widget(2L, 0, 0, 4, 25, 35, lastModified));
+        when(widgetService.findAllAtPoint(15, 25, 2)).thenReturn(widgets);
+
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/at?x=15&y=25&limit=2")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$.[0].id", is(1)))
+                .andExpect(jsonPath("$.[1].id", is(2)));
+    }
+
+    @Test
+    void atReturnsTopmostWidgetByDefault() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/at?x=15&y=25")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk());
+
+        verify(widgetService).findAllAtPoint(15, 25, 1);
+    }
+
+    @Test
+    void atFailsWithMaxCoordinate() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/at?x=15&y=" + Integer.MAX_VALUE)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+
+        verify(widgetService, never()).findAllAtPoint(anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    void atFailsWithZeroLimit() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/at?x=15&y=25&limit=0")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void filterFailsWithZeroLimit() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&limit=0")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void filterFailsWithNegativeCursor() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get(WIDGETS_LINK + "/filter?left=0&bottom=0&right=100&top=100&cursor=-1")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void one() throws Exception {
         LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
@@ -359,4 +623,104 @@ public class WidgetControllerTest {
 
         verify(widgetService, times(1)).delete(1);
     }
+
+    @Test
+    void createAll() throws Exception {
+        LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
+        String widgetsBody = "[{\"x\":10,\"y\":20,\"width\":25,\"height\":35,\"zindex\":5},"
+                + "{\"x\":30,\"y\":40,\"width\":25,\"height\":35}]";
+        List<Widget> widgets = List.of(
+                new Widget(1L, 10, 20, 5, 25, 35, lastModified),
+                new Widget(2L, 30, 40, 6, 25, 35, lastModified));
+
+        when(widgetService.createAll(widgetListArgumentCaptor.capture())).thenReturn(widgets);
+
+        mockMvc.perform(MockMvcRequestBuilders.post(WIDGETS_LINK + "/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(widgetsBody)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$.[0].id", is(1)))
+                .andExpect(jsonPath("$.[1].id", is(2)))
+                .andExpect(jsonPath("$.[1].zindex", is(6)));
+
+        assertEquals(5, widgetListArgumentCaptor.getValue().get(0).getZindex());
+        assertNull(widgetListArgumentCaptor.getValue().get(1).getZindex());
+    }
+
+    @Test
+    void createAllFailsWithMissingX() throws Exception {
+        String widgetsBody = "[{\"x\":10,\"y\":20,\"width\":25,\"height\":35},{\"y\":40,\"width\":25,\"height\":35}]";
+
+        mockMvc.perform(MockMvcRequestBuilders.post(WIDGETS_LINK + "/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(widgetsBody)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+
+        verify(widgetService, never()).createAll(any());
+    }
+
+    @Test
+    void updateAll() throws Exception {
+        LocalDateTime lastModified = LocalDateTime.of(2020, 2, 1, 16, 55, 12, 4343542);
+        String widgetsBody = "[{\"id\":1,\"zindex\":7},{\"id\":2,\"x\":30}]";
+        List<Widget> widgets = List.of(
+                new Widget(1L, 10, 20, 7, 25, 35, lastModified),
+                new Widget(2L, 30, 40, 6, 25, 35, lastModified));
+
+        when(widgetService.updateAll(widgetListArgumentCaptor.capture())).thenReturn(widgets);
+
+        mockMvc.perform(MockMvcRequestBuilders.put(WIDGETS_LINK + "/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(widgetsBody)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$.[0].zindex", is(7)))
+                .andExpect(jsonPath("$.[1].x", is(30)));
+
+        assertEquals(2L, widgetListArgumentCaptor.getValue().get(1).getId());
+        assertEquals(30, widgetListArgumentCaptor.getValue().get(1).getX());
+    }
+
+    @Test
+    void updateAllFailsWithMissingId() throws Exception {
+        String widgetsBody = "[{\"id\":1,\"zindex\":7},{\"x\":30}]";
+
+        mockMvc.perform(MockMvcRequestBuilders.put(WIDGETS_LINK + "/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(widgetsBody)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+
+        verify(widgetService, never()).updateAll(any());
+    }
+
+    @Test
+    void deleteAll() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.delete(WIDGETS_LINK + "/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[1,2]")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isNoContent());
+
+        verify(widgetService, times(1)).deleteAll(List.of(1L, 2L));
+    }
+
+    @Test
+    void deleteAllFailsWhenWidgetNotFound() throws Exception {
+        doThrow(new WidgetNotFound(2L)).when(widgetService).deleteAll(any());
+
+        mockMvc.perform(MockMvcRequestBuilders.delete(WIDGETS_LINK + "/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[1,2]")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isNotFound());
+    }
 }
@@ -0,0 +1,98 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.util.WidgetCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CachingWidgetRepositoryTest {
+    private final MemoryWidgetRepository widgetRepository = spy(new MemoryWidgetRepository());
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CachingWidgetRepository cachingRepository = new CachingWidgetRepository(widgetRepository,
+            new WidgetCache(100, 60_000), TransactionOperations.withoutTransaction(), meterRegistry);
+
+    @Test
+    void findByIdReadsThroughCache() {
+        widgetRepository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        assertEquals(1, cachingRepository.findById(1).orElseThrow().getZindex());
+        assertEquals(1, cachingRepository.findById(1).orElseThrow().getZindex());
+
+        verify(widgetRepository, times(1)).findById(1);
+        assertEquals(1, meterRegistry.get("cache.gets").tag("result", "hit").counter().count());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void saveReplacesCachedWidget() {
+        cachingRepository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        cachingRepository.save(new Widget(1L, 5, 0, 1, 7, 7, LocalDateTime.now()));
+
+        assertEquals(5, cachingRepository.findById(1).orElseThrow().getX());
+        verify(widgetRepository, times(0)).findById(1);
+    }
+
+    @Test
+    void deleteByIdInvalidatesCachedWidget() {
+        cachingRepository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        cachingRepository.deleteById(1);
+
+        assertFalse(cachingRepository.findById(1).isPresent());
+    }
+
+    @Test
+    void shiftZindexFromInvalidatesShiftedWidgets() {
+        cachingRepository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        cachingRepository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        cachingRepository.save(new Widget(null, 0, 0, 5, 7, 7, LocalDateTime.now()));
+
+        // the memory repository shifts widgets in place, so copies are cached
+        cachingRepository.shiftZindexFrom(1, null);
+
+        assertEquals(List.of(2, 3, 5), cachingRepository.findAllById(List.of(1L, 2L, 3L)).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList()));
+        verify(widgetRepository, times(1)).findAllById(List.of(1L, 2L));
+    }
+
+    @Test
+    void shiftZindexAndSaveLooksRunUpOnce() {
+        cachingRepository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        cachingRepository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        cachingRepository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+
+        // widget 3 is moved down to zIndex 1
+        cachingRepository.shiftZindexAndSave(new Widget(3L, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        assertEquals(List.of(2, 3, 1), cachingRepository.findAllById(List.of(1L, 2L, 3L)).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList()));
+        verify(widgetRepository, never()).findLastZindexOfRun(anyInt(), any());
+        verify(widgetRepository, times(1)).findAllById(List.of(1L, 2L));
+    }
+
+    @Test
+    void findAllByIdKeepsOrderOfIds() {
+        cachingRepository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        widgetRepository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        assertEquals(List.of(2L, 1L), cachingRepository.findAllById(List.of(2L, 3L, 1L)).stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList()));
+    }
+}
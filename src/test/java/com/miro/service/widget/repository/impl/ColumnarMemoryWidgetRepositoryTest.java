@@ -0,0 +1,277 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ColumnarMemoryWidgetRepositoryTest {
+    @Test
+    void findAllReturnsPageOrderedByZIndex() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        Page<Widget> page = repository.findAll(PageRequest.of(1, 2));
+
+        assertEquals(3, page.getTotalElements());
+        assertEquals(1, page.getContent().size());
+        assertEquals(3, page.getContent().get(0).getZindex());
+    }
+
+    @Test
+    void findByZindexGreaterThanReturnsSliceAfterZIndex() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 4, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 7, 7, 7, LocalDateTime.now()));
+
+        Slice<Widget> slice = repository.findByZindexGreaterThanOrderByZindex(1, PageRequest.of(0, 2));
+        assertEquals(List.of(2, 4), slice.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertTrue(slice.hasNext());
+
+        Slice<Widget> lastSlice = repository.findByZindexGreaterThanOrderByZindex(4, PageRequest.of(0, 2));
+        assertEquals(List.of(7), lastSlice.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertFalse(lastSlice.hasNext());
+    }
+
+    @Test
+    void findLastZindexOfRun() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 5, 7, 7, LocalDateTime.now()));
+
+        assertEquals(3, repository.findLastZindexOfRun(1, null).orElseThrow());
+        assertEquals(1, repository.findLastZindexOfRun(1, widget.getId()).orElseThrow());
+        assertEquals(5, repository.findLastZindexOfRun(5, null).orElseThrow());
+        assertFalse(repository.findLastZindexOfRun(4, null).isPresent());
+    }
+
+    @Test
+    void findLastZindexOfRunAtIntegerBounds() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        assertFalse(repository.findLastZindexOfRun(Integer.MIN_VALUE, null).isPresent());
+        // shifting from a free position at the lowest z-index changes nothing
+        repository.shiftZindexFrom(Integer.MIN_VALUE, null);
+
+        repository.save(new Widget(null, 0, 0, Integer.MIN_VALUE, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, Integer.MAX_VALUE - 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, Integer.MAX_VALUE, 7, 7, LocalDateTime.now()));
+
+        assertEquals(Integer.MIN_VALUE, repository.findLastZindexOfRun(Integer.MIN_VALUE, null).orElseThrow());
+        assertEquals(Integer.MAX_VALUE, repository.findLastZindexOfRun(Integer.MAX_VALUE - 1, null).orElseThrow());
+
+        repository.shiftZindexFrom(Integer.MIN_VALUE, null);
+
+        assertEquals(List.of(Integer.MIN_VALUE + 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE),
+                repository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE).stream()
+                        .map(Widget::getZindex)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void saveAllAndDeleteAll() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        Widget widget = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        // widget is moved up and its position is taken by a new one
+        widget.setZindex(2);
+        List<Widget> widgets = repository.saveAll(List.of(widget, new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now())));
+
+        assertEquals(List.of(1, 2), repository.findByZindexGreaterThanEqualOrderByZindex(1).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList()));
+
+        repository.deleteAll(widgets);
+
+        assertFalse(repository.findTopByOrderByZindexDesc().isPresent());
+    }
+
+    @Test
+    void findTopByOrderByZindexDesc() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        assertFalse(repository.findTopByOrderByZindexDesc().isPresent());
+
+        repository.save(new Widget(null, 0, 0, 5, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        assertEquals(5, repository.findTopByOrderByZindexDesc().orElseThrow().getZindex());
+    }
+
+    @Test
+    void findByZindexGreaterThanEqualOrderByZindex() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 4, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+
+        List<Integer> zIndexes = repository.findByZindexGreaterThanEqualOrderByZindex(2).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(3, 4), zIndexes);
+    }
+
+    @Test
+    void saveReindexesWidgetModifiedInPlace() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        Widget widget1 = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget2 = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        // shift both widgets the same way WidgetService does: the topmost one first
+        widget2.setZindex(3);
+        repository.save(widget2);
+        widget1.setZindex(2);
+        repository.save(widget1);
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        List<Long> ids = repository.findByZindexGreaterThanEqualOrderByZindex(0).stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(3L, 1L, 2L), ids);
+    }
+
+    @Test
+    void saveReindexesUpdatedCopy() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        repository.save(new Widget(1L, 0, 0, 5, 7, 7, LocalDateTime.now()));
+
+        assertEquals(1, repository.findByZindexGreaterThanEqualOrderByZindex(0).size());
+        assertEquals(5, repository.findTopByOrderByZindexDesc().orElseThrow().getZindex());
+    }
+
+    @Test
+    void deleteById() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        repository.deleteById(1);
+
+        assertFalse(repository.findById(1).isPresent());
+        assertFalse(repository.findTopByOrderByZindexDesc().isPresent());
+        assertThrows(EntityNotFoundException.class, () -> repository.deleteById(1));
+    }
+
+    @Test
+    void forEachBatchReadsAllWidgets() {
+        ColumnarMemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 3, 4, 5);
+
+        List<Integer> batchSizes = new ArrayList<>();
+        repository.forEachBatch(2, batch -> batchSizes.add(batch.size()));
+
+        assertEquals(List.of(2, 2, 1), batchSizes);
+    }
+
+    @Test
+    void shiftZindexFromShiftsAllFollowingWidgets() {
+        ColumnarMemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 3);
+
+        assertEquals(Optional.of(3), repository.shiftZindexFrom(1, null));
+
+        assertEquals(List.of(2, 3, 4), zIndexesById(repository));
+    }
+
+    @Test
+    void shiftZindexFromStopsAtFirstGap() {
+        ColumnarMemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 4);
+
+        assertEquals(Optional.of(2), repository.shiftZindexFrom(2, null));
+
+        assertEquals(List.of(1, 3, 4), zIndexesById(repository));
+    }
+
+    @Test
+    void shiftZindexFromDoesNothingWhenPositionIsFree() {
+        ColumnarMemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 4);
+
+        assertEquals(Optional.empty(), repository.shiftZindexFrom(3, null));
+
+        assertEquals(List.of(1, 2, 4), zIndexesById(repository));
+    }
+
+    @Test
+    void shiftZindexFromTreatsIgnoredWidgetPositionAsFree() {
+        ColumnarMemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 3, 4);
+
+        // widget 3 is moved down to zIndex 2
+        repository.shiftZindexFrom(2, 3L);
+        repository.save(new Widget(3L, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        assertEquals(List.of(1, 3, 2, 4), zIndexesById(repository));
+        assertEquals(4, repository.findByZindexGreaterThanEqualOrderByZindex(0).size());
+    }
+
+    @Test
+    void findByIdMaterializesStoredFields() {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        LocalDateTime lastModified = LocalDateTime.of(1970, 1, 1, 0, 0).minusNanos(1);
+        Widget widget = repository.save(new Widget(null, -3, 4, 5, 6, 7, lastModified));
+
+        Widget foundWidget = repository.findById(widget.getId()).orElseThrow();
+        assertEquals(new Widget(1L, -3, 4, 5, 6, 7, lastModified), foundWidget);
+
+        // the returned widget is a copy, modifying it doesn't change the repository
+        foundWidget.setX(100);
+        assertEquals(-3, repository.findById(widget.getId()).orElseThrow().getX());
+    }
+
+    @Test
+    void deletedSlotsAreReusedAndColumnsGrow() {
+        int count = ColumnarMemoryWidgetRepository.INITIAL_CAPACITY * 2;
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        for (int zIndex = 1; zIndex <= count; zIndex++) {
+            repository.save(new Widget(null, zIndex, 0, zIndex, 7, 7, LocalDateTime.now()));
+        }
+        for (long id = 1; id <= count; id += 2) {
+            repository.deleteById(id);
+        }
+        for (int zIndex = count + 1; zIndex <= count + count / 2; zIndex++) {
+            repository.save(new Widget(null, zIndex, 0, zIndex, 7, 7, LocalDateTime.now()));
+        }
+
+        List<Widget> widgets = repository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE);
+        assertEquals(count, widgets.size());
+        assertTrue(widgets.stream().allMatch(widget -> widget.getX().equals(widget.getZindex())));
+        assertEquals(count, repository.findAll(PageRequest.of(0, 10)).getTotalElements());
+
+        List<Widget> batchedWidgets = new ArrayList<>();
+        repository.forEachBatch(100, batchedWidgets::addAll);
+        assertEquals(count, batchedWidgets.size());
+    }
+
+    private static ColumnarMemoryWidgetRepository repositoryWithZIndexes(int... zIndexes) {
+        ColumnarMemoryWidgetRepository repository = new ColumnarMemoryWidgetRepository();
+        for (int zIndex : zIndexes) {
+            repository.save(new Widget(null, 0, 0, zIndex, 7, 7, LocalDateTime.now()));
+        }
+        return repository;
+    }
+
+    private static List<Integer> zIndexesById(ColumnarMemoryWidgetRepository repository) {
+        return repository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE).stream()
+                .sorted(Comparator.comparing(Widget::getId))
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+    }
+}
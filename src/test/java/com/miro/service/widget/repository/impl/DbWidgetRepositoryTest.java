@@ -0,0 +1,220 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.util.WidgetUtil;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("database")
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.miro.service.widget.repository.impl.DbWidgetRepositoryTest$SqlCapture")
+public class DbWidgetRepositoryTest {
+    // SQL statements Hibernate sends to the database
+    public static class SqlCapture implements StatementInspector {
+        static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(final String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+
+    @Autowired
+    DbWidgetRepository repository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    void shiftZindexFromShiftsAllFollowingWidgets() {
+        saveWithZIndexes(1, 2, 3);
+
+        assertEquals(Optional.of(3), repository.shiftZindexFrom(1, null));
+
+        assertEquals(List.of(2, 3, 4), zIndexesById());
+    }
+
+    @Test
+    void shiftZindexFromStopsAtFirstGap() {
+        saveWithZIndexes(1, 2, 4);
+
+        assertEquals(Optional.of(2), repository.shiftZindexFrom(2, null));
+
+        assertEquals(List.of(1, 3, 4), zIndexesById());
+    }
+
+    @Test
+    void shiftZindexFromDoesNothingWhenPositionIsFree() {
+        saveWithZIndexes(1, 2, 4);
+
+        assertEquals(Optional.empty(), repository.shiftZindexFrom(3, null));
+
+        assertEquals(List.of(1, 2, 4), zIndexesById());
+    }
+
+    @Test
+    void shiftZindexAndSaveTreatsPositionOfSavedWidgetAsFree() {
+        List<Widget> widgets = saveWithZIndexes(1, 2, 3, 4);
+        Widget widget = WidgetUtil.copy(widgets.get(2));
+        widget.setZindex(2);
+
+        repository.shiftZindexAndSave(widget);
+        repository.flush();
+
+        assertEquals(List.of(1, 3, 2, 4), zIndexesById());
+    }
+
+    @Test
+    void shiftZindexAndSaveAtIntegerBounds() {
+        List<Widget> widgets = saveWithZIndexes(Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Integer.MIN_VALUE + 2);
+        Widget widget = WidgetUtil.copy(widgets.get(2));
+        widget.setZindex(Integer.MIN_VALUE + 1);
+
+        repository.shiftZindexAndSave(widget);
+        repository.flush();
+
+        assertEquals(List.of(Integer.MIN_VALUE, Integer.MIN_VALUE + 2, Integer.MIN_VALUE + 1), zIndexesById());
+    }
+
+    @Test
+    void saveAllMovesZindexesAtIntegerBounds() {
+        List<Widget> widgets = saveWithZIndexes(Integer.MIN_VALUE, Integer.MAX_VALUE).stream()
+                .map(WidgetUtil::copy)
+                .collect(Collectors.toList());
+        widgets.get(0).setZindex(Integer.MAX_VALUE);
+        widgets.get(1).setZindex(Integer.MIN_VALUE);
+
+        repository.saveAll(widgets);
+        repository.flush();
+
+        assertEquals(List.of(Integer.MAX_VALUE, Integer.MIN_VALUE), zIndexesById());
+    }
+
+    @Test
+    void saveAllMovesZindexesBetweenWidgets() {
+        // the service saves detached copies
+        List<Widget> widgets = saveWithZIndexes(1, 2, 3).stream()
+                .map(WidgetUtil::copy)
+                .collect(Collectors.toList());
+        widgets.get(0).setZindex(3);
+        widgets.get(1).setZindex(4);
+        widgets.get(2).setZindex(1);
+
+        repository.saveAll(List.of(widgets.get(0), widgets.get(1), widgets.get(2),
+                new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now())));
+        repository.flush();
+
+        assertEquals(List.of(3, 4, 1, 2), zIndexesById());
+    }
+
+    @Test
+    void saveRejectsTakenZindex() {
+        saveWithZIndexes(1);
+
+        assertThrows(DataIntegrityViolationException.class, () -> saveWithZIndexes(1));
+    }
+
+    @Test
+    void topZindexIsReadFromIndex() {
+        String plan = explain(() -> repository.findTopByOrderByZindexDesc());
+
+        assertTrue(plan.contains("direct lookup"), plan);
+        assertTrue(plan.contains("WIDGET_ZINDEX_INDEX: ZINDEX ="), plan);
+    }
+
+    @Test
+    void zindexRangeIsReadFromIndex() {
+        String plan = explain(() -> repository.findByZindexGreaterThanEqualOrderByZindex(5), 5);
+
+        assertTrue(plan.contains("WIDGET_ZINDEX_INDEX: ZINDEX >= ?1"), plan);
+        assertTrue(plan.contains("index sorted"), plan);
+    }
+
+    @Test
+    void zindexRunIsReadFromIndex() {
+        String plan = explain(() -> repository.findByZindexBetweenOrderByZindex(5, 10), 5, 10);
+
+        assertTrue(plan.contains("WIDGET_ZINDEX_INDEX: ZINDEX >= ?1"), plan);
+        assertTrue(plan.contains("index sorted"), plan);
+    }
+
+    @Test
+    void forEachBatchReadsAllWidgets() {
+        saveWithZIndexes(1, 2, 3, 4, 5);
+
+        List<List<Integer>> batches = new ArrayList<>();
+        repository.forEachBatch(2, batch -> batches.add(batch.stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList())));
+
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), batches);
+    }
+
+    @Test
+    void findByZindexGreaterThanReturnsSliceAfterZIndex() {
+        saveWithZIndexes(4, 1, 2, 7);
+
+        Slice<Widget> slice = repository.findByZindexGreaterThanOrderByZindex(1, PageRequest.of(0, 2));
+        assertEquals(List.of(2, 4), slice.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertTrue(slice.hasNext());
+
+        Slice<Widget> lastSlice = repository.findByZindexGreaterThanOrderByZindex(4, PageRequest.of(0, 2));
+        assertEquals(List.of(7), lastSlice.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertFalse(lastSlice.hasNext());
+    }
+
+    private List<Widget> saveWithZIndexes(int... zIndexes) {
+        List<Widget> widgets = new ArrayList<>();
+        for (int zIndex : zIndexes) {
+            widgets.add(repository.saveAndFlush(new Widget(null, 0, 0, zIndex, 7, 7, LocalDateTime.now())));
+        }
+        return widgets;
+    }
+
+    // H2 plan of the SQL Hibernate generates for the repository method; an empty table is scanned anyway,
+    // so the plan is taken with widgets stored
+    private String explain(Runnable query, Object... parameters) {
+        saveWithZIndexes(IntStream.rangeClosed(1, 100).toArray());
+        SqlCapture.STATEMENTS.clear();
+        query.run();
+        assertEquals(1, SqlCapture.STATEMENTS.size(), SqlCapture.STATEMENTS.toString());
+
+        Query explain = entityManager.createNativeQuery("explain " + SqlCapture.STATEMENTS.get(0));
+        for (int i = 0; i < parameters.length; i++) {
+            explain.setParameter(i + 1, parameters[i]);
+        }
+        return (String) explain.getSingleResult();
+    }
+
+    private List<Integer> zIndexesById() {
+        return repository.findAll(Sort.by("id")).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+    }
+}
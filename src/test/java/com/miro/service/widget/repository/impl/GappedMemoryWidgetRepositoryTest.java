@@ -0,0 +1,137 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GappedMemoryWidgetRepositoryTest {
+    @Test
+    void saveAppendsWidgetWithZIndexAboveTop() {
+        GappedMemoryWidgetRepository repository = new GappedMemoryWidgetRepository();
+
+        Widget widget1 = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget2 = repository.save(new Widget(null, 0, 0, 10, 7, 7, LocalDateTime.now()));
+
+        assertEquals(1, widget1.getZindex());
+        assertEquals(2, widget2.getZindex());
+        assertEquals(2L, repository.findTopByOrderByZindexDesc().orElseThrow().getId());
+    }
+
+    @Test
+    void saveInsertsWidgetBeforeWidgetWithSameZIndex() {
+        GappedMemoryWidgetRepository repository = repositoryWithWidgets(3);
+
+        Widget widget = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        assertEquals(2, widget.getZindex());
+        assertEquals(List.of(1L, 4L, 2L, 3L), idsInOrder(repository));
+        assertEquals(3, repository.findById(2).orElseThrow().getZindex());
+        assertEquals(4, repository.findById(3).orElseThrow().getZindex());
+    }
+
+    @Test
+    void saveMovesUpdatedWidget() {
+        GappedMemoryWidgetRepository repository = repositoryWithWidgets(4);
+
+        repository.save(new Widget(4L, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        assertEquals(List.of(4L, 1L, 2L, 3L), idsInOrder(repository));
+
+        repository.save(new Widget(4L, 0, 0, 3, 7, 7, LocalDateTime.now()));
+        assertEquals(List.of(1L, 2L, 4L, 3L), idsInOrder(repository));
+
+        repository.save(new Widget(1L, 5, 5, 1, 7, 7, LocalDateTime.now()));
+        assertEquals(List.of(1L, 2L, 4L, 3L), idsInOrder(repository));
+        assertEquals(5, repository.findById(1).orElseThrow().getX());
+    }
+
+    @Test
+    void saveRenumbersWhenGapRunsOut() {
+        GappedMemoryWidgetRepository repository = repositoryWithWidgets(2);
+
+        // every widget is inserted right above the first one, halving the same gap each time
+        for (int i = 0; i < 40; i++) {
+            repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        }
+
+        List<Long> ids = idsInOrder(repository);
+        assertEquals(42, ids.size());
+        assertEquals(1L, ids.get(0));
+        assertEquals(42L, ids.get(1));
+        assertEquals(3L, ids.get(40));
+        assertEquals(2L, ids.get(41));
+    }
+
+    @Test
+    void findAllReturnsDenseZIndexes() {
+        GappedMemoryWidgetRepository repository = repositoryWithWidgets(5);
+        repository.deleteById(2);
+
+        Page<Widget> page = repository.findAll(PageRequest.of(1, 2));
+
+        assertEquals(4, page.getTotalElements());
+        assertEquals(List.of(4L, 5L), page.getContent().stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(3, 4), page.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findByZindexGreaterThanReturnsSliceOfPositions() {
+        GappedMemoryWidgetRepository repository = repositoryWithWidgets(5);
+
+        Slice<Widget> slice = repository.findByZindexGreaterThanOrderByZindex(2, PageRequest.of(0, 2));
+        assertEquals(List.of(3, 4), slice.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertTrue(slice.hasNext());
+
+        Slice<Widget> lastSlice = repository.findByZindexGreaterThanOrderByZindex(4, PageRequest.of(0, 2));
+        assertEquals(List.of(5L), lastSlice.getContent().stream().map(Widget::getId).collect(Collectors.toList()));
+        assertFalse(lastSlice.hasNext());
+    }
+
+    @Test
+    void findAllByIdReturnsCurrentZIndexes() {
+        GappedMemoryWidgetRepository repository = repositoryWithWidgets(2);
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        List<Widget> widgets = repository.findAllById(List.of(2L, 1L, 10L));
+
+        assertEquals(2, widgets.size());
+        assertEquals(3, widgets.get(0).getZindex());
+        assertEquals(2, widgets.get(1).getZindex());
+    }
+
+    @Test
+    void deleteById() {
+        GappedMemoryWidgetRepository repository = repositoryWithWidgets(1);
+
+        repository.deleteById(1);
+
+        assertFalse(repository.findById(1).isPresent());
+        assertFalse(repository.findTopByOrderByZindexDesc().isPresent());
+        assertThrows(EntityNotFoundException.class, () -> repository.deleteById(1));
+    }
+
+    private static GappedMemoryWidgetRepository repositoryWithWidgets(int count) {
+        GappedMemoryWidgetRepository repository = new GappedMemoryWidgetRepository();
+        for (int i = 1; i <= count; i++) {
+            repository.save(new Widget(null, 0, 0, i, 7, 7, LocalDateTime.now()));
+        }
+        return repository;
+    }
+
+    private static List<Long> idsInOrder(GappedMemoryWidgetRepository repository) {
+        return repository.findByZindexGreaterThanEqualOrderByZindex(1).stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList());
+    }
+}
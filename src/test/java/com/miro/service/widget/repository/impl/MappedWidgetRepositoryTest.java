@@ -0,0 +1,168 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedWidgetRepositoryTest {
+    private static final long CHECKPOINT_LOG_SIZE = 1 << 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void widgetsSurviveReopening() throws IOException {
+        LocalDateTime lastModified = LocalDateTime.now();
+        MappedWidgetRepository repository = repository();
+        repository.save(new Widget(null, 1, 2, 1, 3, 4, lastModified));
+        repository.save(new Widget(null, 5, 6, 2, 7, 8, lastModified));
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, lastModified));
+        repository.deleteById(3);
+        repository.shiftZindexFrom(1, null);
+        repository.close();
+
+        MappedWidgetRepository reopenedRepository = repository();
+
+        assertEquals(List.of(new Widget(1L, 1, 2, 2, 3, 4, lastModified), new Widget(2L, 5, 6, 3, 7, 8, lastModified)),
+                reopenedRepository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE));
+        assertFalse(reopenedRepository.findById(3).isPresent());
+        // ids keep growing and the slot of the deleted widget is reused
+        assertEquals(4L, reopenedRepository.save(new Widget(null, 0, 0, 1, 7, 7, lastModified)).getId());
+        assertEquals(List.of(4L, 1L, 2L), idsByZIndex(reopenedRepository));
+        reopenedRepository.close();
+    }
+
+    @Test
+    void changesNotForcedToRecordsFileAreRestoredFromLog() throws IOException {
+        MappedWidgetRepository repository = repository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.deleteById(1);
+
+        // records lost by a crash, the repository isn't closed
+        try (FileChannel channel = FileChannel.open(directory.resolve(MappedWidgetRepository.RECORDS_FILE),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(2 * MappedWidgetRepository.RECORD_SIZE),
+                    MappedWidgetRepository.HEADER_SIZE);
+        }
+
+        MappedWidgetRepository reopenedRepository = repository();
+
+        assertEquals(List.of(2L), idsByZIndex(reopenedRepository));
+        reopenedRepository.close();
+    }
+
+    @Test
+    void batchTornByCrashIsRolledBack() throws IOException {
+        MappedWidgetRepository repository = repository();
+        Widget widget1 = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget2 = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.close();
+        repository = repository();
+        ByteBuffer record2 = ByteBuffer.allocate(MappedWidgetRepository.RECORD_SIZE);
+        try (FileChannel channel = FileChannel.open(directory.resolve(MappedWidgetRepository.RECORDS_FILE))) {
+            channel.read(record2, MappedWidgetRepository.HEADER_SIZE + MappedWidgetRepository.RECORD_SIZE);
+        }
+
+        // z-indexes are swapped, then the process crashes once the first widget is written:
+        // the log holds the batch start and both entries of the first widget, the second record is not changed
+        repository.saveAll(List.of(new Widget(widget1.getId(), 0, 0, 2, 7, 7, LocalDateTime.now()),
+                new Widget(widget2.getId(), 0, 0, 1, 7, 7, LocalDateTime.now())));
+        try (FileChannel channel = FileChannel.open(directory.resolve(MappedWidgetRepository.RECORDS_FILE),
+                StandardOpenOption.WRITE)) {
+            channel.write(record2.flip(), MappedWidgetRepository.HEADER_SIZE + MappedWidgetRepository.RECORD_SIZE);
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve(MappedWidgetRepository.LOG_FILE),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(3 * MappedWidgetRepository.LOG_ENTRY_SIZE);
+        }
+
+        MappedWidgetRepository reopenedRepository = repository();
+
+        assertEquals(List.of(widget1.getId(), widget2.getId()), idsByZIndex(reopenedRepository));
+        assertEquals(List.of(1, 2), reopenedRepository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE)
+                .stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList()));
+        reopenedRepository.close();
+    }
+
+    @Test
+    void completeBatchIsReplayed() throws IOException {
+        MappedWidgetRepository repository = repository();
+        Widget widget1 = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget2 = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.saveAll(List.of(new Widget(widget1.getId(), 0, 0, 2, 7, 7, LocalDateTime.now()),
+                new Widget(widget2.getId(), 0, 0, 1, 7, 7, LocalDateTime.now())));
+
+        // records lost by a crash, the repository isn't closed
+        try (FileChannel channel = FileChannel.open(directory.resolve(MappedWidgetRepository.RECORDS_FILE),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(2 * MappedWidgetRepository.RECORD_SIZE),
+                    MappedWidgetRepository.HEADER_SIZE);
+        }
+
+        MappedWidgetRepository reopenedRepository = repository();
+
+        assertEquals(List.of(widget2.getId(), widget1.getId()), idsByZIndex(reopenedRepository));
+        reopenedRepository.close();
+    }
+
+    @Test
+    void tornLogTailIsIgnored() throws IOException {
+        MappedWidgetRepository repository = repository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        Files.write(directory.resolve(MappedWidgetRepository.LOG_FILE), new byte[] {1, 2, 3},
+                StandardOpenOption.APPEND);
+
+        MappedWidgetRepository reopenedRepository = repository();
+
+        assertEquals(List.of(1L), idsByZIndex(reopenedRepository));
+        assertEquals(0, Files.size(directory.resolve(MappedWidgetRepository.LOG_FILE)));
+        reopenedRepository.close();
+    }
+
+    @Test
+    void logIsTruncatedByCheckpoint() throws IOException {
+        MappedWidgetRepository repository = new MappedWidgetRepository(directory.toString(), false, 1000);
+        for (int zIndex = 1; zIndex <= 2000; zIndex++) {
+            repository.save(new Widget(null, 0, 0, zIndex, 7, 7, LocalDateTime.now()));
+        }
+
+        assertTrue(Files.size(directory.resolve(MappedWidgetRepository.LOG_FILE)) < 1000);
+        assertEquals(2000, repository.findTopByOrderByZindexDesc().orElseThrow().getZindex());
+        repository.close();
+
+        MappedWidgetRepository reopenedRepository = repository();
+        assertEquals(2000, reopenedRepository.findAll(PageRequest.of(0, 1)).getTotalElements());
+        reopenedRepository.close();
+    }
+
+    private MappedWidgetRepository repository() {
+        return new MappedWidgetRepository(directory.toString(), false, CHECKPOINT_LOG_SIZE);
+    }
+
+    private static List<Long> idsByZIndex(MappedWidgetRepository repository) {
+        return repository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE).stream()
+                .sorted(Comparator.comparing(Widget::getZindex))
+                .map(Widget::getId)
+                .collect(Collectors.toList());
+    }
+}
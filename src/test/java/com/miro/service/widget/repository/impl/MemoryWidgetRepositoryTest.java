@@ -0,0 +1,217 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MemoryWidgetRepositoryTest {
+    @Test
+    void findAllReturnsPageOrderedByZIndex() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        Page<Widget> page = repository.findAll(PageRequest.of(1, 2));
+
+        assertEquals(3, page.getTotalElements());
+        assertEquals(1, page.getContent().size());
+        assertEquals(3, page.getContent().get(0).getZindex());
+    }
+
+    @Test
+    void findByZindexGreaterThanReturnsSliceAfterZIndex() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 4, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 7, 7, 7, LocalDateTime.now()));
+
+        Slice<Widget> slice = repository.findByZindexGreaterThanOrderByZindex(1, PageRequest.of(0, 2));
+        assertEquals(List.of(2, 4), slice.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertTrue(slice.hasNext());
+
+        Slice<Widget> lastSlice = repository.findByZindexGreaterThanOrderByZindex(4, PageRequest.of(0, 2));
+        assertEquals(List.of(7), lastSlice.getContent().stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertFalse(lastSlice.hasNext());
+    }
+
+    @Test
+    void findLastZindexOfRun() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 5, 7, 7, LocalDateTime.now()));
+
+        assertEquals(3, repository.findLastZindexOfRun(1, null).orElseThrow());
+        assertEquals(1, repository.findLastZindexOfRun(1, widget.getId()).orElseThrow());
+        assertEquals(5, repository.findLastZindexOfRun(5, null).orElseThrow());
+        assertFalse(repository.findLastZindexOfRun(4, null).isPresent());
+    }
+
+    @Test
+    void saveAllAndDeleteAll() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        Widget widget = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        // widget is moved up and its position is taken by a new one
+        widget.setZindex(2);
+        List<Widget> widgets = repository.saveAll(List.of(widget, new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now())));
+
+        assertEquals(List.of(1, 2), repository.findByZindexGreaterThanEqualOrderByZindex(1).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList()));
+
+        repository.deleteAll(widgets);
+
+        assertFalse(repository.findTopByOrderByZindexDesc().isPresent());
+    }
+
+    @Test
+    void findTopByOrderByZindexDesc() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        assertFalse(repository.findTopByOrderByZindexDesc().isPresent());
+
+        repository.save(new Widget(null, 0, 0, 5, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        assertEquals(5, repository.findTopByOrderByZindexDesc().orElseThrow().getZindex());
+    }
+
+    @Test
+    void findByZindexGreaterThanEqualOrderByZindex() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 4, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+
+        List<Integer> zIndexes = repository.findByZindexGreaterThanEqualOrderByZindex(2).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(3, 4), zIndexes);
+    }
+
+    @Test
+    void saveReindexesWidgetModifiedInPlace() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        Widget widget1 = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget2 = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        // shift both widgets the same way WidgetService does: the topmost one first
+        widget2.setZindex(3);
+        repository.save(widget2);
+        widget1.setZindex(2);
+        repository.save(widget1);
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        List<Long> ids = repository.findByZindexGreaterThanEqualOrderByZindex(0).stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(3L, 1L, 2L), ids);
+    }
+
+    @Test
+    void saveReindexesUpdatedCopy() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        repository.save(new Widget(1L, 0, 0, 5, 7, 7, LocalDateTime.now()));
+
+        assertEquals(1, repository.findByZindexGreaterThanEqualOrderByZindex(0).size());
+        assertEquals(5, repository.findTopByOrderByZindexDesc().orElseThrow().getZindex());
+    }
+
+    @Test
+    void deleteById() {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        repository.deleteById(1);
+
+        assertFalse(repository.findById(1).isPresent());
+        assertFalse(repository.findTopByOrderByZindexDesc().isPresent());
+        assertThrows(EntityNotFoundException.class, () -> repository.deleteById(1));
+    }
+
+    @Test
+    void forEachBatchReadsAllWidgets() {
+        MemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 3, 4, 5);
+
+        List<Integer> batchSizes = new ArrayList<>();
+        repository.forEachBatch(2, batch -> batchSizes.add(batch.size()));
+
+        assertEquals(List.of(2, 2, 1), batchSizes);
+    }
+
+    @Test
+    void shiftZindexFromShiftsAllFollowingWidgets() {
+        MemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 3);
+
+        assertEquals(Optional.of(3), repository.shiftZindexFrom(1, null));
+
+        assertEquals(List.of(2, 3, 4), zIndexesById(repository));
+    }
+
+    @Test
+    void shiftZindexFromStopsAtFirstGap() {
+        MemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 4);
+
+        assertEquals(Optional.of(2), repository.shiftZindexFrom(2, null));
+
+        assertEquals(List.of(1, 3, 4), zIndexesById(repository));
+    }
+
+    @Test
+    void shiftZindexFromDoesNothingWhenPositionIsFree() {
+        MemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 4);
+
+        assertEquals(Optional.empty(), repository.shiftZindexFrom(3, null));
+
+        assertEquals(List.of(1, 2, 4), zIndexesById(repository));
+    }
+
+    @Test
+    void shiftZindexFromTreatsIgnoredWidgetPositionAsFree() {
+        MemoryWidgetRepository repository = repositoryWithZIndexes(1, 2, 3, 4);
+
+        // widget 3 is moved down to zIndex 2
+        repository.shiftZindexFrom(2, 3L);
+        repository.save(new Widget(3L, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        assertEquals(List.of(1, 3, 2, 4), zIndexesById(repository));
+        assertEquals(4, repository.findByZindexGreaterThanEqualOrderByZindex(0).size());
+    }
+
+    private static MemoryWidgetRepository repositoryWithZIndexes(int... zIndexes) {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        for (int zIndex : zIndexes) {
+            repository.save(new Widget(null, 0, 0, zIndex, 7, 7, LocalDateTime.now()));
+        }
+        return repository;
+    }
+
+    private static List<Integer> zIndexesById(MemoryWidgetRepository repository) {
+        return repository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE).stream()
+                .sorted(Comparator.comparing(Widget::getId))
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+    }
+}
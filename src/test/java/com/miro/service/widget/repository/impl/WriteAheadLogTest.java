@@ -0,0 +1,188 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class WriteAheadLogTest {
+    @TempDir
+    Path directory;
+
+    private final List<WriteAheadLog> logs = new ArrayList<>();
+
+    @AfterEach
+    void closeLogs() throws IOException {
+        for (WriteAheadLog log : logs) {
+            log.close();
+        }
+    }
+
+    @Test
+    void widgetsAreReplayedAfterRestart() throws IOException {
+        LocalDateTime lastModified = LocalDateTime.now();
+        WriteAheadLog log = writeAheadLog(WriteAheadLog.FsyncPolicy.ALWAYS);
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.of(log));
+        repository.save(new Widget(null, 1, 2, 1, 3, 4, lastModified));
+        repository.save(new Widget(null, 5, 6, 2, 7, 8, lastModified));
+        repository.save(new Widget(null, 0, 0, 3, 7, 7, lastModified));
+        repository.deleteById(3);
+        repository.shiftZindexFrom(1, null);
+        log.close();
+
+        MemoryWidgetRepository restartedRepository = new MemoryWidgetRepository(
+                Optional.of(writeAheadLog(WriteAheadLog.FsyncPolicy.ALWAYS)));
+
+        assertEquals(List.of(new Widget(1L, 1, 2, 2, 3, 4, lastModified), new Widget(2L, 5, 6, 3, 7, 8, lastModified)),
+                restartedRepository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE));
+        assertFalse(restartedRepository.findById(3).isPresent());
+        // ids of deleted widgets are not reused
+        assertEquals(4L, restartedRepository.save(new Widget(null, 0, 0, 1, 7, 7, lastModified)).getId());
+    }
+
+    @Test
+    void writesReturnOnceRecordsAreWrittenWithAlwaysPolicy() throws Exception {
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(
+                Optional.of(writeAheadLog(WriteAheadLog.FsyncPolicy.ALWAYS)));
+
+        // concurrent writers are committed in groups
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Widget>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int zIndex = i;
+            futures.add(executor.submit(() -> repository.save(new Widget(null, 0, 0, zIndex, 7, 7,
+                    LocalDateTime.now()))));
+        }
+        for (Future<Widget> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(200L * WriteAheadLog.RECORD_SIZE, segmentsSize());
+    }
+
+    @Test
+    void snapshotReplacesCoveredSegments() throws IOException {
+        WriteAheadLog log = writeAheadLog(WriteAheadLog.FsyncPolicy.INTERVAL);
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.of(log));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        List<Widget> widgets = repository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE);
+        log.writeSnapshot(new WriteAheadLog.Snapshot(widgets, 2, log.rotate()));
+        repository.deleteById(1);
+        log.close();
+
+        assertEquals(1, segments().size());
+        MemoryWidgetRepository restartedRepository = new MemoryWidgetRepository(
+                Optional.of(writeAheadLog(WriteAheadLog.FsyncPolicy.INTERVAL)));
+        assertEquals(List.of(2L), restartedRepository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE)
+                .stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void tornTailOfSegmentIsIgnored() throws IOException {
+        WriteAheadLog log = writeAheadLog(WriteAheadLog.FsyncPolicy.NEVER);
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.of(log));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        log.close();
+        Files.write(segments().get(0), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+        MemoryWidgetRepository restartedRepository = new MemoryWidgetRepository(
+                Optional.of(writeAheadLog(WriteAheadLog.FsyncPolicy.NEVER)));
+
+        assertEquals(1, restartedRepository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE).size());
+    }
+
+    @Test
+    void batchTornByCrashIsDropped() throws IOException {
+        MemoryWidgetRepository repository = repositoryWithSwappedZIndexes();
+        // the crash happens right after widget 1 is written at z-index 2, widget 2 still holds it
+        Path segment = segments().get(0);
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int end = 0;
+        while (records.getLong(end + 1) != 1L || records.getInt(end + 17) != 2) {
+            end += WriteAheadLog.RECORD_SIZE;
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(end + WriteAheadLog.RECORD_SIZE);
+        }
+
+        MemoryWidgetRepository restartedRepository = new MemoryWidgetRepository(
+                Optional.of(writeAheadLog(WriteAheadLog.FsyncPolicy.NEVER)));
+
+        assertEquals(List.of(1L, 2L), idsByZIndex(restartedRepository));
+    }
+
+    @Test
+    void completeBatchIsReplayed() throws IOException {
+        repositoryWithSwappedZIndexes();
+
+        MemoryWidgetRepository restartedRepository = new MemoryWidgetRepository(
+                Optional.of(writeAheadLog(WriteAheadLog.FsyncPolicy.NEVER)));
+
+        assertEquals(List.of(2L, 1L), idsByZIndex(restartedRepository));
+    }
+
+    // widgets 1 and 2 are saved at z-indexes 1 and 2, then swapped by a single batch
+    private MemoryWidgetRepository repositoryWithSwappedZIndexes() throws IOException {
+        WriteAheadLog log = writeAheadLog(WriteAheadLog.FsyncPolicy.NEVER);
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.of(log));
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.saveAll(List.of(new Widget(1L, 0, 0, 2, 7, 7, LocalDateTime.now()),
+                new Widget(2L, 0, 0, 1, 7, 7, LocalDateTime.now())));
+        log.close();
+        return repository;
+    }
+
+    private static List<Long> idsByZIndex(MemoryWidgetRepository repository) {
+        return repository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE).stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList());
+    }
+
+    private WriteAheadLog writeAheadLog(WriteAheadLog.FsyncPolicy fsyncPolicy) {
+        WriteAheadLog log = new WriteAheadLog(directory.toString(), fsyncPolicy, 1, 16, 60_000);
+        logs.add(log);
+        return log;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".log"))
+                    .sorted(Comparator.naturalOrder())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private long segmentsSize() throws IOException {
+        long size = 0;
+        for (Path segment : segments()) {
+            size += Files.size(segment);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,172 @@
+package com.miro.service.widget.repository.impl;
+
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("database")
+@DataJpaTest
+// flushes are committed by the repository itself
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class WriteBehindWidgetRepositoryTest {
+    private static final long MAX_LAG_MILLIS = 60_000;
+
+    @Autowired
+    DbWidgetRepository dbRepository;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    private final List<WriteBehindWidgetRepository> repositories = new ArrayList<>();
+
+    @AfterEach
+    void deleteWidgets() throws InterruptedException {
+        for (WriteBehindWidgetRepository repository : repositories) {
+            repository.close();
+        }
+        dbRepository.deleteAll();
+    }
+
+    @Test
+    void widgetsAreWrittenBehindOnFlush() {
+        WriteBehindWidgetRepository repository = repository(1000);
+        Widget widget = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+
+        assertEquals(1, repository.findById(widget.getId()).orElseThrow().getZindex());
+        assertFalse(dbRepository.findById(widget.getId()).isPresent());
+
+        repository.flush();
+
+        assertEquals(1, dbRepository.findById(widget.getId()).orElseThrow().getZindex());
+    }
+
+    @Test
+    void changesOfWidgetAreCoalesced() {
+        WriteBehindWidgetRepository repository = repository(1000);
+        Widget widget = repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(widget.getId(), 5, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget deletedWidget = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.deleteById(deletedWidget.getId());
+
+        repository.flush();
+
+        assertEquals(List.of(5), dbRepository.findAll().stream()
+                .map(Widget::getX)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void shiftedWidgetsAreWrittenBehind() {
+        WriteBehindWidgetRepository repository = repository(1000);
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 4, 7, 7, LocalDateTime.now()));
+        repository.flush();
+
+        repository.shiftZindexFrom(1, null);
+        repository.flush();
+
+        assertEquals(List.of(2, 3, 4), dbZIndexes());
+    }
+
+    @Test
+    void shiftAndSaveOfUpdateAreFlushedTogether() {
+        WriteBehindWidgetRepository repository = repository(1000);
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        Widget widget = repository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now()));
+        repository.flush();
+
+        // the widget is updated from 3 to 2, the widget at 2 is shifted to the position the updated one leaves
+        repository.shiftZindexAndSave(new Widget(widget.getId(), 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        // the updated widget is not parked at a position of its own meanwhile
+        assertEquals(1, repository.findAll(PageRequest.of(0, 1)).getContent().get(0).getZindex());
+        repository.flush();
+        assertEquals(List.of(1, 3, 2), dbZIndexes());
+    }
+
+    @Test
+    void mirrorIsLoadedOnStartupAndIdsContinue() throws InterruptedException {
+        WriteBehindWidgetRepository repository = repository(1000);
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        Widget widget = repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+        // pending changes are flushed on shutdown
+        repository.close();
+
+        WriteBehindWidgetRepository restartedRepository = repository(1000);
+
+        assertEquals(2, restartedRepository.findTopByOrderByZindexDesc().orElseThrow().getZindex());
+        assertTrue(restartedRepository.save(new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.now())).getId()
+                > widget.getId());
+    }
+
+    @Test
+    void databaseRepositoryDoesNotReuseIdsOfWrittenBehindWidgets() {
+        WriteBehindWidgetRepository repository = repository(1000);
+        // more widgets than a block of ids
+        for (int zIndex = 1; zIndex <= 60; zIndex++) {
+            repository.save(new Widget(null, 0, 0, zIndex, 7, 7, LocalDateTime.now()));
+        }
+        repository.flush();
+
+        // the database profile takes over the table
+        for (int zIndex = 61; zIndex <= 120; zIndex++) {
+            dbRepository.saveAndFlush(new Widget(null, 0, 0, zIndex, 7, 7, LocalDateTime.now()));
+        }
+
+        assertEquals(120, dbRepository.count());
+    }
+
+    @Test
+    void fullBatchIsFlushedWithoutWaitingForMaxLag() throws InterruptedException {
+        WriteBehindWidgetRepository repository = repository(2);
+        repository.save(new Widget(null, 0, 0, 1, 7, 7, LocalDateTime.now()));
+        repository.save(new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.now()));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (dbRepository.count() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(2, dbRepository.count());
+    }
+
+    private WriteBehindWidgetRepository repository(int batchSize) {
+        WriteBehindWidgetRepository repository = new WriteBehindWidgetRepository(dbRepository,
+                new JdbcTemplate(dataSource), transactionManager, MAX_LAG_MILLIS, batchSize);
+        repositories.add(repository);
+        return repository;
+    }
+
+    private List<Integer> dbZIndexes() {
+        return dbRepository.findAll().stream()
+                .sorted((widget1, widget2) -> Long.compare(widget1.getId(), widget2.getId()))
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+    }
+}
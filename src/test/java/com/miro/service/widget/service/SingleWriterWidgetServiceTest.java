@@ -0,0 +1,132 @@
+package com.miro.service.widget.service;
+
+import com.miro.service.widget.exception.WidgetNotFound;
+import com.miro.service.widget.exception.WriterUnavailable;
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.repository.impl.MemoryWidgetRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+@ExtendWith(SpringExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class SingleWriterWidgetServiceTest {
+    @TestConfiguration
+    static class SingleWriterWidgetServiceTestContextConfiguration {
+        @Bean
+        public SingleWriterWidgetService widgetService() {
+            return new SingleWriterWidgetService();
+        }
+
+        @Bean
+        public WidgetRepository widgetRepository() {
+            return spy(new MemoryWidgetRepository());
+        }
+    }
+
+    @Autowired
+    SingleWriterWidgetService widgetService;
+
+    @Autowired
+    WidgetRepository widgetRepository;
+
+    @Test
+    void createAsyncAppliesAllQueuedWrites() {
+        List<CompletableFuture<Widget>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // every widget takes the bottom, so all previous ones are shifted
+            results.add(widgetService.createAsync(new Widget(null, i, i, 1, 10, 10, null)));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+
+        Set<Integer> zIndexes = widgetService.findAllInArea(0, 0, 200, 200).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toSet());
+        assertEquals(100, zIndexes.size());
+        assertTrue(zIndexes.contains(1));
+        assertTrue(zIndexes.contains(100));
+    }
+
+    @Test
+    void deleteRemovesWidgetFromSearch() {
+        Widget widget = widgetService.create(new Widget(null, 10, 10, null, 10, 10, null));
+        widgetService.create(new Widget(null, 50, 50, null, 10, 10, null));
+
+        widgetService.delete(widget.getId());
+
+        assertEquals(1, widgetService.findAllInArea(0, 0, 100, 100).size());
+        assertEquals(0, widgetService.findAllInArea(0, 0, 30, 30).size());
+    }
+
+    @Test
+    void updateOfMissingWidgetThrowsWidgetNotFound() {
+        widgetService.create(new Widget(null, 10, 10, null, 10, 10, null));
+
+        assertThrows(WidgetNotFound.class,
+                () -> widgetService.update(new Widget(100L, 20, 20, null, null, null, null)));
+        assertEquals(1, widgetService.findAllInArea(0, 0, 100, 100).size());
+    }
+
+    @Test
+    void errorFailsWriteAndWriterKeepsRunning() {
+        doThrow(new StackOverflowError()).doCallRealMethod().when(widgetRepository).shiftZindexAndSave(any());
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> widgetService.create(new Widget(null, 10, 10, null, 10, 10, null)));
+        assertTrue(error.getCause() instanceof StackOverflowError);
+
+        widgetService.create(new Widget(null, 10, 10, null, 10, 10, null));
+        assertEquals(1, widgetService.findAllInArea(0, 0, 100, 100).size());
+    }
+
+    @Test
+    void stopFailsQueuedWritesAndRejectsNewOnes() throws Exception {
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch saved = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            saving.countDown();
+            saved.await();
+            return invocation.callRealMethod();
+        }).doCallRealMethod().when(widgetRepository).shiftZindexAndSave(any());
+
+        CompletableFuture<Widget> applied = widgetService.createAsync(new Widget(null, 10, 10, null, 10, 10, null));
+        saving.await();
+        CompletableFuture<Widget> queued = widgetService.createAsync(new Widget(null, 20, 20, null, 10, 10, null));
+
+        Thread stopper = new Thread(widgetService::stop);
+        stopper.start();
+        // the stopper waits for the writer to finish its batch
+        while (stopper.getState() != Thread.State.TIMED_WAITING) {
+            Thread.onSpinWait();
+        }
+        saved.countDown();
+        stopper.join();
+
+        assertEquals(10, applied.join().getX());
+        CompletionException error = assertThrows(CompletionException.class, queued::join);
+        assertTrue(error.getCause() instanceof WriterUnavailable);
+        assertThrows(WriterUnavailable.class,
+                () -> widgetService.create(new Widget(null, 30, 30, null, 10, 10, null)));
+    }
+}
@@ -0,0 +1,140 @@
+package com.miro.service.widget.service;
+
+import com.miro.service.widget.exception.WidgetNotFound;
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.repository.impl.MemoryWidgetRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.intThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class WidgetServiceBatchTest {
+    @TestConfiguration
+    static class WidgetServiceBatchTestContextConfiguration {
+        @Bean
+        public WidgetService widgetService() {
+            return new WidgetService();
+        }
+
+        @Bean
+        public WidgetRepository widgetRepository() {
+            return spy(new MemoryWidgetRepository());
+        }
+    }
+
+    @Autowired
+    WidgetService widgetService;
+
+    @Autowired
+    WidgetRepository widgetRepository;
+
+    @Test
+    void createAllShiftsAsSequentialCreates() {
+        Widget a = widgetService.create(widget(1));
+        Widget b = widgetService.create(widget(2));
+        Widget c = widgetService.create(widget(4));
+
+        List<Widget> created = widgetService.createAll(List.of(widget(1), widget(null), widget(3)));
+
+        // creating widgets one by one gives the same result
+        assertEquals(Map.of(
+                created.get(0).getId(), 1,
+                a.getId(), 2,
+                created.get(2).getId(), 3,
+                b.getId(), 4,
+                c.getId(), 5,
+                created.get(1).getId(), 6), zIndexesById());
+        assertEquals(6, widgetService.findAllInArea(0, 0, 100, 100).size());
+    }
+
+    @Test
+    void createAllReadsOnlyShiftedRuns() {
+        Widget a = widgetService.create(widget(1));
+        Widget b = widgetService.create(widget(2));
+        Widget c = widgetService.create(widget(4));
+        Widget d = widgetService.create(widget(10));
+
+        // the second create shifts the first run into the one starting at 4
+        List<Widget> created = widgetService.createAll(List.of(widget(1), widget(1)));
+
+        verify(widgetRepository, never()).findByZindexGreaterThanEqualOrderByZindex(anyInt());
+        verify(widgetRepository, never()).findByZindexBetweenOrderByZindex(anyInt(), intThat(zIndex -> zIndex >= 10));
+        assertEquals(Map.of(
+                created.get(1).getId(), 1,
+                created.get(0).getId(), 2,
+                a.getId(), 3,
+                b.getId(), 4,
+                c.getId(), 5,
+                d.getId(), 10), zIndexesById());
+    }
+
+    @Test
+    void updateAllShiftsAsSequentialUpdates() {
+        Widget a = widgetService.create(widget(1));
+        Widget b = widgetService.create(widget(2));
+        Widget c = widgetService.create(widget(3));
+        Widget d = widgetService.create(widget(5));
+
+        List<Widget> updated = widgetService.updateAll(List.of(
+                new Widget(c.getId(), 50, 50, 1, null, null, null),
+                new Widget(a.getId(), null, null, 4, null, null, null)));
+
+        // updating widgets one by one gives the same result
+        assertEquals(Map.of(c.getId(), 1, b.getId(), 3, a.getId(), 4, d.getId(), 5), zIndexesById());
+        assertEquals(List.of(1, 4), updated.stream().map(Widget::getZindex).collect(Collectors.toList()));
+        assertEquals(List.of(c.getId()), widgetService.findAllInArea(40, 40, 100, 100).stream()
+                .map(Widget::getId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void updateAllFailsWithoutChangesWhenWidgetNotFound() {
+        Widget a = widgetService.create(widget(1));
+        Widget b = widgetService.create(widget(2));
+
+        assertThrows(WidgetNotFound.class, () -> widgetService.updateAll(List.of(
+                new Widget(b.getId(), null, null, 1, null, null, null),
+                new Widget(100L, null, null, 4, null, null, null))));
+
+        assertEquals(Map.of(a.getId(), 1, b.getId(), 2), zIndexesById());
+    }
+
+    @Test
+    void deleteAll() {
+        Widget a = widgetService.create(widget(1));
+        Widget b = widgetService.create(widget(2));
+        Widget c = widgetService.create(widget(3));
+
+        widgetService.deleteAll(List.of(a.getId(), c.getId()));
+
+        assertEquals(Map.of(b.getId(), 2), zIndexesById());
+        assertEquals(1, widgetService.findAllInArea(0, 0, 100, 100).size());
+    }
+
+    private static Widget widget(final Integer zIndex) {
+        return new Widget(null, 10, 10, zIndex, 10, 10, null);
+    }
+
+    private Map<Long, Integer> zIndexesById() {
+        return widgetRepository.findByZindexGreaterThanEqualOrderByZindex(Integer.MIN_VALUE).stream()
+                .collect(Collectors.toMap(Widget::getId, Widget::getZindex));
+    }
+}
@@ -0,0 +1,104 @@
+package com.miro.service.widget.service;
+
+import com.miro.service.widget.model.Widget;
+import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.repository.impl.MemoryWidgetRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(SpringExtension.class)
+public class WidgetServiceConcurrencyTest {
+    private static final int WRITERS = 64;
+    private static final int WRITES_PER_WRITER = 200;
+    // z-index range is small enough for writers to collide and shift each other's widgets
+    private static final int MAX_Z_INDEX = 5000;
+
+    @TestConfiguration
+    static class WidgetServiceConcurrencyTestContextConfiguration {
+        @Bean
+        public WidgetService widgetService() {
+            return new WidgetService();
+        }
+
+        @Bean
+        public WidgetRepository widgetRepository() {
+            return new MemoryWidgetRepository();
+        }
+    }
+
+    @Autowired
+    WidgetService widgetService;
+
+    @Autowired
+    WidgetRepository widgetRepository;
+
+    @Test
+    void concurrentWritesKeepZIndexesUnique() throws Exception {
+        AtomicInteger widgetCount = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+
+        List<Future<Void>> writers = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            writers.add(executor.submit(writer(start, widgetCount)));
+        }
+        start.countDown();
+        for (Future<Void> writer : writers) {
+            writer.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        List<Widget> widgets = new ArrayList<>();
+        widgetRepository.forEachBatch(1000, widgets::addAll);
+        Set<Integer> zIndexes = new HashSet<>();
+        widgets.forEach(widget -> zIndexes.add(widget.getZindex()));
+
+        assertEquals(widgetCount.get(), widgets.size());
+        assertEquals(widgets.size(), zIndexes.size());
+        assertEquals(widgets.size(), widgetService.findAllInArea(0, 0, 100, 100).size());
+    }
+
+    // every writer creates widgets and then moves or deletes its own ones
+    private Callable<Void> writer(final CountDownLatch start, final AtomicInteger widgetCount) {
+        return () -> {
+            start.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                int operation = random.nextInt(10);
+                if (ids.isEmpty() || operation < 5) {
+                    // widget without z-index is put on top
+                    Integer zIndex = random.nextInt(10) == 0 ? null : random.nextInt(1, MAX_Z_INDEX);
+                    ids.add(widgetService.create(new Widget(null, 0, 0, zIndex, 10, 10, null)).getId());
+                    widgetCount.incrementAndGet();
+                } else if (operation < 9) {
+                    long id = ids.get(random.nextInt(ids.size()));
+                    widgetService.update(new Widget(id, null, null, random.nextInt(1, MAX_Z_INDEX), null, null, null));
+                } else {
+                    widgetService.delete(ids.remove(random.nextInt(ids.size())));
+                    widgetCount.decrementAndGet();
+                }
+            }
+            return null;
+        };
+    }
+}
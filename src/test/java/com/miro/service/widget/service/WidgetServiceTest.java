@@ -2,33 +2,55 @@ package com.miro.service.widget.service;
 
 
 import com.miro.service.widget.exception.WidgetNotFound;
+import com.miro.service.widget.model.Area;
 import com.miro.service.widget.model.Paging;
 import com.miro.service.widget.model.Widget;
 import com.miro.service.widget.repository.WidgetRepository;
+import com.miro.service.widget.util.SpatialIndex;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import javax.persistence.EntityNotFoundException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -46,7 +68,8 @@ public class WidgetServiceTest {
     @Autowired
     WidgetService widgetService;
 
-    @MockBean
+    // default methods of the repository are real, so a shift and save is verified as separate calls
+    @MockBean(answer = Answers.CALLS_REAL_METHODS)
     WidgetRepository mockWidgetRepository;
 
     @Captor
@@ -95,6 +118,248 @@ public class WidgetServiceTest {
         assertEquals(5, pageableArgumentCaptor.getValue().getPageSize());
     }
 
+    @Test
+    void findAllAfterZIndexReadsSliceWithoutOffset() {
+        Widget widget = new Widget(1L, 10, 10, 4, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        when(mockWidgetRepository.findByZindexGreaterThanOrderByZindex(eq(3), any()))
+                .thenReturn(new SliceImpl<>(List.of(widget)));
+
+        assertEquals(List.of(widget), widgetService.findAllAfterZIndex(3, 5));
+
+        verify(mockWidgetRepository).findByZindexGreaterThanOrderByZindex(eq(3), pageableArgumentCaptor.capture());
+        assertEquals(0, pageableArgumentCaptor.getValue().getOffset());
+        assertEquals(5, pageableArgumentCaptor.getValue().getPageSize());
+    }
+
+    @Test
+    void findAllInAreaReadsFoundWidgetsFromRepository() {
+        Widget savedWidget = new Widget(1L, 10, 10, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        when(mockWidgetRepository.save(any())).thenReturn(savedWidget);
+        widgetService.create(new Widget(null, 10, 10, 1, 7, 7, null));
+
+        Widget shiftedWidget = new Widget(1L, 10, 10, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        when(mockWidgetRepository.findAllById(List.of(1L))).thenReturn(List.of(shiftedWidget));
+
+        List<Widget> serviceWidgets = widgetService.findAllInArea(0, 0, 100, 100);
+
+        assertEquals(List.of(shiftedWidget), serviceWidgets);
+    }
+
+    @Test
+    void existsInAreaTellsIfWidgetsFollowSkippedOnes() {
+        Widget widget = new Widget(1L, 10, 10, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        doAnswer(invocation -> {
+            invocation.<Consumer<List<Widget>>>getArgument(1).accept(List.of(widget));
+            return null;
+        }).when(mockWidgetRepository).forEachBatch(anyInt(), any());
+        widgetService.loadSearchTree();
+
+        assertTrue(widgetService.existsInArea(SpatialIndex.Mode.WITHIN, 0, 0, 100, 100, 0));
+        assertFalse(widgetService.existsInArea(SpatialIndex.Mode.WITHIN, 0, 0, 100, 100, 1));
+        assertFalse(widgetService.existsInArea(SpatialIndex.Mode.WITHIN, 0, 0, 15, 15, 0));
+    }
+
+    @Test
+    void loadSearchTreeKeepsWidgetCreatedMeanwhile() throws Exception {
+        Widget loadedWidget = new Widget(1L, 10, 10, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        Widget createdWidget = new Widget(2L, 20, 20, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        when(mockWidgetRepository.save(any())).thenReturn(createdWidget);
+        when(mockWidgetRepository.findAllById(any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return Stream.of(loadedWidget, createdWidget)
+                    .filter(widget -> ids.contains(widget.getId()))
+                    .collect(Collectors.toList());
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Future<Widget>> creating = new ArrayList<>();
+        doAnswer(invocation -> {
+            // the widget is created while the repository is read, it isn't among the loaded ones
+            creating.add(executor.submit(() -> widgetService.create(new Widget(null, 20, 20, 2, 7, 7, null))));
+            try {
+                creating.get(0).get(200, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // the create waits for the tree
+            }
+            invocation.<Consumer<List<Widget>>>getArgument(1).accept(List.of(loadedWidget));
+            return null;
+        }).when(mockWidgetRepository).forEachBatch(anyInt(), any());
+
+        widgetService.loadSearchTree();
+        creating.get(0).get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        assertEquals(List.of(loadedWidget, createdWidget), widgetService.findAllInArea(0, 0, 100, 100));
+    }
+
+    @Test
+    void findAllInAreaIntersectingIncludesWidgetsCrossingBorder() {
+        Widget insideWidget = new Widget(1L, 10, 10, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        Widget crossingWidget = new Widget(2L, 95, 10, 2, 10, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        when(mockWidgetRepository.save(any())).thenReturn(insideWidget, crossingWidget);
+        widgetService.create(new Widget(null, 10, 10, 1, 7, 7, null));
+        widgetService.create(new Widget(null, 95, 10, 2, 10, 7, null));
+        when(mockWidgetRepository.findAllById(any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return Stream.of(insideWidget, crossingWidget)
+                    .filter(widget -> ids.contains(widget.getId()))
+                    .collect(Collectors.toList());
+        });
+
+        assertEquals(List.of(insideWidget), widgetService.findAllInArea(0, 0, 100, 100));
+        assertEquals(List.of(insideWidget, crossingWidget),
+                widgetService.findAllInArea(SpatialIndex.Mode.INTERSECTS, 0, 0, 100, 100));
+    }
+
+    @Test
+    void findAllInAreaReturnsLowestZIndexesAfterGivenOne() {
+        List<Widget> widgets = new ArrayList<>();
+        for (long i = 1; i <= 20; i++) {
+            // z-indexes are shuffled relative to ids
+            widgets.add(new Widget(i, (int) i, (int) i, (int) (i * 7 % 20) + 1, 1, 1, LocalDateTime.of(2021, 1, 29, 11, 20)));
+        }
+        doAnswer(invocation -> {
+            invocation.<Consumer<List<Widget>>>getArgument(1).accept(widgets);
+            return null;
+        }).when(mockWidgetRepository).forEachBatch(anyInt(), any());
+        when(mockWidgetRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<Widget> found = new ArrayList<>();
+            invocation.<Iterable<Long>>getArgument(0).forEach(id -> found.add(widgets.get(id.intValue() - 1)));
+            return found;
+        });
+        widgetService.loadSearchTree();
+
+        List<Integer> zIndexes = widgetService.findAllInArea(0, 0, 100, 100, 5, 4).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(6, 7, 8, 9), zIndexes);
+    }
+
+    @Test
+    void forEachInAreasReadsSharedWidgetsOnce() {
+        Widget widget1 = new Widget(1L, 10, 10, 1, 10, 10, LocalDateTime.of(2021, 1, 29, 11, 20));
+        Widget widget2 = new Widget(2L, 60, 60, 2, 10, 10, LocalDateTime.of(2021, 1, 29, 11, 20));
+        Widget widget3 = new Widget(3L, 500, 500, 3, 10, 10, LocalDateTime.of(2021, 1, 29, 11, 20));
+        doAnswer(invocation -> {
+            invocation.<Consumer<List<Widget>>>getArgument(1).accept(List.of(widget1, widget2, widget3));
+            return null;
+        }).when(mockWidgetRepository).forEachBatch(anyInt(), any());
+        when(mockWidgetRepository.findAllById(any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return Stream.of(widget1, widget2, widget3)
+                    .filter(widget -> ids.contains(widget.getId()))
+                    .collect(Collectors.toList());
+        });
+        widgetService.loadSearchTree();
+
+        List<Widget> found = new ArrayList<>();
+        List<List<Long>> areaIds = widgetService.forEachInAreas(SpatialIndex.Mode.WITHIN, List.of(
+                new Area(0, 0, 100, 100), new Area(50, 50, 80, 80), new Area(1000, 1000, 2000, 2000)), found::add);
+
+        assertEquals(List.of(widget1, widget2), found);
+        assertEquals(List.of(List.of(1L, 2L), List.of(2L), List.of()), areaIds.stream()
+                .map(ids -> ids.stream().sorted().collect(Collectors.toList()))
+                .collect(Collectors.toList()));
+        verify(mockWidgetRepository).findAllById(any());
+    }
+
+    @Test
+    void forEachInAreasSearchesAsManyAreasAsOneTraversalTakes() {
+        List<Widget> widgets = new ArrayList<>();
+        List<Area> areas = new ArrayList<>();
+        for (long i = 1; i <= SpatialIndex.MAX_AREAS; i++) {
+            widgets.add(new Widget(i, (int) i * 10, 0, (int) i, 10, 10, LocalDateTime.of(2021, 1, 29, 11, 20)));
+            areas.add(new Area((int) i * 10, 0, (int) i * 10 + 10, 10));
+        }
+        doAnswer(invocation -> {
+            invocation.<Consumer<List<Widget>>>getArgument(1).accept(widgets);
+            return null;
+        }).when(mockWidgetRepository).forEachBatch(anyInt(), any());
+        when(mockWidgetRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<Widget> found = new ArrayList<>();
+            invocation.<Iterable<Long>>getArgument(0).forEach(id -> found.add(widgets.get(id.intValue() - 1)));
+            return found;
+        });
+        widgetService.loadSearchTree();
+
+        List<Widget> found = new ArrayList<>();
+        List<List<Long>> areaIds = widgetService.forEachInAreas(SpatialIndex.Mode.WITHIN, areas, found::add);
+
+        assertEquals(SpatialIndex.MAX_AREAS, found.size());
+        for (int i = 0; i < SpatialIndex.MAX_AREAS; i++) {
+            assertEquals(List.of(i + 1L), areaIds.get(i));
+        }
+    }
+
+    @Test
+    void forEachInAreasRejectsMoreAreasThanOneTraversalTakes() {
+        List<Area> areas = Collections.nCopies(SpatialIndex.MAX_AREAS + 1, new Area(0, 0, 10, 10));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> widgetService.forEachInAreas(SpatialIndex.Mode.WITHIN, areas, widget -> {
+                }));
+        verify(mockWidgetRepository, never()).findAllById(any());
+    }
+
+    @Test
+    void findAllAtPointReturnsHighestZIndexesFirst() {
+        List<Widget> widgets = new ArrayList<>();
+        for (long i = 1; i <= 20; i++) {
+            // all widgets cover the point 50, 50 except the last one ending right at it
+            int size = i == 20 ? 40 : 60;
+            widgets.add(new Widget(i, 10, 10, (int) (i * 7 % 20) + 1, size, size, LocalDateTime.of(2021, 1, 29, 11, 20)));
+        }
+        doAnswer(invocation -> {
+            invocation.<Consumer<List<Widget>>>getArgument(1).accept(widgets);
+            return null;
+        }).when(mockWidgetRepository).forEachBatch(anyInt(), any());
+        when(mockWidgetRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<Widget> found = new ArrayList<>();
+            invocation.<Iterable<Long>>getArgument(0).forEach(id -> found.add(widgets.get(id.intValue() - 1)));
+            return found;
+        });
+        widgetService.loadSearchTree();
+
+        List<Integer> zIndexes = widgetService.findAllAtPoint(50, 50, 3).stream()
+                .map(Widget::getZindex)
+                .collect(Collectors.toList());
+
+        // z-index 1 belongs to the widget not covering the point
+        assertEquals(List.of(20, 19, 18), zIndexes);
+        assertEquals(19, widgetService.findAllAtPoint(50, 50, Integer.MAX_VALUE).size());
+        assertEquals(List.of(), widgetService.findAllAtPoint(70, 70, 3));
+    }
+
+    @Test
+    void findAllInAreaRejectsZIndexPageAboveMax() {
+        assertThrows(IllegalArgumentException.class, () -> widgetService.findAllInArea(0, 0, 100, 100, null,
+                WidgetService.MAX_Z_INDEX_PAGE_SIZE + 1));
+    }
+
+    @Test
+    void findAllAtPointRejectsMaxCoordinates() {
+        assertThrows(IllegalArgumentException.class, () -> widgetService.findAllAtPoint(Integer.MAX_VALUE, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> widgetService.findAllAtPoint(0, Integer.MAX_VALUE, 1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void loadSearchTreeReadsAllBatches() {
+        Widget widget1 = new Widget(1L, 10, 10, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        Widget widget2 = new Widget(2L, 500, 500, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        doAnswer(invocation -> {
+            Consumer<List<Widget>> consumer = invocation.getArgument(1);
+            consumer.accept(List.of(widget1));
+            consumer.accept(List.of(widget2));
+            return null;
+        }).when(mockWidgetRepository).forEachBatch(anyInt(), any());
+        when(mockWidgetRepository.findAllById(List.of(2L))).thenReturn(List.of(widget2));
+
+        widgetService.loadSearchTree();
+
+        assertEquals(List.of(widget2), widgetService.findAllInArea(400, 400, 600, 600));
+    }
+
     @Test
     void findByIdReturnsWidget() {
         Widget widget = new Widget(1L, 0, 0, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
@@ -153,12 +418,7 @@ public class WidgetServiceTest {
     }
 
     @Test
-    void createUpdatesZIndexOfAllExistingWidgets() {
-        Widget existingWidget1 = new Widget(1L, 0, 0, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget2 = new Widget(2L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget3 = new Widget(3L, 0, 0, 3, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.findByZindexGreaterThanEqualOrderByZindex(1)).thenReturn(List.of(existingWidget1, existingWidget2, existingWidget3));
-
+    void createShiftsZIndexOfExistingWidgetsBeforeSaving() {
         Widget savedWidget = new Widget(4L, 0, 0, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
         when(mockWidgetRepository.save(widgetArgumentCaptor.capture())).thenReturn(savedWidget);
 
@@ -166,61 +426,14 @@ public class WidgetServiceTest {
         Widget serviceWidget = widgetService.create(widgetToCreate);
 
         assertEquals(savedWidget, serviceWidget);
-        assertEquals(4, widgetArgumentCaptor.getAllValues().size());
 
-        assertEquals(3L, widgetArgumentCaptor.getAllValues().get(0).getId());
-        assertEquals(4, widgetArgumentCaptor.getAllValues().get(0).getZindex());
+        InOrder inOrder = inOrder(mockWidgetRepository);
+        inOrder.verify(mockWidgetRepository).shiftZindexFrom(1, null);
+        inOrder.verify(mockWidgetRepository).save(any());
 
-        assertEquals(2L, widgetArgumentCaptor.getAllValues().get(1).getId());
-        assertEquals(3, widgetArgumentCaptor.getAllValues().get(1).getZindex());
-
-        assertEquals(1L, widgetArgumentCaptor.getAllValues().get(2).getId());
-        assertEquals(2, widgetArgumentCaptor.getAllValues().get(2).getZindex());
-
-        assertNull(widgetArgumentCaptor.getAllValues().get(3).getId());
-        assertEquals(1, widgetArgumentCaptor.getAllValues().get(3).getZindex());
-    }
-
-    @Test
-    void createUpdatesZIndexOfOneExistingWidgets() {
-        Widget existingWidget2 = new Widget(2L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget3 = new Widget(3L, 0, 0, 4, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.findByZindexGreaterThanEqualOrderByZindex(2)).thenReturn(List.of(existingWidget2, existingWidget3));
-
-        Widget savedWidget = new Widget(4L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.save(widgetArgumentCaptor.capture())).thenReturn(savedWidget);
-
-        Widget widgetToCreate = new Widget(null, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget serviceWidget = widgetService.create(widgetToCreate);
-
-        assertEquals(savedWidget, serviceWidget);
-        assertEquals(2, widgetArgumentCaptor.getAllValues().size());
-
-        assertEquals(2L, widgetArgumentCaptor.getAllValues().get(0).getId());
-        assertEquals(3, widgetArgumentCaptor.getAllValues().get(0).getZindex());
-
-        assertNull(widgetArgumentCaptor.getAllValues().get(1).getId());
-        assertEquals(2, widgetArgumentCaptor.getAllValues().get(1).getZindex());
-    }
-
-    @Test
-    void createUpdatesZIndexOfNoneExistingWidgets() {
-        Widget existingWidget1 = new Widget(1L, 0, 0, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget2 = new Widget(2L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget3 = new Widget(3L, 0, 0, 4, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.findAll(any())).thenReturn(getPage(List.of(existingWidget1, existingWidget2, existingWidget3)));
-
-        Widget savedWidget = new Widget(4L, 0, 0, 3, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.save(widgetArgumentCaptor.capture())).thenReturn(savedWidget);
-
-        Widget widgetToCreate = new Widget(null, 0, 0, 3, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget serviceWidget = widgetService.create(widgetToCreate);
-
-        assertEquals(savedWidget, serviceWidget);
         assertEquals(1, widgetArgumentCaptor.getAllValues().size());
-
-        assertNull(widgetArgumentCaptor.getAllValues().get(0).getId());
-        assertEquals(3, widgetArgumentCaptor.getAllValues().get(0).getZindex());
+        assertNull(widgetArgumentCaptor.getValue().getId());
+        assertEquals(1, widgetArgumentCaptor.getValue().getZindex());
     }
 
     @Test
@@ -238,74 +451,25 @@ public class WidgetServiceTest {
     }
 
     @Test
-    void updateUpdatesZIndexOfAllExistingWidgets() {
-        Widget existingWidget1 = new Widget(1L, 0, 0, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget2 = new Widget(2L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget3 = new Widget(3L, 0, 0, 3, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.findByZindexGreaterThanEqualOrderByZindex(2)).thenReturn(List.of(existingWidget2, existingWidget3));
-        when(mockWidgetRepository.findById(1L)).thenReturn(Optional.of(existingWidget1));
-
-        Widget savedWidget = new Widget(1L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.save(widgetArgumentCaptor.capture())).thenReturn(savedWidget);
-
-        Widget widgetToUpdate = new Widget(1L, 2, 2, 2, null, null, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget serviceWidget = widgetService.update(widgetToUpdate);
-
-        assertEquals(savedWidget, serviceWidget);
-        assertEquals(3, widgetArgumentCaptor.getAllValues().size());
-
-        assertEquals(3L, widgetArgumentCaptor.getAllValues().get(0).getId());
-        assertEquals(4, widgetArgumentCaptor.getAllValues().get(0).getZindex());
-
-        assertEquals(2L, widgetArgumentCaptor.getAllValues().get(1).getId());
-        assertEquals(3, widgetArgumentCaptor.getAllValues().get(1).getZindex());
-
-        assertEquals(1L, widgetArgumentCaptor.getAllValues().get(2).getId());
-        assertEquals(2, widgetArgumentCaptor.getAllValues().get(2).getZindex());
-    }
-
-    @Test
-    void updateUpdatesZIndexOfOneExistingWidgets() {
+    void updateShiftsZIndexOfExistingWidgetsBeforeSaving() {
         Widget existingWidget1 = new Widget(1L, 0, 0, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget2 = new Widget(2L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget3 = new Widget(3L, 0, 0, 4, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.findByZindexGreaterThanEqualOrderByZindex(2)).thenReturn(List.of(existingWidget2, existingWidget3));
         when(mockWidgetRepository.findById(1L)).thenReturn(Optional.of(existingWidget1));
 
-        Widget savedWidget = new Widget(1L, 0, 0, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
+        Widget savedWidget = new Widget(1L, 2, 2, 2, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
         when(mockWidgetRepository.save(widgetArgumentCaptor.capture())).thenReturn(savedWidget);
 
         Widget widgetToUpdate = new Widget(1L, 2, 2, 2, null, null, LocalDateTime.of(2021, 1, 29, 11, 20));
         Widget serviceWidget = widgetService.update(widgetToUpdate);
 
         assertEquals(savedWidget, serviceWidget);
-        assertEquals(2, widgetArgumentCaptor.getAllValues().size());
-
-        assertEquals(2L, widgetArgumentCaptor.getAllValues().get(0).getId());
-        assertEquals(3, widgetArgumentCaptor.getAllValues().get(0).getZindex());
-
-        assertEquals(1L, widgetArgumentCaptor.getAllValues().get(1).getId());
-        assertEquals(2, widgetArgumentCaptor.getAllValues().get(1).getZindex());
-    }
 
-    @Test
-    void updateUpdatesZIndexOfNoneExistingWidgets() {
-        Widget existingWidget1 = new Widget(1L, 0, 0, 1, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget existingWidget3 = new Widget(3L, 0, 0, 4, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.findByZindexGreaterThanEqualOrderByZindex(2)).thenReturn(List.of(existingWidget3));
-        when(mockWidgetRepository.findById(1L)).thenReturn(Optional.of(existingWidget1));
+        InOrder inOrder = inOrder(mockWidgetRepository);
+        inOrder.verify(mockWidgetRepository).shiftZindexFrom(2, 1L);
+        inOrder.verify(mockWidgetRepository).save(any());
 
-        Widget savedWidget = new Widget(1L, 0, 0, 3, 7, 7, LocalDateTime.of(2021, 1, 29, 11, 20));
-        when(mockWidgetRepository.save(widgetArgumentCaptor.capture())).thenReturn(savedWidget);
-
-        Widget widgetToUpdate = new Widget(1L, 2, 2, 3, null, null, LocalDateTime.of(2021, 1, 29, 11, 20));
-        Widget serviceWidget = widgetService.update(widgetToUpdate);
-
-        assertEquals(savedWidget, serviceWidget);
         assertEquals(1, widgetArgumentCaptor.getAllValues().size());
-
-        assertEquals(1L, widgetArgumentCaptor.getAllValues().get(0).getId());
-        assertEquals(3, widgetArgumentCaptor.getAllValues().get(0).getZindex());
+        assertEquals(1L, widgetArgumentCaptor.getValue().getId());
+        assertEquals(2, widgetArgumentCaptor.getValue().getZindex());
     }
 
     @Test
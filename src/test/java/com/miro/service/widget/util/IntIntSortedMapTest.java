@@ -0,0 +1,87 @@
+package com.miro.service.widget.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IntIntSortedMapTest {
+    @Test
+    void putGetAndRemove() {
+        IntIntSortedMap map = new IntIntSortedMap();
+
+        assertEquals(IntIntSortedMap.NO_VALUE, map.put(20, 2));
+        assertEquals(IntIntSortedMap.NO_VALUE, map.put(-10, 1));
+        assertEquals(2, map.put(20, 3));
+
+        assertEquals(2, map.size());
+        assertEquals(3, map.get(20));
+        assertEquals(IntIntSortedMap.NO_VALUE, map.get(0));
+        assertEquals(20, map.lastKey());
+        assertEquals(3, map.lastValue());
+
+        assertEquals(3, map.remove(20));
+        assertEquals(IntIntSortedMap.NO_VALUE, map.remove(20));
+        assertEquals(-10, map.lastKey());
+
+        assertEquals(1, map.remove(-10));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void forEachFromStopsWhenVisitorReturnsFalse() {
+        IntIntSortedMap map = new IntIntSortedMap();
+        for (int key = 0; key < 3 * IntIntSortedMap.BLOCK_CAPACITY; key += 2) {
+            map.put(key, key * 10);
+        }
+
+        List<Integer> keys = new ArrayList<>();
+        map.forEachFrom(IntIntSortedMap.BLOCK_CAPACITY - 1, (key, value) -> {
+            keys.add(key);
+            return keys.size() < 3;
+        });
+        assertEquals(List.of(IntIntSortedMap.BLOCK_CAPACITY, IntIntSortedMap.BLOCK_CAPACITY + 2,
+                IntIntSortedMap.BLOCK_CAPACITY + 4), keys);
+
+        List<Integer> values = new ArrayList<>();
+        map.forEachFromIndex(map.size() - 2, (key, value) -> values.add(value));
+        assertEquals(List.of((map.lastKey() - 2) * 10, map.lastKey() * 10), values);
+    }
+
+    @Test
+    void matchesTreeMapOnRandomOperations() {
+        IntIntSortedMap map = new IntIntSortedMap();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(20_000) - 10_000;
+            // inserts prevail, so blocks are split as well as emptied
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.getOrDefault(key, IntIntSortedMap.NO_VALUE), map.remove(key));
+                expected.remove(key);
+            } else {
+                assertEquals(expected.getOrDefault(key, IntIntSortedMap.NO_VALUE), map.put(key, i));
+                expected.put(key, i);
+            }
+        }
+
+        List<Integer> keys = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        map.forEachFromIndex(0, (key, value) -> keys.add(key) && values.add(value));
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+        assertEquals(new ArrayList<>(expected.values()), values);
+
+        List<Integer> tailKeys = new ArrayList<>();
+        map.forEachFrom(1234, (key, value) -> tailKeys.add(key));
+        assertEquals(new ArrayList<>(expected.tailMap(1234, true).keySet()), tailKeys);
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.miro.service.widget.util;
+
+import com.miro.service.widget.model.Area;
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IntRTreeTest {
+    @Test
+    void addAndDelete() {
+        IntRTree tree = new IntRTree();
+
+        Widget widget = new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now());
+        tree.add(widget);
+        assertEquals(1, tree.size());
+        assertEquals(List.of(1L), search(tree, 0, 0, 100, 100));
+
+        tree.delete(widget);
+        assertEquals(0, tree.size());
+        assertEquals(List.of(), search(tree, 0, 0, 100, 100));
+    }
+
+    @Test
+    void updateReplacesModifiedWidget() {
+        IntRTree tree = new IntRTree();
+
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        tree.update(new Widget(1L, 500, 500, 2, 100, 100, LocalDateTime.now()));
+
+        assertEquals(1, tree.size());
+        assertEquals(List.of(), search(tree, 0, 0, 200, 200));
+        assertEquals(List.of(1L), search(tree, 400, 400, 700, 700));
+    }
+
+    @Test
+    void searchReturnsWidgetsFullyWithinArea() {
+        IntRTree tree = new IntRTree();
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(2L, 0, 50, 2, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(3L, 50, 50, 3, 100, 100, LocalDateTime.now()));
+
+        assertEquals(List.of(1L, 2L), sorted(search(tree, 0, 0, 100, 150)));
+        // touching the border is within, crossing it is not
+        assertEquals(List.of(1L), search(tree, 0, 0, 100, 149));
+    }
+
+    @Test
+    void searchIntersectingReturnsWidgetsOverlappingArea() {
+        IntRTree tree = new IntRTree();
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(2L, 100, 0, 2, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(3L, 150, 150, 3, 100, 100, LocalDateTime.now()));
+
+        assertEquals(List.of(1L, 2L), sorted(searchIntersecting(tree, 50, 50, 120, 120)));
+        // touching the border only is not an intersection
+        assertEquals(List.of(1L), searchIntersecting(tree, 99, 50, 100, 200));
+        assertEquals(List.of(2L, 3L), sorted(searchIntersecting(tree, 120, 90, 160, 160)));
+    }
+
+    @Test
+    void coordinatesBeyondFloatPrecisionAreExact() {
+        IntRTree tree = new IntRTree();
+        int x = (1 << 24) + 1;
+        tree.add(new Widget(1L, x, 0, 1, 1, 1, LocalDateTime.now()));
+
+        assertEquals(List.of(1L), search(tree, x, 0, x + 1, 1));
+        assertEquals(List.of(), search(tree, x + 1, 0, x + 2, 1));
+    }
+
+    @Test
+    void searchSkipsAndLimits() {
+        IntRTree tree = new IntRTree();
+        for (long id = 1; id <= 100; id++) {
+            tree.add(new Widget(id, (int) id * 10, 0, (int) id, 10, 10, LocalDateTime.now()));
+        }
+
+        List<Long> all = search(tree, 0, 0, 2000, 10);
+        List<Long> page = new ArrayList<>();
+        tree.search(0, 0, 2000, 10, 30, 20, page::add);
+
+        assertEquals(all.subList(30, 50), page);
+    }
+
+    @Test
+    void addAllPacksBatchWithExistingWidgets() {
+        IntRTree tree = new IntRTree();
+        tree.add(new Widget(1L, 0, 0, 1, 10, 10, LocalDateTime.now()));
+        tree.add(new Widget(2L, 100, 0, 2, 10, 10, LocalDateTime.now()));
+
+        tree.addAll(List.of(new Widget(2L, 200, 0, 2, 10, 10, LocalDateTime.now()),
+                new Widget(3L, 300, 0, 3, 10, 10, LocalDateTime.now()),
+                new Widget(3L, 400, 0, 3, 10, 10, LocalDateTime.now())));
+
+        assertEquals(3, tree.size());
+        assertEquals(List.of(1L, 2L, 3L), sorted(search(tree, 0, 0, 1000, 10)));
+        assertEquals(List.of(), search(tree, 100, 0, 110, 10));
+        assertEquals(List.of(3L), search(tree, 400, 0, 410, 10));
+    }
+
+    @Test
+    void randomWritesMatchBruteForceSearch() {
+        SplittableRandom random = new SplittableRandom(42);
+        IntRTree tree = new IntRTree();
+        Map<Long, Widget> widgets = new HashMap<>();
+
+        List<Widget> initialWidgets = new ArrayList<>();
+        for (long id = 1; id <= 2000; id++) {
+            initialWidgets.add(randomWidget(random, id));
+        }
+        tree.rebuild(initialWidgets);
+        initialWidgets.forEach(widget -> widgets.put(widget.getId(), widget));
+
+        long nextId = 2001;
+        for (int step = 0; step < 20_000; step++) {
+            int operation = random.nextInt(3);
+            if (operation == 0 || widgets.isEmpty()) {
+                Widget widget = randomWidget(random, nextId++);
+                tree.add(widget);
+                widgets.put(widget.getId(), widget);
+            } else {
+                long id = widgets.keySet().stream().skip(random.nextInt(widgets.size())).findFirst().orElseThrow();
+                if (operation == 1) {
+                    Widget widget = randomWidget(random, id);
+                    tree.update(widget);
+                    widgets.put(id, widget);
+                } else {
+                    tree.delete(widgets.remove(id));
+                }
+            }
+
+            if (step % 1000 == 0) {
+                assertSearchesMatch(random, tree, widgets);
+            }
+        }
+
+        assertEquals(widgets.size(), tree.size());
+        assertSearchesMatch(random, tree, widgets);
+        // a tree of n widgets is at most log(n) / log(MIN_ENTRIES) levels high
+        assertTrue(tree.height() <= Math.ceil(Math.log(widgets.size()) / Math.log(IntRTree.MIN_ENTRIES)) + 1,
+                "height " + tree.height());
+    }
+
+    @Test
+    void deletingWidgetsRegionByRegionMatchesBruteForceSearch() {
+        SplittableRandom random = new SplittableRandom(5);
+        IntRTree tree = new IntRTree();
+        Map<Long, Widget> widgets = new HashMap<>();
+        List<Widget> initialWidgets = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            initialWidgets.add(randomWidget(random, id));
+        }
+        tree.rebuild(initialWidgets);
+        initialWidgets.forEach(widget -> widgets.put(widget.getId(), widget));
+
+        // emptying whole regions dissolves inner nodes too, their subtrees are reinserted at their own level
+        List<Widget> byX = initialWidgets.stream()
+                .sorted(Comparator.comparingInt(Widget::getX))
+                .collect(Collectors.toList());
+        for (int i = 0; i < byX.size(); i++) {
+            tree.delete(widgets.remove(byX.get(i).getId()));
+            if (i % 500 == 0) {
+                assertSearchesMatch(random, tree, widgets);
+                double maxHeight = Math.ceil(Math.log(widgets.size()) / Math.log(IntRTree.MIN_ENTRIES)) + 1;
+                assertTrue(tree.height() <= maxHeight, "height " + tree.height());
+            }
+        }
+
+        assertEquals(0, tree.size());
+        assertEquals(1, tree.height());
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        assertEquals(List.of(1L), search(tree, 0, 0, 100, 100));
+    }
+
+    @Test
+    void searchAllMatchesSearchOfEveryArea() {
+        SplittableRandom random = new SplittableRandom(11);
+        List<Widget> widgets = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            widgets.add(new Widget(id, random.nextInt(1000), random.nextInt(1000), (int) id,
+                    1 + random.nextInt(50), 1 + random.nextInt(50), LocalDateTime.now()));
+        }
+        IntRTree tree = new IntRTree();
+        tree.rebuild(widgets);
+
+        // overlapping areas of every size, one of them covering the whole board
+        List<Area> areas = new ArrayList<>();
+        areas.add(new Area(0, 0, 2000, 2000));
+        while (areas.size() < SpatialIndex.MAX_AREAS) {
+            int left = random.nextInt(1000);
+            int bottom = random.nextInt(1000);
+            areas.add(new Area(left, bottom, left + random.nextInt(500), bottom + random.nextInt(500)));
+        }
+
+        for (SpatialIndex.Mode mode : SpatialIndex.Mode.values()) {
+            List<List<Long>> areaIds = new ArrayList<>();
+            areas.forEach(area -> areaIds.add(new ArrayList<>()));
+            Set<Long> passedIds = new HashSet<>();
+            tree.searchAll(mode, areas, (id, matchedAreas) -> {
+                assertTrue(passedIds.add(id), "passed twice " + id);
+                for (int i = 0; i < areas.size(); i++) {
+                    if ((matchedAreas & 1L << i) != 0) {
+                        areaIds.get(i).add(id);
+                    }
+                }
+            });
+
+            for (int i = 0; i < areas.size(); i++) {
+                Area area = areas.get(i);
+                List<Long> expected = new ArrayList<>();
+                tree.search(mode, area.getLeft(), area.getBottom(), area.getRight(), area.getTop(),
+                        0, Integer.MAX_VALUE, expected::add);
+                assertEquals(expected.stream().sorted().collect(Collectors.toList()),
+                        areaIds.get(i).stream().sorted().collect(Collectors.toList()), mode + " " + area);
+            }
+        }
+    }
+
+    @Test
+    void edgesBeyondIntegerBoundsMatchBruteForceSearch() {
+        SplittableRandom random = new SplittableRandom(7);
+        int origin = Integer.MAX_VALUE - 1000;
+        IntRTree tree = new IntRTree();
+        Map<Long, Widget> widgets = new HashMap<>();
+
+        // most right and top edges of these widgets are beyond Integer.MAX_VALUE
+        List<Widget> initialWidgets = new ArrayList<>();
+        for (long id = 1; id <= 500; id++) {
+            initialWidgets.add(new Widget(id, origin + random.nextInt(1000), origin + random.nextInt(1000), (int) id,
+                    1 + random.nextInt(2000), 1 + random.nextInt(2000), LocalDateTime.now()));
+        }
+        tree.rebuild(initialWidgets);
+        initialWidgets.forEach(widget -> widgets.put(widget.getId(), widget));
+        for (long id = 501; id <= 1000; id++) {
+            Widget widget = new Widget(id, origin + random.nextInt(1000), origin + random.nextInt(1000), (int) id,
+                    1 + random.nextInt(2000), 1 + random.nextInt(2000), LocalDateTime.now());
+            tree.add(widget);
+            widgets.put(id, widget);
+        }
+
+        // areas as large as the range, so many of them end at Integer.MAX_VALUE
+        assertSearchesMatch(random, tree, widgets, origin, 1000);
+    }
+
+    private static void assertSearchesMatch(SplittableRandom random, IntRTree tree, Map<Long, Widget> widgets) {
+        assertSearchesMatch(random, tree, widgets, 0, 300);
+    }
+
+    private static void assertSearchesMatch(SplittableRandom random, IntRTree tree, Map<Long, Widget> widgets,
+            int origin, int maxSize) {
+        for (int i = 0; i < 20; i++) {
+            int left = origin + random.nextInt(1000);
+            int bottom = origin + random.nextInt(1000);
+            int right = (int) Math.min((long) left + random.nextInt(maxSize), Integer.MAX_VALUE);
+            int top = (int) Math.min((long) bottom + random.nextInt(maxSize), Integer.MAX_VALUE);
+
+            List<Long> expected = widgets.values().stream()
+                    .filter(widget -> widget.getX() >= left && widget.getY() >= bottom
+                            && (long) widget.getX() + widget.getWidth() <= right
+                            && (long) widget.getY() + widget.getHeight() <= top)
+                    .map(Widget::getId)
+                    .sorted()
+                    .collect(Collectors.toList());
+            assertEquals(expected, sorted(search(tree, left, bottom, right, top)));
+
+            List<Long> expectedIntersecting = widgets.values().stream()
+                    .filter(widget -> widget.getX() < right && widget.getY() < top
+                            && (long) widget.getX() + widget.getWidth() > left
+                            && (long) widget.getY() + widget.getHeight() > bottom)
+                    .map(Widget::getId)
+                    .sorted()
+                    .collect(Collectors.toList());
+            assertEquals(expectedIntersecting, sorted(searchIntersecting(tree, left, bottom, right, top)));
+        }
+    }
+
+    private static Widget randomWidget(SplittableRandom random, long id) {
+        return new Widget(id, random.nextInt(1000), random.nextInt(1000), (int) id,
+                1 + random.nextInt(50), 1 + random.nextInt(50), LocalDateTime.now());
+    }
+
+    private static List<Long> search(IntRTree tree, int left, int bottom, int right, int top) {
+        List<Long> ids = new ArrayList<>();
+        tree.search(left, bottom, right, top, 0, Integer.MAX_VALUE, ids::add);
+        return ids;
+    }
+
+    private static List<Long> searchIntersecting(IntRTree tree, int left, int bottom, int right, int top) {
+        List<Long> ids = new ArrayList<>();
+        tree.search(SpatialIndex.Mode.INTERSECTS, left, bottom, right, top, 0, Integer.MAX_VALUE, ids::add);
+        return ids;
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        return ids.stream().sorted().collect(Collectors.toList());
+    }
+}
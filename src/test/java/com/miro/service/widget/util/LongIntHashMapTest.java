@@ -0,0 +1,63 @@
+package com.miro.service.widget.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LongIntHashMapTest {
+    @Test
+    void putGetAndRemove() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(1, 10));
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(-7, 20));
+        assertEquals(10, map.put(1, 11));
+
+        assertEquals(2, map.size());
+        assertEquals(11, map.get(1));
+        assertEquals(20, map.get(-7));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(2));
+
+        assertEquals(11, map.remove(1));
+        assertEquals(LongIntHashMap.NO_VALUE, map.remove(1));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void zeroKeyIsNotSupported() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, 1));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(0));
+        assertEquals(LongIntHashMap.NO_VALUE, map.remove(0));
+    }
+
+    @Test
+    void matchesHashMapOnRandomOperations() {
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // narrow key range, so that removals hit existing keys and probe sequences collide
+            long key = random.nextInt(5000) + 1;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.getOrDefault(key, LongIntHashMap.NO_VALUE), map.remove(key));
+                expected.remove(key);
+            } else {
+                assertEquals(expected.getOrDefault(key, LongIntHashMap.NO_VALUE), map.put(key, i));
+                expected.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = 1; key <= 5000; key++) {
+            assertEquals(expected.getOrDefault(key, LongIntHashMap.NO_VALUE), map.get(key));
+        }
+    }
+}
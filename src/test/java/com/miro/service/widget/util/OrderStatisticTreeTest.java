@@ -0,0 +1,98 @@
+package com.miro.service.widget.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OrderStatisticTreeTest {
+    @Test
+    void putAndRemove() {
+        OrderStatisticTree<String> tree = new OrderStatisticTree<>();
+        tree.put(20, "b");
+        tree.put(10, "a");
+        tree.put(30, "c");
+        tree.put(20, "B");
+
+        assertEquals(3, tree.size());
+        assertEquals(List.of("a", "B", "c"), tree.values(0, 10));
+
+        assertTrue(tree.remove(20));
+        assertFalse(tree.remove(20));
+        assertEquals(List.of("a", "c"), tree.values(0, 10));
+    }
+
+    @Test
+    void rankAndKeyAt() {
+        OrderStatisticTree<String> tree = new OrderStatisticTree<>();
+        tree.put(-5, "a");
+        tree.put(10, "b");
+        tree.put(15, "c");
+
+        assertEquals(0, tree.rank(-5));
+        assertEquals(1, tree.rank(0));
+        assertEquals(2, tree.rank(15));
+        assertEquals(3, tree.rank(100));
+
+        assertEquals(-5, tree.keyAt(0));
+        assertEquals(15, tree.keyAt(2));
+        assertEquals("b", tree.valueAt(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.keyAt(3));
+    }
+
+    @Test
+    void values() {
+        OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+        for (int i = 0; i < 10; i++) {
+            tree.put(i, i);
+        }
+
+        assertEquals(List.of(3, 4, 5), tree.values(3, 3));
+        assertEquals(List.of(8, 9), tree.values(8, 5));
+        assertEquals(List.of(), tree.values(10, 5));
+    }
+
+    @Test
+    void renumber() {
+        OrderStatisticTree<String> tree = new OrderStatisticTree<>();
+        tree.put(3, "a");
+        tree.put(4, "b");
+        tree.put(100, "c");
+
+        List<Long> keys = new ArrayList<>();
+        tree.renumber(10, (value, key) -> keys.add(key));
+
+        assertEquals(List.of(10L, 20L, 30L), keys);
+        assertEquals(1, tree.rank(20));
+        assertEquals("c", tree.valueAt(2));
+    }
+
+    @Test
+    void keepsOrderOfRandomKeys() {
+        OrderStatisticTree<Long> tree = new OrderStatisticTree<>();
+        List<Long> keys = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long key = random.nextLong();
+            keys.add(key);
+            tree.put(key, key);
+        }
+        for (int i = 0; i < 500; i++) {
+            tree.remove(keys.remove(keys.size() - 1));
+        }
+        Collections.sort(keys);
+
+        assertEquals(keys, tree.values(0, tree.size()));
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, tree.rank(keys.get(i)));
+            assertEquals(keys.get(i), tree.keyAt(i));
+        }
+    }
+}
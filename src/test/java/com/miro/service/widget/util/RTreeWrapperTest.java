@@ -1,12 +1,19 @@
 package com.miro.service.widget.util;
 
+import com.miro.service.widget.model.Area;
 import com.miro.service.widget.model.Widget;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class RTreeWrapperTest {
     @Test
@@ -17,7 +24,7 @@ public class RTreeWrapperTest {
         tree.add(widget);
 
         assertEquals(1, tree.tree.size());
-        assertEquals(1, tree.geometryMap.size());
+        assertEquals(1, tree.entryMap.size());
     }
 
     @Test
@@ -28,11 +35,101 @@ public class RTreeWrapperTest {
         tree.add(widget);
 
         assertEquals(1, tree.tree.size());
-        assertEquals(1, tree.geometryMap.size());
+        assertEquals(1, tree.entryMap.size());
 
         tree.delete(widget);
         assertEquals(0, tree.tree.size());
-        assertEquals(0, tree.geometryMap.size());
+        assertEquals(0, tree.entryMap.size());
+    }
+
+    @Test
+    void updateReplacesModifiedWidget() {
+        RTreeWrapper tree = new RTreeWrapper();
+
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        tree.update(new Widget(1L, 500, 500, 2, 100, 100, LocalDateTime.now()));
+
+        assertEquals(1, tree.tree.size());
+        assertEquals(1, tree.entryMap.size());
+        assertEquals(0, tree.search(0, 0, 200, 200).size());
+        assertEquals(1, tree.search(400, 400, 700, 700).size());
+    }
+
+    @Test
+    void deleteModifiedWidget() {
+        RTreeWrapper tree = new RTreeWrapper();
+
+        Widget widget = new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now());
+        tree.add(widget);
+        widget.setZindex(2);
+
+        tree.delete(widget);
+        assertEquals(0, tree.tree.size());
+        assertEquals(0, tree.entryMap.size());
+    }
+
+    @Test
+    void addAllToSmallTreeBulkLoads() {
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+
+        tree.addAll(List.of(
+                new Widget(1L, 500, 500, 1, 100, 100, LocalDateTime.now()),
+                new Widget(2L, 0, 50, 2, 100, 100, LocalDateTime.now())));
+
+        assertEquals(2, tree.tree.size());
+        assertEquals(2, tree.entryMap.size());
+        assertEquals(1, tree.search(0, 0, 200, 200).size());
+        assertEquals(1, tree.search(400, 400, 700, 700).size());
+    }
+
+    @Test
+    void addAllToLargeTreeAddsOneByOne() {
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(2L, 0, 50, 2, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(3L, 50, 0, 3, 100, 100, LocalDateTime.now()));
+
+        tree.addAll(List.of(new Widget(3L, 500, 500, 3, 100, 100, LocalDateTime.now())));
+
+        assertEquals(3, tree.tree.size());
+        assertEquals(3, tree.entryMap.size());
+        assertEquals(1, tree.search(400, 400, 700, 700).size());
+    }
+
+    @Test
+    void updateAll() {
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        Widget deletedWidget = new Widget(2L, 0, 50, 2, 100, 100, LocalDateTime.now());
+        tree.add(deletedWidget);
+
+        tree.updateAll(List.of(
+                new Widget(1L, 500, 500, 1, 100, 100, LocalDateTime.now()),
+                new Widget(3L, 0, 0, 3, 100, 100, LocalDateTime.now())),
+                List.of(deletedWidget));
+
+        assertEquals(2, tree.tree.size());
+        assertEquals(2, tree.entryMap.size());
+        assertEquals(List.of(3L), tree.search(0, 0, 200, 200).stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(1, tree.search(400, 400, 700, 700).size());
+    }
+
+    @Test
+    void rebuild() {
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+
+        List<Widget> widgets = new ArrayList<>();
+        for (long i = 2; i < 1000; i++) {
+            widgets.add(new Widget(i, (int) i * 10, 0, (int) i, 5, 5, LocalDateTime.now()));
+        }
+        tree.rebuild(widgets);
+
+        assertEquals(998, tree.tree.size());
+        assertEquals(998, tree.entryMap.size());
+        assertEquals(0, tree.search(0, 0, 15, 15).size());
+        assertEquals(10, tree.search(100, 0, 199, 10).size());
     }
 
     @Test
@@ -55,6 +152,21 @@ public class RTreeWrapperTest {
         assertEquals(2L, result.get(1).getId());
     }
 
+    @Test
+    void searchWithSkipAndLimit() {
+        RTreeWrapper tree = new RTreeWrapper();
+        for (long i = 1; i <= 10; i++) {
+            tree.add(new Widget(i, (int) i * 10, 0, (int) i, 5, 5, LocalDateTime.now()));
+        }
+
+        List<Widget> all = tree.search(0, 0, 200, 10);
+        List<Widget> page = new ArrayList<>();
+        tree.searchWidgets(0, 0, 200, 10, 3, 4, page::add);
+
+        assertEquals(10, all.size());
+        assertEquals(all.subList(3, 7), page);
+    }
+
     @Test
     void searchFoundsNothing() {
         RTreeWrapper tree = new RTreeWrapper();
@@ -72,4 +184,138 @@ public class RTreeWrapperTest {
 
         assertEquals(0, result.size());
     }
+
+    @Test
+    void searchMatchesBruteForce() {
+        SplittableRandom random = new SplittableRandom(42);
+        List<Widget> widgets = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            widgets.add(new Widget(id, random.nextInt(1000), random.nextInt(1000), (int) id,
+                    1 + random.nextInt(50), 1 + random.nextInt(50), LocalDateTime.now()));
+        }
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.rebuild(widgets);
+
+        for (int i = 0; i < 100; i++) {
+            int left = random.nextInt(1000);
+            int bottom = random.nextInt(1000);
+            int right = left + random.nextInt(500);
+            int top = bottom + random.nextInt(500);
+
+            List<Long> expected = widgets.stream()
+                    .filter(widget -> widget.getX() >= left && widget.getY() >= bottom
+                            && widget.getX() + widget.getWidth() <= right && widget.getY() + widget.getHeight() <= top)
+                    .map(Widget::getId)
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<Widget> all = tree.search(left, bottom, right, top);
+            assertEquals(expected, all.stream().map(Widget::getId).sorted().collect(Collectors.toList()));
+
+            // pages are cut from the same traversal order, whole subtrees within the area are skipped at once
+            int skip = random.nextInt(all.size() + 1);
+            int limit = 1 + random.nextInt(100);
+            List<Widget> page = new ArrayList<>();
+            tree.searchWidgets(left, bottom, right, top, skip, limit, page::add);
+            assertEquals(all.subList(skip, Math.min(all.size(), skip + limit)), page);
+        }
+    }
+
+    @Test
+    void searchIntersectingMatchesBruteForce() {
+        SplittableRandom random = new SplittableRandom(7);
+        List<Widget> widgets = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            widgets.add(new Widget(id, random.nextInt(1000), random.nextInt(1000), (int) id,
+                    1 + random.nextInt(50), 1 + random.nextInt(50), LocalDateTime.now()));
+        }
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.rebuild(widgets);
+
+        for (int i = 0; i < 100; i++) {
+            int left = random.nextInt(1000);
+            int bottom = random.nextInt(1000);
+            int right = left + random.nextInt(500);
+            int top = bottom + random.nextInt(500);
+
+            List<Long> expected = widgets.stream()
+                    .filter(widget -> widget.getX() < right && widget.getY() < top
+                            && widget.getX() + widget.getWidth() > left && widget.getY() + widget.getHeight() > bottom)
+                    .map(Widget::getId)
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<Long> found = new ArrayList<>();
+            tree.search(SpatialIndex.Mode.INTERSECTS, left, bottom, right, top, 0, Integer.MAX_VALUE, found::add);
+            assertEquals(expected, found.stream().sorted().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void searchIntersectingExcludesWidgetsTouchingBorder() {
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.add(new Widget(1L, 0, 0, 1, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(2L, 100, 0, 2, 100, 100, LocalDateTime.now()));
+        tree.add(new Widget(3L, 150, 150, 3, 100, 100, LocalDateTime.now()));
+
+        List<Long> found = new ArrayList<>();
+        tree.search(SpatialIndex.Mode.INTERSECTS, 99, 50, 100, 200, 0, Integer.MAX_VALUE, found::add);
+        assertEquals(List.of(1L), found);
+
+        found.clear();
+        tree.search(SpatialIndex.Mode.INTERSECTS, 120, 90, 160, 160, 0, Integer.MAX_VALUE, found::add);
+        assertEquals(List.of(2L, 3L), found.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    void searchIsExactBeyondFloatPrecision() {
+        RTreeWrapper tree = new RTreeWrapper();
+        int x = (1 << 24) + 1;
+        tree.add(new Widget(1L, x, 0, 1, 1, 1, LocalDateTime.now()));
+
+        assertEquals(1, tree.search(x, 0, x + 1, 1).size());
+        assertEquals(0, tree.search(x + 1, 0, x + 2, 1).size());
+    }
+
+    @Test
+    void searchAllMatchesSearchOfEveryArea() {
+        SplittableRandom random = new SplittableRandom(11);
+        List<Widget> widgets = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            widgets.add(new Widget(id, random.nextInt(1000), random.nextInt(1000), (int) id,
+                    1 + random.nextInt(50), 1 + random.nextInt(50), LocalDateTime.now()));
+        }
+        RTreeWrapper tree = new RTreeWrapper();
+        tree.rebuild(widgets);
+
+        // overlapping areas of every size, one of them covering the whole board
+        List<Area> areas = new ArrayList<>();
+        areas.add(new Area(0, 0, 2000, 2000));
+        while (areas.size() < SpatialIndex.MAX_AREAS) {
+            int left = random.nextInt(1000);
+            int bottom = random.nextInt(1000);
+            areas.add(new Area(left, bottom, left + random.nextInt(500), bottom + random.nextInt(500)));
+        }
+
+        for (SpatialIndex.Mode mode : SpatialIndex.Mode.values()) {
+            List<List<Long>> areaIds = new ArrayList<>();
+            areas.forEach(area -> areaIds.add(new ArrayList<>()));
+            Set<Long> passedIds = new HashSet<>();
+            tree.searchAll(mode, areas, (id, matchedAreas) -> {
+                assertTrue(passedIds.add(id), "passed twice " + id);
+                for (int i = 0; i < areas.size(); i++) {
+                    if ((matchedAreas & 1L << i) != 0) {
+                        areaIds.get(i).add(id);
+                    }
+                }
+            });
+
+            for (int i = 0; i < areas.size(); i++) {
+                Area area = areas.get(i);
+                List<Long> expected = new ArrayList<>();
+                tree.search(mode, area.getLeft(), area.getBottom(), area.getRight(), area.getTop(),
+                        0, Integer.MAX_VALUE, expected::add);
+                assertEquals(expected.stream().sorted().collect(Collectors.toList()),
+                        areaIds.get(i).stream().sorted().collect(Collectors.toList()), mode + " " + area);
+            }
+        }
+    }
 }
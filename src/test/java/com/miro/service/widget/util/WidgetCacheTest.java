@@ -0,0 +1,106 @@
+package com.miro.service.widget.util;
+
+import com.miro.service.widget.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class WidgetCacheTest {
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    void leastRecentlyUsedWidgetIsEvicted() {
+        WidgetCache cache = new WidgetCache(2, 1000, nanoTime::get);
+        cache.put(widget(1));
+        cache.put(widget(2));
+        cache.get(1);
+        cache.put(widget(3));
+
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    void widgetExpiresAfterTtl() {
+        WidgetCache cache = new WidgetCache(2, 1000, nanoTime::get);
+        cache.put(widget(1));
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertNotNull(cache.get(1));
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void widgetReadBeforeInvalidationIsNotPut() {
+        WidgetCache cache = new WidgetCache(2, 1000, nanoTime::get);
+        long generation = cache.generation();
+        cache.invalidate(1);
+
+        cache.putIfNotInvalidated(widget(1), generation);
+        assertNull(cache.get(1));
+
+        cache.putIfNotInvalidated(widget(1), cache.generation());
+        assertNotNull(cache.get(1));
+    }
+
+    @Test
+    void invalidateZIndexBetweenRemovesWidgetsInRangeOnly() {
+        WidgetCache cache = new WidgetCache(10, 1000, nanoTime::get);
+        for (long id = 1; id <= 5; id++) {
+            cache.put(widget(id));
+        }
+        long generation = cache.generation();
+
+        cache.invalidateZIndexBetween(2, 4);
+
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNull(cache.get(4));
+        assertNotNull(cache.get(5));
+        assertEquals(2, cache.size());
+        assertNotEquals(generation, cache.generation());
+    }
+
+    @Test
+    void widgetPutAtZIndexOfAnotherEvictsIt() {
+        WidgetCache cache = new WidgetCache(10, 1000, nanoTime::get);
+        cache.put(widget(1));
+        Widget moved = widget(2);
+        moved.setZindex(1);
+        cache.put(moved);
+
+        assertNull(cache.get(1));
+        // the index follows the moved widget, so its previous z-index is not invalidated
+        cache.invalidateZIndexBetween(2, 2);
+        assertNotNull(cache.get(2));
+        cache.invalidateZIndexBetween(1, 1);
+        assertNull(cache.get(2));
+    }
+
+    @Test
+    void cachedWidgetIsCopied() {
+        WidgetCache cache = new WidgetCache(2, 1000, nanoTime::get);
+        Widget widget = widget(1);
+        cache.put(widget);
+
+        widget.setX(100);
+        cache.get(1).setX(200);
+
+        assertEquals(0, cache.get(1).getX());
+    }
+
+    private static Widget widget(long id) {
+        return new Widget(id, 0, 0, (int) id, 7, 7, LocalDateTime.now());
+    }
+}
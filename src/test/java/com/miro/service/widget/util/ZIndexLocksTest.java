@@ -0,0 +1,50 @@
+package com.miro.service.widget.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZIndexLocksTest {
+    @Test
+    void addStripesOfShortRange() {
+        BitSet stripes = new BitSet();
+        ZIndexLocks.addStripes(stripes, ZIndexLocks.BLOCK_SIZE - 1, ZIndexLocks.BLOCK_SIZE);
+
+        assertEquals(2, stripes.cardinality());
+        assertTrue(stripes.get(0));
+        assertTrue(stripes.get(1));
+    }
+
+    @Test
+    void addStripesOfNegativeZIndexes() {
+        BitSet stripes = new BitSet();
+        ZIndexLocks.addStripes(stripes, -1, -1);
+
+        assertEquals(1, stripes.cardinality());
+        assertTrue(stripes.get(ZIndexLocks.STRIPE_COUNT - 1));
+    }
+
+    @Test
+    void addStripesOfLongRangeTakesAllStripes() {
+        BitSet stripes = new BitSet();
+        ZIndexLocks.addStripes(stripes, 5, 5L + ZIndexLocks.BLOCK_SIZE * ZIndexLocks.STRIPE_COUNT);
+
+        assertEquals(ZIndexLocks.STRIPE_COUNT, stripes.cardinality());
+    }
+
+    @Test
+    void lockAndUnlock() {
+        ZIndexLocks locks = new ZIndexLocks();
+        BitSet stripes = new BitSet();
+        ZIndexLocks.addStripes(stripes, 1, 1000);
+
+        // locks are reentrant, so the same thread may take overlapping ranges
+        locks.lock(stripes);
+        locks.lock(stripes);
+        locks.unlock(stripes);
+        locks.unlock(stripes);
+    }
+}